@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The <code>SpooledUpload</code> provides direct access to the file the
+ * content of a part of a multipart request has been spooled to, such that
+ * large uploads can be processed without copying them.
+ * <p>
+ * The request parameters of multipart requests and the Jakarta Servlet API
+ * parts of these requests implement this interface:
+ *
+ * <pre>
+ * RequestParameter param = request.getRequestParameter("file");
+ * if (param instanceof SpooledUpload) {
+ *     try (FileChannel channel = ((SpooledUpload) param).openChannel()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * Small parts are kept in memory, for which there is no file. The file is
+ * deleted at the end of the request unless it has been moved by writing the
+ * part.
+ *
+ * @since 2.8
+ */
+@ProviderType
+public interface SpooledUpload {
+
+    /**
+     * Get the file holding the content
+     * @return The file or {@code null} if the content is kept in memory
+     */
+    Path getFile();
+
+    /**
+     * Open a read-only channel on the file holding the content
+     * @return The channel, which must be closed by the caller, or
+     *         {@code null} if the content is kept in memory
+     * @throws IOException If the file cannot be opened
+     */
+    FileChannel openChannel() throws IOException;
+}
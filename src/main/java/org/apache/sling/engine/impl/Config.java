@@ -50,6 +50,12 @@ public @interface Config {
      */
     int DEFAULT_MAX_CALL_COUNTER = 1000;
 
+    /**
+     * The default value for the number of servlet names and resource types
+     * for which servlet call durations are kept (value is 100).
+     */
+    int DEFAULT_STATISTICS_BREAKDOWN_SIZE = 100;
+
     @AttributeDefinition(
             name = "Number of Calls per Request",
             description = "Defines the maximum number of Servlet and Script "
@@ -74,6 +80,15 @@ public @interface Config {
                     + "Cross Site Scripting attacks on HTTP servers.")
     boolean sling_trace_allow() default false;
 
+    @AttributeDefinition(
+            name = "Rename Request Threads",
+            description = "If set to true, the name of the thread processing a request is set to the "
+                    + "client address, the current time and the request line while the request is processed, "
+                    + "which helps reading thread dumps. Virtual threads are never renamed. Disabling this "
+                    + "saves building the name and renaming the thread twice per request. The default value "
+                    + "is true.")
+    boolean sling_thread_rename() default true;
+
     @AttributeDefinition(
             name = "Number of Requests to Record",
             description = "Defines the number of requests that "
@@ -88,6 +103,23 @@ public @interface Config {
                     + "limit the requests which are stored by the \"Recent Requests\" Web Console page.")
     String[] sling_store_pattern_requests();
 
+    @AttributeDefinition(
+            name = "Request Duration Percentile Window",
+            description = "The number of minutes the request duration percentiles of the RequestProcessor "
+                    + "MBean are computed from. Values from 1 to 15 are supported, larger values are "
+                    + "limited to 15. If this value is less than or equal to zero, the percentiles cover all "
+                    + "requests since the statistics were last reset. The default value is 0.")
+    int sling_statistics_percentile_window() default 0;
+
+    @AttributeDefinition(
+            name = "Servlet Statistics Size",
+            description = "The maximum number of servlet names and of resource types for which servlet call "
+                    + "durations are kept by the ServletStatistics and ResourceTypeStatistics MBeans. When "
+                    + "the maximum is reached, the least called entry is evicted for a new one. If this value "
+                    + "is less than or equal to zero, no servlet call durations are kept. The default value "
+                    + "is 100.")
+    int sling_statistics_breakdown_size() default DEFAULT_STATISTICS_BREAKDOWN_SIZE;
+
     @AttributeDefinition(
             name = "Server Info",
             description =
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.engine.impl.helper.BoundedKeyedStatistics;
+import org.apache.sling.engine.impl.helper.StripedStatistics;
+
+/**
+ * The <code>KeyedStatisticsMBean</code> exposes {@link BoundedKeyedStatistics}
+ * of servlet call durations through JMX. Each key is a read-only attribute of
+ * type {@link CompositeData} holding the number of calls and the duration
+ * statistics in milliseconds. As keys come and go, the attributes are
+ * computed whenever the {@link MBeanInfo} is requested.
+ */
+public class KeyedStatisticsMBean implements DynamicMBean {
+
+    private static final String OP_RESET = "resetStatistics";
+
+    private static final String[] ITEM_NAMES = {
+        "count",
+        "totalDurationMsec",
+        "meanDurationMsec",
+        "minDurationMsec",
+        "maxDurationMsec",
+        "standardDeviationDurationMsec"
+    };
+
+    private static final CompositeType STATISTICS_TYPE = createStatisticsType();
+
+    private final String description;
+
+    private final BoundedKeyedStatistics statistics;
+
+    public KeyedStatisticsMBean(final String description, final BoundedKeyedStatistics statistics) {
+        this.description = description;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final StripedStatistics stats = statistics.getStatistics(attribute);
+        if (stats == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return toCompositeData(stats);
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        final AttributeList list = new AttributeList();
+        for (final String attribute : attributes) {
+            final StripedStatistics stats = statistics.getStatistics(attribute);
+            if (stats != null) {
+                list.add(new Attribute(attribute, toCompositeData(stats)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Attribute " + attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature)
+            throws ReflectionException {
+        if (OP_RESET.equals(actionName) && (params == null || params.length == 0)) {
+            statistics.reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (final String key : statistics.getStatistics().keySet()) {
+            attributes.add(new MBeanAttributeInfo(
+                    key, CompositeData.class.getName(), "Servlet call statistics of " + key, true, false, false));
+        }
+        final MBeanOperationInfo reset = new MBeanOperationInfo(
+                OP_RESET, "Resets all statistics", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(
+                getClass().getName(),
+                description,
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null,
+                new MBeanOperationInfo[] {reset},
+                null);
+    }
+
+    static CompositeData toCompositeData(final StripedStatistics stats) {
+        final long count = stats.getCount();
+        final double mean = stats.getMean();
+        final Object[] values = {
+            count,
+            mean * count / 1000d,
+            mean / 1000d,
+            count > 0 ? stats.getMin() / 1000d : 0d,
+            stats.getMax() / 1000d,
+            stats.getStandardDeviation() / 1000d
+        };
+        try {
+            return new CompositeDataSupport(STATISTICS_TYPE, ITEM_NAMES, values);
+        } catch (final OpenDataException ode) {
+            // not expected, the values match the type
+            throw new IllegalStateException(ode);
+        }
+    }
+
+    private static CompositeType createStatisticsType() {
+        final String[] descriptions = {
+            "Number of servlet calls",
+            "Total duration of all servlet calls",
+            "Mean duration of a servlet call",
+            "Shortest servlet call",
+            "Longest servlet call",
+            "Standard deviation of the servlet call durations"
+        };
+        final OpenType<?>[] types = {
+            SimpleType.LONG,
+            SimpleType.DOUBLE,
+            SimpleType.DOUBLE,
+            SimpleType.DOUBLE,
+            SimpleType.DOUBLE,
+            SimpleType.DOUBLE
+        };
+        try {
+            return new CompositeType(
+                    "ServletCallStatistics", "Servlet call statistics", ITEM_NAMES, descriptions, types);
+        } catch (final OpenDataException ode) {
+            // not expected, the type is statically defined
+            throw new IllegalStateException(ode);
+        }
+    }
+}
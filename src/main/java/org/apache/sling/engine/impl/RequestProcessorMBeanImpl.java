@@ -18,275 +18,249 @@
  */
 package org.apache.sling.engine.impl;
 
+import javax.management.DynamicMBean;
 import javax.management.NotCompliantMBeanException;
 import javax.management.StandardMBean;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Dictionary;
+import java.util.Hashtable;
 
+import org.apache.sling.engine.impl.helper.BoundedKeyedStatistics;
+import org.apache.sling.engine.impl.helper.ConcurrentHistogram;
+import org.apache.sling.engine.impl.helper.SlidingWindowHistogram;
+import org.apache.sling.engine.impl.helper.StripedStatistics;
 import org.apache.sling.engine.impl.request.RequestData;
 import org.apache.sling.engine.jmx.RequestProcessorMBean;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 
 /**
  * This is the implementation of the management interface for the
  * RequestProcessor.
+ * <p>
+ * In addition the servlet call durations broken down by servlet name and by
+ * resource type are registered as two {@link KeyedStatisticsMBean}s.
  */
 @Component(
         service = {RequestProcessorMBean.class, RequestProcessorMBeanImpl.class},
+        configurationPid = Config.PID,
         property = {"jmx.objectname=org.apache.sling:type=engine,service=RequestProcessor"})
 public class RequestProcessorMBeanImpl extends StandardMBean implements RequestProcessorMBean {
 
-    private final AtomicReference<Data> dataRef = new AtomicReference<Data>(new Data());
+    private volatile Data data = new Data();
+
+    private volatile int percentileWindowMinutes;
+
+    // servlet call durations in microseconds per servlet name
+    private final BoundedKeyedStatistics servletStatistics =
+            new BoundedKeyedStatistics(Config.DEFAULT_STATISTICS_BREAKDOWN_SIZE);
+
+    // servlet call durations in microseconds per resource type
+    private final BoundedKeyedStatistics resourceTypeStatistics =
+            new BoundedKeyedStatistics(Config.DEFAULT_STATISTICS_BREAKDOWN_SIZE);
+
+    private ServiceRegistration<DynamicMBean> servletStatisticsRegistration;
+
+    private ServiceRegistration<DynamicMBean> resourceTypeStatisticsRegistration;
 
     public RequestProcessorMBeanImpl() throws NotCompliantMBeanException {
         super(RequestProcessorMBean.class);
     }
 
-    void addRequestData(final RequestData data) {
-
-        // do a non-blocking busy loop and atomically set the new data
-        // the advantage of this algorithm is that there is no blocking
-        // involved
-        //
-        // there might be some memory churn under high contention, but that
-        // remains to be seen
-        for (; ; ) {
+    @Activate
+    void activate(final BundleContext bundleContext, final Config config) {
+        configure(config);
+        this.servletStatisticsRegistration = registerStatistics(
+                bundleContext, "ServletStatistics", "Servlet call durations by servlet name", servletStatistics);
+        this.resourceTypeStatisticsRegistration = registerStatistics(
+                bundleContext,
+                "ResourceTypeStatistics",
+                "Servlet call durations by resource type",
+                resourceTypeStatistics);
+    }
 
-            Data oldVal = dataRef.get();
-            Data newVal = new Data(oldVal, data);
+    @Modified
+    void configure(final Config config) {
+        this.percentileWindowMinutes = Math.min(
+                Math.max(config.sling_statistics_percentile_window(), 0), SlidingWindowHistogram.MAX_WINDOW_MINUTES);
+        this.servletStatistics.setMaxSize(config.sling_statistics_breakdown_size());
+        this.resourceTypeStatistics.setMaxSize(config.sling_statistics_breakdown_size());
+    }
 
-            boolean success = dataRef.compareAndSet(oldVal, newVal);
-            if (success) {
-                break;
-            }
+    @Deactivate
+    void deactivate() {
+        if (this.servletStatisticsRegistration != null) {
+            this.servletStatisticsRegistration.unregister();
+            this.servletStatisticsRegistration = null;
         }
+        if (this.resourceTypeStatisticsRegistration != null) {
+            this.resourceTypeStatisticsRegistration.unregister();
+            this.resourceTypeStatisticsRegistration = null;
+        }
+    }
+
+    private static ServiceRegistration<DynamicMBean> registerStatistics(
+            final BundleContext bundleContext,
+            final String name,
+            final String description,
+            final BoundedKeyedStatistics statistics) {
+        final Dictionary<String, String> props = new Hashtable<>();
+        props.put("jmx.objectname", "org.apache.sling:type=engine,service=" + name);
+        return bundleContext.registerService(
+                DynamicMBean.class, new KeyedStatisticsMBean(description, statistics), props);
+    }
+
+    void addRequestData(final RequestData requestData) {
+        // the statistics are kept in striped cells which are only merged
+        // when reading them, so recording a request neither allocates
+        // nor contends with requests running on other threads
+        final Data localData = this.data;
+        localData.duration.add(requestData.getElapsedTimeMsec());
+        final long durationUsec = requestData.getElapsedTimeUsec();
+        localData.durationHistogram.record(durationUsec);
+        localData.durationWindow.record(durationUsec);
+        localData.servletCallCount.add(requestData.getServletCallCount());
+        localData.peakRecursionDepth.add(requestData.getPeakRecusionDepth());
+    }
+
+    /**
+     * Records the duration of a single servlet call, including any nested
+     * includes and forwards, for the servlet and resource type breakdown.
+     *
+     * @param servletName The name of the called servlet
+     * @param resourceType The resource type of the current resource, may be
+     *            {@code null}
+     * @param durationUsec The duration of the call in microseconds
+     */
+    void addServletCallData(final String servletName, final String resourceType, final long durationUsec) {
+        servletStatistics.add(servletName, durationUsec);
+        resourceTypeStatistics.add(resourceType, durationUsec);
+    }
+
+    BoundedKeyedStatistics getServletStatistics() {
+        return servletStatistics;
+    }
+
+    BoundedKeyedStatistics getResourceTypeStatistics() {
+        return resourceTypeStatistics;
     }
 
     public void resetStatistics() {
-        dataRef.set(new Data());
+        // requests concurrently being recorded may still end up in the
+        // old instance, which is acceptable for these statistics
+        this.data = new Data();
     }
 
     public long getRequestsCount() {
-        return dataRef.get().n;
+        return data.duration.getCount();
     }
 
     public long getMinRequestDurationMsec() {
-        return dataRef.get().durationMsecMin;
+        return data.duration.getMin();
     }
 
     public long getMaxRequestDurationMsec() {
-        return dataRef.get().durationMsecMax;
+        return data.duration.getMax();
     }
 
     public double getStandardDeviationDurationMsec() {
-        return dataRef.get().standardDeviationDurationMsec;
+        return data.duration.getStandardDeviation();
     }
 
     public double getMeanRequestDurationMsec() {
-        return dataRef.get().meanRequestDurationMsec;
+        return data.duration.getMean();
+    }
+
+    public double getP50RequestDurationMsec() {
+        return getRequestDurationPercentileMsec(50);
+    }
+
+    public double getP90RequestDurationMsec() {
+        return getRequestDurationPercentileMsec(90);
+    }
+
+    public double getP99RequestDurationMsec() {
+        return getRequestDurationPercentileMsec(99);
+    }
+
+    public double getP999RequestDurationMsec() {
+        return getRequestDurationPercentileMsec(99.9);
+    }
+
+    public int getPercentileWindowMinutes() {
+        return percentileWindowMinutes;
+    }
+
+    private double getRequestDurationPercentileMsec(final double percentile) {
+        final Data localData = this.data;
+        final int window = this.percentileWindowMinutes;
+        final long usec = window > 0
+                ? localData.durationWindow.getValueAtPercentile(percentile, window)
+                : localData.durationHistogram.getValueAtPercentile(percentile);
+        return usec / 1000d;
     }
 
     public int getMaxPeakRecursionDepth() {
-        return dataRef.get().peakRecursionDepthMax;
+        return toInt(data.peakRecursionDepth.getMax());
     }
 
     public int getMinPeakRecursionDepth() {
-        return dataRef.get().peakRecursionDepthMin;
+        return toInt(data.peakRecursionDepth.getMin());
     }
 
     public double getMeanPeakRecursionDepth() {
-        return dataRef.get().meanPeakRecursionDepth;
+        return data.peakRecursionDepth.getMean();
     }
 
     public double getStandardDeviationPeakRecursionDepth() {
-        return dataRef.get().standardDeviationPeakRecursionDepth;
+        return data.peakRecursionDepth.getStandardDeviation();
     }
 
     public int getMaxServletCallCount() {
-        return dataRef.get().servletCallCountMax;
+        return toInt(data.servletCallCount.getMax());
     }
 
     public int getMinServletCallCount() {
-        return dataRef.get().servletCallCountMin;
+        return toInt(data.servletCallCount.getMin());
     }
 
     public double getMeanServletCallCount() {
-
-        return dataRef.get().meanServletCallCount;
+        return data.servletCallCount.getMean();
     }
 
     public double getStandardDeviationServletCallCount() {
-
-        return dataRef.get().standardDeviationServletCallCount;
+        return data.servletCallCount.getStandardDeviation();
     }
 
     /**
-     * Helper class to atomically hold raw data and compute statistics
+     * Narrows a statistics value of an int source to int, mapping the
+     * {@code Long.MAX_VALUE} minimum of empty statistics to
+     * {@code Integer.MAX_VALUE}.
      */
-    private static class Data {
-
-        // number of requests
-        private final long n;
-
-        // shortest request
-        private final long durationMsecMin;
-
-        // longest request
-        private final long durationMsecMax;
-
-        // sum of request durations
-        private final double durationMsecSumX;
-
-        // sum of squared request durations
-        private final double durationMsecSumX2;
-
-        private final int servletCallCountMin;
-
-        private final int servletCallCountMax;
-
-        private final double servletCallCountSumX;
-
-        private final double servletCallCountSumX2;
-
-        private final int peakRecursionDepthMin;
-
-        private final int peakRecursionDepthMax;
-
-        private final double peakRecursionDepthSumX;
-
-        private final double peakRecursionDepthSumX2;
-
-        private final double standardDeviationDurationMsec;
-
-        private final double meanRequestDurationMsec;
-
-        private final double meanPeakRecursionDepth;
-
-        private final double standardDeviationPeakRecursionDepth;
-
-        private final double meanServletCallCount;
-
-        private final double standardDeviationServletCallCount;
-
-        // computed fields
-
-        Data() {
-            n = 0;
-
-            durationMsecMin = Long.MAX_VALUE;
-            durationMsecMax = 0;
-            durationMsecSumX = 0;
-            durationMsecSumX2 = 0;
-
-            servletCallCountMin = Integer.MAX_VALUE;
-            servletCallCountMax = 0;
-            servletCallCountSumX = 0;
-            servletCallCountSumX2 = 0;
-
-            peakRecursionDepthMin = Integer.MAX_VALUE;
-            peakRecursionDepthMax = 0;
-            peakRecursionDepthSumX = 0;
-            peakRecursionDepthSumX2 = 0;
-
-            standardDeviationDurationMsec = computeStandardDeviationDurationMsec();
-            meanRequestDurationMsec = computeMeanRequestDurationMsec();
-            meanPeakRecursionDepth = computeMeanPeakRecursionDepth();
-            standardDeviationPeakRecursionDepth = computeStandardDeviationPeakRecursionDepth();
-            meanServletCallCount = computeMeanServletCallCount();
-            standardDeviationServletCallCount = computeStandardDeviationServletCallCount();
-        }
-
-        Data(Data other, RequestData data) {
-            if (other == null || data == null) {
-                throw new IllegalArgumentException("Neither 'other' nor 'data' may be null");
-            }
-
-            final long duration = data.getElapsedTimeMsec();
-            final int servletCallCount = data.getServletCallCount();
-            final int peakRecursionDepth = data.getPeakRecusionDepth();
-
-            n = other.n + 1;
-
-            durationMsecMin = Math.min(duration, other.durationMsecMin);
-            durationMsecMax = Math.max(duration, other.durationMsecMax);
-            durationMsecSumX = other.durationMsecSumX + duration;
-            durationMsecSumX2 = other.durationMsecSumX2 + (duration * duration);
-
-            servletCallCountMin = Math.min(servletCallCount, other.servletCallCountMin);
-            servletCallCountMax = Math.max(servletCallCount, other.servletCallCountMax);
-            servletCallCountSumX = other.servletCallCountSumX + servletCallCount;
-            servletCallCountSumX2 = other.servletCallCountSumX2 + (servletCallCount * servletCallCount);
-
-            peakRecursionDepthMin = Math.min(peakRecursionDepth, other.peakRecursionDepthMin);
-            peakRecursionDepthMax = Math.max(peakRecursionDepth, other.peakRecursionDepthMax);
-            peakRecursionDepthSumX = other.peakRecursionDepthSumX + peakRecursionDepth;
-            peakRecursionDepthSumX2 = other.peakRecursionDepthSumX2 + (peakRecursionDepth * peakRecursionDepth);
-
-            standardDeviationDurationMsec = computeStandardDeviationDurationMsec();
-            meanRequestDurationMsec = computeMeanRequestDurationMsec();
-            meanPeakRecursionDepth = computeMeanPeakRecursionDepth();
-            standardDeviationPeakRecursionDepth = computeStandardDeviationPeakRecursionDepth();
-            meanServletCallCount = computeMeanServletCallCount();
-            standardDeviationServletCallCount = computeStandardDeviationServletCallCount();
-        }
-
-        private double computeStandardDeviationDurationMsec() {
-            if (this.n > 1) {
-                // algorithm taken from
-                // http://de.wikipedia.org/wiki/Standardabweichung section
-                // "Berechnung fuer auflaufende Messwerte"
-                return Math.sqrt((this.durationMsecSumX2 - this.durationMsecSumX * this.durationMsecSumX / this.n)
-                        / (this.n - 1));
-            }
-
-            // single data point has no deviation
-            return 0;
-        }
-
-        private double computeMeanRequestDurationMsec() {
-            if (this.n > 0) {
-                return this.durationMsecSumX / this.n;
-            } else {
-                return 0;
-            }
-        }
+    private static int toInt(final long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
 
-        private double computeMeanPeakRecursionDepth() {
-            if (this.n > 0) {
-                return this.peakRecursionDepthSumX / this.n;
-            } else {
-                return 0;
-            }
-        }
+    /**
+     * Helper class holding the statistics which are replaced as a whole
+     * when resetting
+     */
+    private static final class Data {
 
-        private double computeStandardDeviationPeakRecursionDepth() {
-            if (this.n > 1) {
-                return Math.sqrt((this.peakRecursionDepthSumX2
-                                - this.peakRecursionDepthSumX * this.peakRecursionDepthSumX / this.n)
-                        / (this.n - 1));
-            }
+        private final StripedStatistics duration = new StripedStatistics();
 
-            // single data point has no deviation
-            return 0;
-        }
+        // request durations in microseconds
+        private final ConcurrentHistogram durationHistogram = new ConcurrentHistogram();
 
-        private double computeMeanServletCallCount() {
-            if (this.n > 0) {
-                return this.servletCallCountSumX / this.n;
-            } else {
-                return 0;
-            }
-        }
+        // request durations in microseconds of the last minutes
+        private final SlidingWindowHistogram durationWindow = new SlidingWindowHistogram();
 
-        private double computeStandardDeviationServletCallCount() {
-            if (this.n > 1) {
-                return Math.sqrt(
-                        (this.servletCallCountSumX2 - this.servletCallCountSumX * this.servletCallCountSumX / this.n)
-                                / (this.n - 1));
-            }
+        private final StripedStatistics servletCallCount = new StripedStatistics();
 
-            // single data point has no deviation
-            return 0;
-        }
+        private final StripedStatistics peakRecursionDepth = new StripedStatistics();
     }
 }
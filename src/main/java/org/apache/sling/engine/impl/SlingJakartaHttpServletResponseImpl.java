@@ -354,14 +354,14 @@ public class SlingJakartaHttpServletResponseImpl extends HttpServletResponseWrap
      * @return an optional message to log
      */
     protected Optional<String> checkContentTypeOverride(@Nullable String contentType) {
-        if (requestData.getSlingRequestProcessor().getContentTypeHeaderState() == ContentTypeHeaderState.VIOLATED) {
+        if (requestData.getContentTypeHeaderState() == ContentTypeHeaderState.VIOLATED) {
             // return immediatly as the content type header has already been violated
             // prevoiously, no more checks needed
             return Optional.empty();
         }
         String currentContentType = getContentType();
         if (contentType == null) {
-            requestData.getSlingRequestProcessor().setContentTypeHeaderState(ContentTypeHeaderState.VIOLATED);
+            requestData.setContentTypeHeaderState(ContentTypeHeaderState.VIOLATED);
             return Optional.of(getMessage(currentContentType, null));
         } else {
             Optional<String> currentMime = currentContentType == null
@@ -371,7 +371,7 @@ public class SlingJakartaHttpServletResponseImpl extends HttpServletResponseWrap
             if (currentMime.isPresent()
                     && setMime.isPresent()
                     && !currentMime.get().equals(setMime.get())) {
-                requestData.getSlingRequestProcessor().setContentTypeHeaderState(ContentTypeHeaderState.VIOLATED);
+                requestData.setContentTypeHeaderState(ContentTypeHeaderState.VIOLATED);
                 return Optional.of(getMessage(currentContentType, contentType));
             }
         }
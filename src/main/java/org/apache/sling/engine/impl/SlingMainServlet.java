@@ -18,10 +18,16 @@
  */
 package org.apache.sling.engine.impl;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.GenericServlet;
 import jakarta.servlet.Servlet;
 import jakarta.servlet.ServletContext;
@@ -92,6 +98,11 @@ public class SlingMainServlet extends GenericServlet {
 
     private volatile boolean allowTrace;
 
+    private volatile boolean renameThreads = true;
+
+    /** {@code Thread.isVirtual()} or {@code null} if not available */
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
     private volatile ServiceRegistration<Servlet> servletRegistration;
 
     // ---------- Servlet API -------------------------------------------------
@@ -103,7 +114,7 @@ public class SlingMainServlet extends GenericServlet {
             HttpServletRequest request = (HttpServletRequest) req;
 
             // set the thread name according to the request
-            String threadName = setThreadName(request);
+            String threadName = renameThreads ? setThreadName(request) : null;
 
             final RequestListenerManager localRLM = requestListenerManager;
             if (localRLM != null) {
@@ -143,14 +154,12 @@ public class SlingMainServlet extends GenericServlet {
 
             } finally {
 
-                // close the resource resolver (not relying on servlet request
-                // listener to do this for now; see SLING-1270)
-                if (resolver != null) {
-                    resolver.close();
-                }
-
-                if (localRLM != null) {
-                    localRLM.sendEvent(request, SlingJakartaRequestEvent.EventType.EVENT_DESTROY);
+                if (request.isAsyncStarted()) {
+                    // the request is still processed asynchronously, e.g.
+                    // reading an upload, which may still use the resolver
+                    request.getAsyncContext().addListener(new AsyncRequestEnd(request, resolver, localRLM));
+                } else {
+                    endRequest(request, resolver, localRLM);
                 }
 
                 // reset the thread name
@@ -164,6 +173,68 @@ public class SlingMainServlet extends GenericServlet {
         }
     }
 
+    private static void endRequest(
+            final HttpServletRequest request,
+            final ResourceResolver resolver,
+            final RequestListenerManager requestListenerManager) {
+        // close the resource resolver (not relying on servlet request
+        // listener to do this for now; see SLING-1270)
+        if (resolver != null) {
+            resolver.close();
+        }
+
+        if (requestListenerManager != null) {
+            requestListenerManager.sendEvent(request, SlingJakartaRequestEvent.EventType.EVENT_DESTROY);
+        }
+    }
+
+    /**
+     * Ends a request once its asynchronous processing completes.
+     */
+    private static final class AsyncRequestEnd implements AsyncListener {
+
+        private final HttpServletRequest request;
+
+        private final ResourceResolver resolver;
+
+        private final RequestListenerManager requestListenerManager;
+
+        // the request is ended once, even if the listener has been added again
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        AsyncRequestEnd(
+                final HttpServletRequest request,
+                final ResourceResolver resolver,
+                final RequestListenerManager requestListenerManager) {
+            this.request = request;
+            this.resolver = resolver;
+            this.requestListenerManager = requestListenerManager;
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            if (ended.compareAndSet(false, true)) {
+                endRequest(request, resolver, requestListenerManager);
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            // the request is completed by the container afterwards
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            // the request is completed by the container afterwards
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // keep listening if the asynchronous processing is restarted
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
     // ---------- Property Setter for SCR --------------------------------------
 
     @Modified
@@ -178,6 +249,8 @@ public class SlingMainServlet extends GenericServlet {
                 "(" + HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_NAME + "=" + SlingHttpContext.SERVLET_CONTEXT_NAME
                         + ")");
         servletConfig.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN, "/");
+        // required for the asynchronous upload mode of the parameter support
+        servletConfig.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, Boolean.TRUE);
         if (servletName != null) {
             servletConfig.put(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME, servletName);
         }
@@ -190,6 +263,7 @@ public class SlingMainServlet extends GenericServlet {
     protected void setup(final Config config) {
         // configure method filter
         this.allowTrace = config.sling_trace_allow();
+        this.renameThreads = config.sling_thread_rename();
 
         String servletName = config.servlet_name();
         if (servletName == null || servletName.isEmpty()) {
@@ -241,12 +315,20 @@ public class SlingMainServlet extends GenericServlet {
      *
      * @param request The request to extract the remote IP address, method,
      *            request URL and protocol from.
-     * @return The name of the current thread before setting the new name.
+     * @return The name of the current thread before setting the new name or
+     *         {@code null} if the current thread is a virtual thread, which is
+     *         not renamed.
      */
     private String setThreadName(HttpServletRequest request) {
 
-        // get the name of the current thread (to be returned)
+        // virtual threads are created per request and are not pooled, so
+        // renaming them does not help telling requests apart
         Thread thread = Thread.currentThread();
+        if (isVirtual(thread)) {
+            return null;
+        }
+
+        // get the name of the current thread (to be returned)
         String oldThreadName = thread.getName();
 
         // construct and set the new thread name of the form:
@@ -262,4 +344,33 @@ public class SlingMainServlet extends GenericServlet {
         // return the previous thread name
         return oldThreadName;
     }
+
+    /**
+     * Returns whether the thread is a virtual thread. As the bundle is built
+     * for Java 17, {@code Thread.isVirtual()} (Java 21) is looked up once and
+     * called through a method handle if available.
+     *
+     * @param thread The thread to check
+     * @return {@code true} if the thread is a virtual thread
+     */
+    static boolean isVirtual(final Thread thread) {
+        if (IS_VIRTUAL != null) {
+            try {
+                return (boolean) IS_VIRTUAL.invokeExact(thread);
+            } catch (final Throwable t) {
+                // not expected, fall back to a platform thread
+            }
+        }
+        return false;
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            // running on Java 17 to 20
+            return null;
+        }
+    }
 }
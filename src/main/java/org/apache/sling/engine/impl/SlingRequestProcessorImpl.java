@@ -60,7 +60,6 @@ import org.apache.sling.commons.mime.MimeTypeService;
 import org.apache.sling.engine.SlingRequestProcessor;
 import org.apache.sling.engine.impl.debug.RequestInfoProviderImpl;
 import org.apache.sling.engine.impl.filter.ErrorFilterChain;
-import org.apache.sling.engine.impl.filter.FilterHandle;
 import org.apache.sling.engine.impl.filter.RequestSlingFilterChain;
 import org.apache.sling.engine.impl.filter.ServletFilterManager;
 import org.apache.sling.engine.impl.filter.ServletFilterManager.FilterChainType;
@@ -86,6 +85,15 @@ import org.slf4j.LoggerFactory;
         configurationPid = Config.PID)
 public class SlingRequestProcessorImpl implements SlingRequestProcessor {
 
+    /** progress tracker messages per filter chain type, computed once instead of per request */
+    private static final String[] APPLYING_FILTERS = new String[FilterChainType.values().length];
+
+    static {
+        for (final FilterChainType type : FilterChainType.values()) {
+            APPLYING_FILTERS[type.ordinal()] = "Applying " + type + " filters";
+        }
+    }
+
     /** default log */
     private final Logger log = LoggerFactory.getLogger(SlingRequestProcessorImpl.class);
 
@@ -121,9 +129,6 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
     private volatile boolean checkContentTypeOnInclude;
     private volatile boolean disableCheckCompliantGetUserPrincipal;
 
-    private static final ThreadLocal<ContentTypeHeaderState> contentTypeHeaderState =
-            ThreadLocal.withInitial(() -> ContentTypeHeaderState.UNSET);
-
     @Activate
     public void activate(final Config config) {
         this.modified(config);
@@ -200,6 +205,21 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
         return maxInclusionCounter;
     }
 
+    /**
+     * Records the duration of a servlet call in the servlet and resource
+     * type statistics.
+     *
+     * @param servletName The name of the called servlet
+     * @param resourceType The resource type of the resource, may be {@code null}
+     * @param durationUsec The duration of the call in microseconds
+     */
+    public void addServletCallData(final String servletName, final String resourceType, final long durationUsec) {
+        final RequestProcessorMBeanImpl localBean = this.mbean;
+        if (localBean != null) {
+            localBean.addServletCallData(servletName, resourceType, durationUsec);
+        }
+    }
+
     public List<StaticResponseHeader> getAdditionalResponseHeaders() {
         return this.additionalResponseHeaders;
     }
@@ -282,22 +302,16 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
         final SlingJakartaHttpServletResponse response = requestData.getSlingResponse();
 
         try {
-            if (getContentTypeHeaderState() != ContentTypeHeaderState.UNSET) {
-                log.debug(
-                        "Content Type Header state has not been cleared properly, is set to {}",
-                        getContentTypeHeaderState());
-            }
-            setContentTypeHeaderState(ContentTypeHeaderState.NOT_VIOLATED);
+            requestData.setContentTypeHeaderState(ContentTypeHeaderState.NOT_VIOLATED);
 
             // initialize the request data - resolve resource and servlet
             final Resource resource = requestData.initResource(resourceResolver);
             requestData.initServlet(resource, sr);
 
-            final FilterHandle[] filters = filterManager.getFilters(FilterChainType.REQUEST);
-            final FilterChain processor = new RequestSlingFilterChain(this, filters);
+            final FilterChain processor =
+                    new RequestSlingFilterChain(this, filterManager.getFilterIndex(FilterChainType.REQUEST));
 
-            request.getRequestProgressTracker()
-                    .log("Applying ".concat(FilterChainType.REQUEST.name()).concat("filters"));
+            request.getRequestProgressTracker().log(APPLYING_FILTERS[FilterChainType.REQUEST.ordinal()]);
 
             processor.doFilter(request, response);
 
@@ -360,8 +374,6 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
             if (localBean != null) {
                 localBean.addRequestData(requestData);
             }
-
-            setContentTypeHeaderState(ContentTypeHeaderState.UNSET);
         }
     }
 
@@ -433,10 +445,8 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
             final FilterChainType filterChainType)
             throws IOException, ServletException {
 
-        final FilterHandle filters[] = filterManager.getFilters(filterChainType);
-
-        FilterChain processor = new SlingComponentFilterChain(filters);
-        request.getRequestProgressTracker().log("Applying " + filterChainType + "filters");
+        FilterChain processor = new SlingComponentFilterChain(filterManager.getFilterIndex(filterChainType));
+        request.getRequestProgressTracker().log(APPLYING_FILTERS[filterChainType.ordinal()]);
         processor.doFilter(request, response);
     }
 
@@ -502,7 +512,7 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
             final SlingJakartaHttpServletRequest request,
             final SlingJakartaHttpServletResponse response)
             throws IOException {
-        request.getRequestProgressTracker().log("Applying " + FilterChainType.ERROR + " filters");
+        request.getRequestProgressTracker().log(APPLYING_FILTERS[FilterChainType.ERROR.ordinal()]);
 
         try {
             // wrap the response ensuring getWriter will fall back to wrapping
@@ -519,8 +529,8 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
             final SlingJakartaHttpServletRequest request,
             final SlingJakartaHttpServletResponse response)
             throws IOException {
-        final FilterHandle[] filters = filterManager.getFilters(FilterChainType.ERROR);
-        final FilterChain processor = new ErrorFilterChain(filters, errorHandler, status, message);
+        final FilterChain processor = new ErrorFilterChain(
+                filterManager.getFilterIndex(FilterChainType.ERROR), errorHandler, status, message);
         this.handleError(processor, request, response);
     }
 
@@ -529,8 +539,8 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
             final SlingJakartaHttpServletRequest request,
             final SlingJakartaHttpServletResponse response)
             throws IOException {
-        final FilterHandle[] filters = filterManager.getFilters(FilterChainType.ERROR);
-        final FilterChain processor = new ErrorFilterChain(filters, errorHandler, throwable);
+        final FilterChain processor =
+                new ErrorFilterChain(filterManager.getFilterIndex(FilterChainType.ERROR), errorHandler, throwable);
         this.handleError(processor, request, response);
     }
 
@@ -591,12 +601,4 @@ public class SlingRequestProcessorImpl implements SlingRequestProcessor {
         log.debug("getMimeType: MimeTypeService not available, cannot resolve mime type for {}", name);
         return null;
     }
-
-    public ContentTypeHeaderState getContentTypeHeaderState() {
-        return contentTypeHeaderState.get();
-    }
-
-    public void setContentTypeHeaderState(ContentTypeHeaderState newState) {
-        contentTypeHeaderState.set(newState);
-    }
 }
@@ -19,6 +19,7 @@
 package org.apache.sling.engine.impl.filter;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -34,23 +35,68 @@ import org.slf4j.LoggerFactory;
 public abstract class AbstractSlingFilterChain implements FilterChain {
     protected static final Logger LOG = LoggerFactory.getLogger(AbstractSlingFilterChain.class);
 
+    private static final long NOT_CALLED = -1;
+
     private FilterHandle[] filters;
 
     private int current;
 
-    private long[] times;
+    // inclusive time in microseconds of the filter at the same index, the
+    // last entry is the time of rendering; NOT_CALLED if the filter (or
+    // rendering) has not been called. Not allocated without filters as
+    // there are no timings to consolidate then.
+    private final long[] times;
+
+    private FilterSelectionCache selectionCache;
+
+    // the index the candidates are looked up in, null if all filters are
+    // to be selected by their predicates
+    private final FilterSelectionIndex index;
+
+    // the candidates looked up for the request the chain has been entered
+    // with, null if the index does not leave out any filter
+    private FilterHandle[] candidates;
+
+    // the position in candidates of the next candidate not yet passed
+    private int nextCandidate;
+
+    // the request the candidates have been looked up for
+    private SlingJakartaHttpServletRequest indexedRequest;
 
     protected AbstractSlingFilterChain(final FilterHandle[] filters) {
+        this(filters, null);
+    }
+
+    /**
+     * Creates a chain of the filters of the index. The filters left out by
+     * the index for the request the chain is entered with are not selected
+     * as long as that request is passed on. Once a filter has passed on
+     * another request, e.g. a wrapper changing the selectors, the filters
+     * are selected by their predicates alone.
+     *
+     * @param index The index of the filters
+     */
+    protected AbstractSlingFilterChain(final FilterSelectionIndex index) {
+        this(index.getFilters(), index);
+    }
+
+    private AbstractSlingFilterChain(final FilterHandle[] filters, final FilterSelectionIndex index) {
         this.filters = filters;
+        this.index = index;
         this.current = -1;
-        this.times = new long[filters.length + 1];
+        if (filters.length > 0) {
+            this.times = new long[filters.length + 1];
+            Arrays.fill(this.times, NOT_CALLED);
+        } else {
+            this.times = null;
+        }
     }
 
     public void doFilter(final ServletRequest request, final ServletResponse response)
             throws ServletException, IOException {
 
-        final int filterIdx = ++this.current;
-        final long start = System.nanoTime();
+        final boolean outermost = this.current == -1;
+        int filterIdx = ++this.current;
 
         if (filterIdx > this.filters.length) {
             // this happens when the whole filter chain has been executed, and a filter in that chain,
@@ -64,35 +110,42 @@ public abstract class AbstractSlingFilterChain implements FilterChain {
         SlingJakartaHttpServletRequest slingRequest = toSlingRequest(request);
         SlingJakartaHttpServletResponse slingResponse = toSlingResponse(response);
 
+        if (outermost && this.index != null) {
+            final FilterHandle[] indexed = this.index.getCandidates(slingRequest);
+            if (indexed != this.filters) {
+                this.candidates = indexed;
+                this.indexedRequest = slingRequest;
+            }
+        }
+
+        // skip all filters not selected for this request in a loop, such
+        // that neither a stack frame nor timing is spent on them
+        while (filterIdx < this.filters.length && !select(filterIdx, slingRequest)) {
+            LOG.debug("{} was not selected for this request", this.filters[filterIdx]);
+            this.filters[filterIdx].trackSkip();
+            filterIdx++;
+        }
+        this.current = filterIdx;
+
+        final long start = System.nanoTime();
         try {
+            if (filterIdx < this.filters.length) {
 
-            if (this.current < this.filters.length) {
-
-                // continue filtering with the next filter
-                FilterHandle filter = this.filters[this.current];
-
-                if (filter.select(slingRequest)) {
-                    LOG.debug("{} got selected for this request", filter);
-                    trackFilter(slingRequest, filter);
-                    filter.getFilter().doFilter(slingRequest, slingResponse, this);
-                } else {
-                    LOG.debug("{} was not selected for this request", filter);
-                    if (this.current == this.filters.length - 1) {
-                        this.render(slingRequest, slingResponse);
-                    } else {
-                        doFilter(slingRequest, slingResponse);
-                    }
-                }
+                // continue filtering with the next selected filter
+                FilterHandle filter = this.filters[filterIdx];
+                LOG.debug("{} got selected for this request", filter);
+                trackFilter(slingRequest, filter);
+                filter.getFilter().doFilter(slingRequest, slingResponse, this);
             } else {
                 this.render(slingRequest, slingResponse);
             }
 
         } finally {
-            if (filterIdx < times.length) {
+            if (times != null) {
                 times[filterIdx] = (System.nanoTime() - start) / 1000;
-                if (filterIdx == 0) {
-                    consolidateFilterTimings(slingRequest);
-                }
+            }
+            if (outermost) {
+                consolidateFilterTimings(slingRequest);
             }
         }
     }
@@ -102,6 +155,31 @@ public abstract class AbstractSlingFilterChain implements FilterChain {
 
     // ---------- internal helper
 
+    private boolean select(final int filterIdx, final SlingJakartaHttpServletRequest request) {
+        final FilterHandle filter = this.filters[filterIdx];
+        if (this.candidates != null) {
+            // the candidates are in chain order, thus a filter is a candidate
+            // if it is the next candidate not yet passed
+            final boolean candidate = nextCandidate < candidates.length && candidates[nextCandidate] == filter;
+            if (candidate) {
+                nextCandidate++;
+            } else if (request == indexedRequest) {
+                return false;
+            }
+        }
+        return filter.select(request, getSelectionCache(request));
+    }
+
+    private FilterSelectionCache getSelectionCache(SlingJakartaHttpServletRequest request) {
+        if (selectionCache == null) {
+            final RequestData data = RequestData.getRequestData(request);
+            if (data != null) {
+                selectionCache = data.getFilterSelectionCache();
+            }
+        }
+        return selectionCache;
+    }
+
     private void trackFilter(ServletRequest request, FilterHandle filter) {
         final RequestData data = RequestData.getRequestData(request);
         if (data != null) {
@@ -116,16 +194,27 @@ public abstract class AbstractSlingFilterChain implements FilterChain {
             final RequestData data = RequestData.getRequestData(request);
             final RequestProgressTracker tracker = (data != null) ? data.getRequestProgressTracker() : null;
 
-            for (int i = filters.length - 1; i > 0; i--) {
-                filters[i].trackTime(times[i] - times[i + 1]);
+            // the inner time of a filter is the time of the next filter
+            // called, or rendering, or zero if the filter ended the chain
+            long inner = times[filters.length] != NOT_CALLED ? times[filters.length] : 0;
+            for (int i = filters.length - 1; i >= 0; i--) {
+                // filters not selected or not reached as a previous filter
+                // did not continue the chain have no timing of their own
+                if (times[i] == NOT_CALLED) {
+                    continue;
+                }
+                filters[i].trackTime(times[i] - inner, times[i]);
                 if (tracker != null) {
+                    // the numbers are passed preformatted, a number pattern
+                    // would have the tracker create a MessageFormat per call
                     tracker.log(
-                            "Filter timing: filter={0}, inner={1,number,#}, total={2,number,#}, outer={3,number,#}",
+                            "Filter timing: filter={0}, inner={1}, total={2}, outer={3}",
                             filters[i].getFilter().getClass().getName(),
-                            times[i + 1],
-                            times[i],
-                            (times[i] - times[i + 1]));
+                            String.valueOf(inner),
+                            String.valueOf(times[i]),
+                            String.valueOf(times[i] - inner));
                 }
+                inner = times[i];
             }
         }
     }
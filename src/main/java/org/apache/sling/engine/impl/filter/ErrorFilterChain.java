@@ -68,6 +68,19 @@ public class ErrorFilterChain extends AbstractSlingFilterChain {
         this.throwable = null;
     }
 
+    public ErrorFilterChain(
+            final FilterSelectionIndex index,
+            final JakartaErrorHandler errorHandler,
+            final int status,
+            final String message) {
+        super(index);
+        this.mode = Mode.STATUS;
+        this.status = status;
+        this.message = message;
+        this.errorHandler = errorHandler;
+        this.throwable = null;
+    }
+
     public ErrorFilterChain(final FilterHandle[] filters, final JakartaErrorHandler errorHandler, final Throwable t) {
         super(filters);
         this.mode = Mode.THROWABLE;
@@ -77,6 +90,16 @@ public class ErrorFilterChain extends AbstractSlingFilterChain {
         this.errorHandler = errorHandler;
     }
 
+    public ErrorFilterChain(
+            final FilterSelectionIndex index, final JakartaErrorHandler errorHandler, final Throwable t) {
+        super(index);
+        this.mode = Mode.THROWABLE;
+        this.status = 0;
+        this.message = null;
+        this.throwable = t;
+        this.errorHandler = errorHandler;
+    }
+
     @Override
     public void doFilter(final ServletRequest request, final ServletResponse response)
             throws ServletException, IOException {
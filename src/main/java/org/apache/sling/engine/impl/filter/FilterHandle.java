@@ -83,9 +83,24 @@ public class FilterHandle implements Comparable<FilterHandle> {
         return orderSource;
     }
 
+    FilterPredicate getPredicate() {
+        return predicate;
+    }
+
     boolean select(SlingJakartaHttpServletRequest slingHttpServletRequest) {
+        return select(slingHttpServletRequest, null);
+    }
+
+    /**
+     * @param slingHttpServletRequest the request
+     * @param cache the outcomes of the predicates for this request, may be null
+     * @return true if this filter is to be called for the request
+     */
+    boolean select(SlingJakartaHttpServletRequest slingHttpServletRequest, FilterSelectionCache cache) {
         if (predicate != null) {
-            return predicate.test(slingHttpServletRequest);
+            return cache != null
+                    ? cache.test(predicate, slingHttpServletRequest)
+                    : predicate.test(slingHttpServletRequest);
         }
         return true;
     }
@@ -114,14 +129,24 @@ public class FilterHandle implements Comparable<FilterHandle> {
         calls.incrementAndGet();
     }
 
+    /**
+     * record a request for which this filter was not selected
+     */
+    void trackSkip() {
+        if (mbean != null) {
+            mbean.addFilterSkip();
+        }
+    }
+
     /**
      * record timing
-     * @param time in microseconds
+     * @param exclusiveTime time spent in the filter itself in microseconds
+     * @param inclusiveTime time spent in the filter and the rest of the chain in microseconds
      */
-    void trackTime(long time) {
-        this.time.addAndGet(time);
+    void trackTime(long exclusiveTime, long inclusiveTime) {
+        this.time.addAndGet(exclusiveTime);
         if (mbean != null) {
-            mbean.addFilterHandle(this);
+            mbean.addFilterCall(exclusiveTime, inclusiveTime);
         }
     }
 
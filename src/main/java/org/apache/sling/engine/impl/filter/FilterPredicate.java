@@ -20,6 +20,7 @@ package org.apache.sling.engine.impl.filter;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.regex.Pattern;
 
 import jakarta.servlet.Filter;
@@ -83,7 +84,7 @@ public class FilterPredicate {
         final String[] value = Converters.standardConverter()
                 .convert(reference.getProperty(propertyName))
                 .to(String[].class);
-        return value != null && value.length > 0 ? asList(value) : null;
+        return value != null && value.length > 0 ? new HashSet<>(asList(value)) : null;
     }
 
     /**
@@ -98,13 +99,30 @@ public class FilterPredicate {
         return pattern != null && pattern.length() > 0 ? Pattern.compile(pattern) : null;
     }
 
+    /**
+     * @param allowed configured element
+     * @param actual element of the given request
+     * @return true if the element matches the configured ones, or if not or misconfigured
+     */
+    private boolean anyElementMatches(final Collection<String> allowed, final String actual) {
+        return allowed == null || (actual != null && allowed.contains(actual));
+    }
+
     /**
      * @param allowed configured element
      * @param actual elements of the given request
      * @return true if any elements matches the configured ones, or if not or misconfigured
      */
-    private boolean anyElementMatches(final Collection<String> allowed, final String... actual) {
-        return allowed == null || !Collections.disjoint(allowed, asList(actual));
+    private boolean anyElementMatches(final Collection<String> allowed, final String[] actual) {
+        if (allowed == null) {
+            return true;
+        }
+        for (final String element : actual) {
+            if (element != null && allowed.contains(element)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -137,26 +155,93 @@ public class FilterPredicate {
                 || pattern.matcher(candidate).matches();
     }
 
+    /**
+     * @return the configured methods or {@code null} if the method is not a condition
+     */
+    Collection<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return the configured extensions or {@code null} if the extension is not a condition
+     */
+    Collection<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * @return the configured selectors or {@code null} if the selectors are not a condition
+     */
+    Collection<String> getSelectors() {
+        return selectors;
+    }
+
+    /**
+     * Tests the method, extension and selector conditions only, as used by
+     * the {@link FilterSelectionIndex}.
+     *
+     * @param method request method, may be {@code null}
+     * @param extension request extension, may be {@code null}
+     * @param requestSelectors request selectors
+     * @return true if these conditions match
+     */
+    boolean matchesIndexed(final String method, final String extension, final Collection<String> requestSelectors) {
+        return anyElementMatches(methods, method)
+                && anyElementMatches(extensions, extension)
+                && (selectors == null || !Collections.disjoint(selectors, requestSelectors));
+    }
+
     /**
      * @param req request that is tested upon this predicate
      * @return true if this predicate's configuration match the request
      */
     boolean test(final SlingJakartaHttpServletRequest req) {
         LOG.debug("starting filter test against {} request", req);
+        final boolean select = testShape(req) && testPaths(req);
+        LOG.debug("selection of {} returned {}", this, select);
+        return select;
+    }
+
+    /**
+     * Tests the conditions which do not depend on the paths of the request,
+     * such that the outcome may be shared by requests of different resources
+     * of the same type, as done by the {@link FilterSelectionCache}.
+     *
+     * @param req request that is tested upon this predicate
+     * @return true if the method, selector, extension, resource type and suffix conditions match
+     */
+    boolean testShape(final SlingJakartaHttpServletRequest req) {
         final RequestPathInfo requestPathInfo = req.getRequestPathInfo();
-        final String path = requestPathInfo.getResourcePath();
-        final String uri = req.getPathInfo();
-        boolean select = anyElementMatches(methods, req.getMethod())
+        return anyElementMatches(methods, req.getMethod())
                 && anyElementMatches(selectors, requestPathInfo.getSelectors())
                 && anyElementMatches(extensions, requestPathInfo.getExtension())
                 && anyResourceTypeMatches(resourceTypes, req)
-                && (patternMatches(pathRegex, path == null || path.isEmpty() ? "/" : path)
+                && patternMatches(suffixRegex, requestPathInfo.getSuffix());
+    }
+
+    /**
+     * @return true if the outcome of this predicate depends on the request or resource path
+     */
+    boolean hasPathConditions() {
+        return pathRegex != null || requestPathRegex != null || resourcePathRegex != null;
+    }
+
+    /**
+     * Tests the conditions on the request and resource path only.
+     *
+     * @param req request that is tested upon this predicate
+     * @return true if the path conditions match
+     */
+    boolean testPaths(final SlingJakartaHttpServletRequest req) {
+        if (!hasPathConditions()) {
+            return true;
+        }
+        final String path = req.getRequestPathInfo().getResourcePath();
+        final String uri = req.getPathInfo();
+        return (patternMatches(pathRegex, path == null || path.isEmpty() ? "/" : path)
                         || patternMatches(pathRegex, uri == null || uri.isEmpty() ? "/" : uri))
                 && (patternMatches(requestPathRegex, uri == null || uri.isEmpty() ? "/" : uri))
-                && (patternMatches(resourcePathRegex, path == null || path.isEmpty() ? "/" : path))
-                && patternMatches(suffixRegex, requestPathInfo.getSuffix());
-        LOG.debug("selection of {} returned {}", this, select);
-        return select;
+                && (patternMatches(resourcePathRegex, path == null || path.isEmpty() ? "/" : path));
     }
 
     @Override
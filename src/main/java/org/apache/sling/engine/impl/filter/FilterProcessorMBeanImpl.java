@@ -21,6 +21,10 @@ package org.apache.sling.engine.impl.filter;
 import javax.management.NotCompliantMBeanException;
 import javax.management.StandardMBean;
 
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.sling.engine.impl.helper.ConcurrentHistogram;
+import org.apache.sling.engine.impl.helper.StripedStatistics;
 import org.apache.sling.engine.jmx.FilterProcessorMBean;
 
 /**
@@ -29,34 +33,97 @@ import org.apache.sling.engine.jmx.FilterProcessorMBean;
  */
 public class FilterProcessorMBeanImpl extends StandardMBean implements FilterProcessorMBean {
 
-    // number of filter invocations
-    private volatile long n;
-
-    private volatile double meanDuration;
+    private volatile Data data = new Data();
 
     public FilterProcessorMBeanImpl() throws NotCompliantMBeanException {
         super(FilterProcessorMBean.class);
-        resetStatistics();
     }
 
-    void addFilterHandle(FilterHandle filterHandle) {
-        this.n = filterHandle.getCalls();
-        this.meanDuration = (double) filterHandle.getTimePerCall() / 1000;
+    /**
+     * Records a call of the filter.
+     *
+     * @param exclusiveUsec time spent in the filter itself in microseconds
+     * @param inclusiveUsec time spent in the filter and the rest of the chain
+     *            in microseconds
+     */
+    void addFilterCall(final long exclusiveUsec, final long inclusiveUsec) {
+        final Data localData = this.data;
+        localData.exclusive.add(exclusiveUsec);
+        localData.exclusiveHistogram.record(exclusiveUsec);
+        localData.inclusive.add(inclusiveUsec);
+        localData.inclusiveHistogram.record(inclusiveUsec);
+    }
+
+    /**
+     * Records a request for which the filter was not selected.
+     */
+    void addFilterSkip() {
+        this.data.skipped.increment();
     }
 
     @Override
     public long getInvocationsCount() {
-        return this.n;
+        return data.exclusive.getCount();
+    }
+
+    @Override
+    public long getSkippedCount() {
+        return data.skipped.sum();
     }
 
     @Override
     public double getMeanFilterDurationMsec() {
-        return this.meanDuration;
+        return data.exclusive.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50FilterDurationMsec() {
+        return data.exclusiveHistogram.getValueAtPercentile(50) / 1000d;
+    }
+
+    @Override
+    public double getP99FilterDurationMsec() {
+        return data.exclusiveHistogram.getValueAtPercentile(99) / 1000d;
+    }
+
+    @Override
+    public double getMeanInclusiveFilterDurationMsec() {
+        return data.inclusive.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50InclusiveFilterDurationMsec() {
+        return data.inclusiveHistogram.getValueAtPercentile(50) / 1000d;
+    }
+
+    @Override
+    public double getP99InclusiveFilterDurationMsec() {
+        return data.inclusiveHistogram.getValueAtPercentile(99) / 1000d;
     }
 
     @Override
     public void resetStatistics() {
-        this.n = 0;
-        this.meanDuration = 0;
+        // calls concurrently being recorded may still end up in the old
+        // instance, which is acceptable for these statistics
+        this.data = new Data();
+    }
+
+    /**
+     * Helper class holding the statistics which are replaced as a whole
+     * when resetting
+     */
+    private static final class Data {
+
+        private final LongAdder skipped = new LongAdder();
+
+        // filter durations in microseconds excluding the rest of the chain
+        private final StripedStatistics exclusive = new StripedStatistics();
+
+        private final ConcurrentHistogram exclusiveHistogram = new ConcurrentHistogram();
+
+        // filter durations in microseconds including the rest of the chain
+        private final StripedStatistics inclusive = new StripedStatistics();
+
+        private final ConcurrentHistogram inclusiveHistogram = new ConcurrentHistogram();
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.filter;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+
+/**
+ * The <code>FilterSelectionCache</code> memoizes the outcome of
+ * {@link FilterPredicate#testShape} for the duration of a single request.
+ * <p>
+ * Apart from its path conditions, the outcome of a predicate only depends on
+ * the request method, the selectors, extension and suffix of the
+ * {@link RequestPathInfo} and the resource type of the request's resource.
+ * Outcomes are kept per predicate for each distinct combination of these,
+ * such that including the same kind of component many times, for different
+ * resources, only evaluates these conditions of the component, include and
+ * forward filters once. Path conditions are always evaluated, as the paths
+ * differ for most includes.
+ * <p>
+ * At most {@value #MAX_SHAPES} combinations are kept, predicates are evaluated
+ * without caching for any further ones.
+ * <p>
+ * Instances are bound to a request and are not thread-safe.
+ */
+public final class FilterSelectionCache {
+
+    static final int MAX_SHAPES = 64;
+
+    private final Map<Shape, Map<FilterPredicate, Boolean>> outcomes = new HashMap<>();
+
+    // the request and content the last outcomes were looked up for
+    private SlingJakartaHttpServletRequest lastRequest;
+
+    private RequestPathInfo lastRequestPathInfo;
+
+    private Resource lastResource;
+
+    private Map<FilterPredicate, Boolean> lastOutcomes;
+
+    /**
+     * Returns the outcome of the predicate for the request, testing the
+     * conditions of the predicate other than its path conditions only if it
+     * has not been tested for a request of the same shape before.
+     *
+     * @param predicate The predicate
+     * @param request The request
+     * @return the outcome of the predicate
+     */
+    boolean test(final FilterPredicate predicate, final SlingJakartaHttpServletRequest request) {
+        final Map<FilterPredicate, Boolean> shapeOutcomes = getOutcomes(request);
+        if (shapeOutcomes == null) {
+            return predicate.test(request);
+        }
+        Boolean outcome = shapeOutcomes.get(predicate);
+        if (outcome == null) {
+            outcome = predicate.testShape(request);
+            shapeOutcomes.put(predicate, outcome);
+        }
+        return outcome && predicate.testPaths(request);
+    }
+
+    private Map<FilterPredicate, Boolean> getOutcomes(final SlingJakartaHttpServletRequest request) {
+        final RequestPathInfo requestPathInfo = request.getRequestPathInfo();
+        final Resource resource = request.getResource();
+
+        // consecutive filters of a chain are usually tested against the same
+        // request and content, in which case the shape is not built again
+        if (request != lastRequest || requestPathInfo != lastRequestPathInfo || resource != lastResource) {
+            lastRequest = request;
+            lastRequestPathInfo = requestPathInfo;
+            lastResource = resource;
+            final Shape shape = new Shape(request, requestPathInfo, resource);
+            lastOutcomes = outcomes.get(shape);
+            if (lastOutcomes == null && outcomes.size() < MAX_SHAPES) {
+                lastOutcomes = new IdentityHashMap<>(8);
+                outcomes.put(shape, lastOutcomes);
+            }
+        }
+        return lastOutcomes;
+    }
+
+    /**
+     * The request properties the outcome of a predicate depends on.
+     */
+    private static final class Shape {
+
+        private final String method;
+
+        private final String selectorString;
+
+        private final String extension;
+
+        private final String suffix;
+
+        private final String resourceType;
+
+        private final String resourceSuperType;
+
+        private final int hashCode;
+
+        Shape(
+                final SlingJakartaHttpServletRequest request,
+                final RequestPathInfo requestPathInfo,
+                final Resource resource) {
+            this.method = request.getMethod();
+            this.selectorString = requestPathInfo == null ? null : requestPathInfo.getSelectorString();
+            this.extension = requestPathInfo == null ? null : requestPathInfo.getExtension();
+            this.suffix = requestPathInfo == null ? null : requestPathInfo.getSuffix();
+            this.resourceType = resource == null ? null : resource.getResourceType();
+            this.resourceSuperType = resource == null ? null : resource.getResourceSuperType();
+
+            int h = Objects.hashCode(method);
+            h = 31 * h + Objects.hashCode(selectorString);
+            h = 31 * h + Objects.hashCode(extension);
+            h = 31 * h + Objects.hashCode(suffix);
+            h = 31 * h + Objects.hashCode(resourceType);
+            this.hashCode = 31 * h + Objects.hashCode(resourceSuperType);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Shape)) {
+                return false;
+            }
+            final Shape other = (Shape) obj;
+            return hashCode == other.hashCode
+                    && Objects.equals(method, other.method)
+                    && Objects.equals(selectorString, other.selectorString)
+                    && Objects.equals(extension, other.extension)
+                    && Objects.equals(suffix, other.suffix)
+                    && Objects.equals(resourceType, other.resourceType)
+                    && Objects.equals(resourceSuperType, other.resourceSuperType);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+
+/**
+ * The <code>FilterSelectionIndex</code> narrows down the filters of a chain
+ * to the candidates for a request by the request method, extension and
+ * selectors, which are the filter conditions which can be decided by exact
+ * string comparison.
+ * <p>
+ * The index is built once whenever the filters of a chain change. Method,
+ * extension and selectors of a request are mapped to the values configured
+ * by any filter, values not configured by any filter are all treated alike.
+ * Thus the number of distinct candidate arrays is bounded by the filter
+ * configuration and not by the requests. The candidate arrays are computed
+ * on first use and shared by all requests with the same key.
+ * <p>
+ * Candidates still have to be {@link FilterHandle#select selected} as their
+ * other conditions (resource types and patterns) depend on the request.
+ * Filters without any condition are never removed by the index.
+ * <p>
+ * The candidates only hold for the request they are looked up for. A filter
+ * may pass on a wrapped request with a different method, extension or
+ * selectors, for which the {@link AbstractSlingFilterChain} falls back to
+ * selecting all remaining filters by their predicates.
+ */
+public final class FilterSelectionIndex {
+
+    /** the maximum number of candidate arrays kept */
+    static final int MAX_CACHED_KEYS = 1024;
+
+    private final FilterHandle[] filters;
+
+    /** true if no filter has any method, extension or selector condition */
+    private final boolean unconditional;
+
+    private final Set<String> methods = new HashSet<>();
+
+    private final Set<String> extensions = new HashSet<>();
+
+    private final Set<String> selectors = new HashSet<>();
+
+    private final Map<Key, FilterHandle[]> candidates = new ConcurrentHashMap<>();
+
+    FilterSelectionIndex(final FilterHandle[] filters) {
+        this.filters = filters;
+        for (final FilterHandle filter : filters) {
+            final FilterPredicate predicate = filter.getPredicate();
+            if (predicate != null) {
+                addAll(this.methods, predicate.getMethods());
+                addAll(this.extensions, predicate.getExtensions());
+                addAll(this.selectors, predicate.getSelectors());
+            }
+        }
+        this.unconditional = methods.isEmpty() && extensions.isEmpty() && selectors.isEmpty();
+    }
+
+    FilterHandle[] getFilters() {
+        return filters;
+    }
+
+    /**
+     * Returns the filters which may be selected for the request, in chain
+     * order.
+     *
+     * @param request The request
+     * @return the candidate filters, must not be modified
+     */
+    FilterHandle[] getCandidates(final SlingJakartaHttpServletRequest request) {
+        if (unconditional) {
+            return filters;
+        }
+        final RequestPathInfo requestPathInfo = request.getRequestPathInfo();
+        if (requestPathInfo == null) {
+            return filters;
+        }
+
+        final Key key = new Key(
+                known(methods, request.getMethod()),
+                known(extensions, requestPathInfo.getExtension()),
+                knownSelectors(requestPathInfo.getSelectors()));
+        FilterHandle[] result = candidates.get(key);
+        if (result == null) {
+            result = computeCandidates(key);
+            if (candidates.size() < MAX_CACHED_KEYS) {
+                candidates.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private FilterHandle[] computeCandidates(final Key key) {
+        final List<FilterHandle> result = new ArrayList<>(filters.length);
+        for (final FilterHandle filter : filters) {
+            final FilterPredicate predicate = filter.getPredicate();
+            if (predicate == null || predicate.matchesIndexed(key.method, key.extension, key.selectors)) {
+                result.add(filter);
+            }
+        }
+        return result.size() == filters.length ? filters : result.toArray(new FilterHandle[result.size()]);
+    }
+
+    private Collection<String> knownSelectors(final String[] requestSelectors) {
+        Collection<String> result = Collections.emptySet();
+        if (requestSelectors != null && !selectors.isEmpty()) {
+            for (final String selector : requestSelectors) {
+                if (selectors.contains(selector)) {
+                    if (result.isEmpty()) {
+                        // sorted for the key to not depend on the selector order
+                        result = new TreeSet<>();
+                    }
+                    result.add(selector);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String known(final Set<String> values, final String value) {
+        return value != null && values.contains(value) ? value : null;
+    }
+
+    private static void addAll(final Set<String> target, final Collection<String> values) {
+        if (values != null) {
+            target.addAll(values);
+        }
+    }
+
+    private static final class Key {
+
+        private final String method;
+
+        private final String extension;
+
+        private final Collection<String> selectors;
+
+        private final int hashCode;
+
+        Key(final String method, final String extension, final Collection<String> selectors) {
+            this.method = method;
+            this.extension = extension;
+            this.selectors = selectors;
+            this.hashCode = 31 * (31 * Objects.hashCode(method) + Objects.hashCode(extension)) + selectors.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(method, other.method)
+                    && Objects.equals(extension, other.extension)
+                    && selectors.equals(other.selectors);
+        }
+    }
+}
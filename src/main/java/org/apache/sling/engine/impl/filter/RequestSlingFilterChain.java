@@ -41,6 +41,11 @@ public class RequestSlingFilterChain extends AbstractSlingFilterChain {
         this.handler = handler;
     }
 
+    public RequestSlingFilterChain(SlingRequestProcessorImpl handler, FilterSelectionIndex index) {
+        super(index);
+        this.handler = handler;
+    }
+
     @Override
     protected void render(SlingJakartaHttpServletRequest request, SlingJakartaHttpServletResponse response)
             throws ServletException, IOException {
@@ -125,6 +125,10 @@ public class ServletFilterManager {
         return getFilterChain(chain).getFilters();
     }
 
+    public FilterSelectionIndex getFilterIndex(final FilterChainType chain) {
+        return getFilterChain(chain).getIndex();
+    }
+
     @Reference(
             service = Filter.class,
             updated = "updatedFilter",
@@ -38,6 +38,10 @@ public class SlingComponentFilterChain extends AbstractSlingFilterChain {
         super(filters);
     }
 
+    public SlingComponentFilterChain(FilterSelectionIndex index) {
+        super(index);
+    }
+
     protected void render(SlingJakartaHttpServletRequest request, SlingJakartaHttpServletResponse response)
             throws IOException, ServletException {
         RequestData.service(request, response);
@@ -30,6 +30,9 @@ import jakarta.servlet.Filter;
  * ordering, each filter is optionally registered with an ordering index. If
  * none is provided the default ordering index is Integer.MAX_VALUE to append
  * the filter to the end of the list.
+ * <p>
+ * Whenever the filters change, a {@link FilterSelectionIndex} is built, from
+ * which the filter chains retrieve the candidate filters for a request.
  */
 public class SlingFilterChainHelper {
 
@@ -37,7 +40,7 @@ public class SlingFilterChainHelper {
 
     private final SortedSet<FilterHandle> filterList = new TreeSet<>();
 
-    private volatile FilterHandle[] filters = EMPTY_FILTER_ARRAY;
+    private volatile FilterSelectionIndex index = new FilterSelectionIndex(EMPTY_FILTER_ARRAY);
 
     /**
      * Add a filter
@@ -58,7 +61,7 @@ public class SlingFilterChainHelper {
             final String orderSource,
             FilterProcessorMBeanImpl mbean) {
         this.filterList.add(new FilterHandle(filter, wrappedJavaxFilter, pattern, filterId, order, orderSource, mbean));
-        this.filters = getFiltersInternal();
+        this.index = new FilterSelectionIndex(getFiltersInternal());
     }
 
     public synchronized boolean removeFilterById(final long filterId) {
@@ -66,7 +69,7 @@ public class SlingFilterChainHelper {
             final FilterHandle test = fi.next();
             if (test.getFilterId() == filterId) {
                 fi.remove();
-                this.filters = getFiltersInternal();
+                this.index = new FilterSelectionIndex(getFiltersInternal());
                 return true;
             }
         }
@@ -82,7 +85,16 @@ public class SlingFilterChainHelper {
      * @return the filters
      */
     public FilterHandle[] getFilters() {
-        return filters;
+        return index.getFilters();
+    }
+
+    /**
+     * Returns the index of the filters added to this instance.
+     * This method doesn't need to be synced as the update is atomic.
+     * @return the index
+     */
+    public FilterSelectionIndex getIndex() {
+        return index;
     }
 
     private FilterHandle[] getFiltersInternal() {
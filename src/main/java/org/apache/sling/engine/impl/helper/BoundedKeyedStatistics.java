@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The <code>BoundedKeyedStatistics</code> keeps {@link StripedStatistics}
+ * per key for at most a configurable number of keys.
+ * <p>
+ * Recording a value for a known key is lock-free. When the maximum number of
+ * keys is reached, keys are replaced following the space-saving scheme: a
+ * new key replaces the key with the lowest weight and inherits that weight,
+ * the weight of a key being the number of values recorded for it plus the
+ * weight it inherited. Thus a key showing up late is not replaced right away
+ * by the next new key, while the most frequently used keys are retained even
+ * if the number of distinct keys is unbounded.
+ * <p>
+ * Only one thread at a time looks for a key to replace. A value for a new key
+ * recorded while another thread does so is not kept, such that a flood of
+ * distinct keys never blocks the recording threads.
+ */
+public final class BoundedKeyedStatistics {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile int maxSize;
+
+    /**
+     * @param maxSize The maximum number of keys, if zero or negative no values
+     *            are recorded at all.
+     */
+    public BoundedKeyedStatistics(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Records a value for the given key. If the key is {@code null} or
+     * statistics are disabled, nothing is recorded.
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void add(final String key, final long value) {
+        if (key == null || maxSize <= 0) {
+            return;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = addEntry(key);
+            if (entry == null) {
+                return;
+            }
+        }
+        entry.stats.add(value);
+    }
+
+    /**
+     * Adds an entry for the key unless another thread is adding an entry
+     * at the same time.
+     *
+     * @return the entry or {@code null} if none has been added
+     */
+    private Entry addEntry(final String key) {
+        if (!lock.tryLock()) {
+            return null;
+        }
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                long inherited = 0;
+                if (entries.size() >= maxSize) {
+                    final Entry victim = evict(maxSize - 1);
+                    if (victim != null) {
+                        inherited = victim.getWeight();
+                    }
+                }
+                entry = new Entry(inherited);
+                entries.put(key, entry);
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the maximum number of keys, evicting the keys with the lowest
+     * weight if there are more than the new maximum.
+     *
+     * @param maxSize The new maximum
+     */
+    public void setMaxSize(final int maxSize) {
+        lock.lock();
+        try {
+            this.maxSize = maxSize;
+            evict(Math.max(maxSize, 0));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the statistics per key, sorted by key
+     */
+    public Map<String, StripedStatistics> getStatistics() {
+        final Map<String, StripedStatistics> result = new TreeMap<>();
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().stats);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @param key The key
+     * @return the statistics of the key or {@code null} if none are kept for
+     *         the key
+     */
+    public StripedStatistics getStatistics(final String key) {
+        final Entry entry = entries.get(key);
+        return entry == null ? null : entry.stats;
+    }
+
+    public void reset() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * evict the keys with the lowest weight until no more than size keys are
+     * left
+     *
+     * @return the last entry evicted or {@code null} if none has been evicted
+     */
+    private Entry evict(final int size) {
+        Entry evicted = null;
+        while (entries.size() > size && !entries.isEmpty()) {
+            String victim = null;
+            long victimWeight = Long.MAX_VALUE;
+            for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+                final long weight = entry.getValue().getWeight();
+                if (weight < victimWeight) {
+                    victim = entry.getKey();
+                    victimWeight = weight;
+                }
+            }
+            evicted = entries.remove(victim);
+        }
+        return evicted;
+    }
+
+    private static final class Entry {
+
+        private final StripedStatistics stats = new StripedStatistics();
+
+        // the weight inherited from the entry replaced by this one
+        private final long inherited;
+
+        Entry(final long inherited) {
+            this.inherited = inherited;
+        }
+
+        long getWeight() {
+            return inherited + stats.getCount();
+        }
+    }
+}
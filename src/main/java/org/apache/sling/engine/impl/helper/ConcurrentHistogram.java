@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The <code>ConcurrentHistogram</code> is a fixed size, log-bucketed
+ * histogram of non-negative long values in the spirit of the HdrHistogram.
+ * <p>
+ * Values below 32 are counted exactly. Larger values are counted in buckets
+ * which split each power of two into 32 sub-buckets, which limits the
+ * relative error of the reported percentiles to about 3%. Values of 2^36 and
+ * above are counted in the last bucket. For microsecond values this covers
+ * about 19 hours with 1024 buckets (8KB).
+ * <p>
+ * Recording a value is a single atomic increment and does not allocate.
+ * Percentiles are computed from the bucket counts on demand.
+ */
+public final class ConcurrentHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 35;
+
+    /** The number of buckets of each histogram */
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Records a value. Negative values are counted as zero.
+     *
+     * @param value The value to record
+     */
+    public void record(final long value) {
+        counts.incrementAndGet(bucketIndex(value));
+    }
+
+    /**
+     * Returns the value at the given percentile of all values recorded so
+     * far.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return the value at the percentile or {@code 0} if no value has been
+     *         recorded yet
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        addTo(snapshot);
+        return valueAtPercentile(snapshot, percentile);
+    }
+
+    /**
+     * Adds the bucket counts of this histogram to the given array of
+     * {@link #BUCKET_COUNT} entries.
+     */
+    void addTo(final long[] target) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            target[i] += counts.get(i);
+        }
+    }
+
+    static long valueAtPercentile(final long[] buckets, final double percentile) {
+        long total = 0;
+        for (final long count : buckets) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, Math.min(total, (long) Math.ceil(percentile / 100 * total)));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return medianValue(i);
+            }
+        }
+
+        // not expected, the counts add up to total
+        return medianValue(buckets.length - 1);
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long lowestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return ((long) (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long medianValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return lowestValue(index) + ((1L << shift) >> 1);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * The <code>SlidingWindowHistogram</code> keeps one
+ * {@link ConcurrentHistogram} per minute for the last
+ * {@link #MAX_WINDOW_MINUTES} minutes such that percentiles can be computed
+ * for the recent past only.
+ * <p>
+ * A window of <i>n</i> minutes covers the current, partial minute plus the
+ * <i>n</i> minutes before, so it always holds at least <i>n</i> full
+ * minutes of data. The histogram of a minute is replaced (not cleared) when
+ * its slot is reused, so recording never blocks and only allocates once per
+ * minute.
+ */
+public final class SlidingWindowHistogram {
+
+    /** The largest supported window in minutes */
+    public static final int MAX_WINDOW_MINUTES = 15;
+
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(MAX_WINDOW_MINUTES + 1);
+
+    private final LongSupplier nanoClock;
+
+    public SlidingWindowHistogram() {
+        this(System::nanoTime);
+    }
+
+    SlidingWindowHistogram(final LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Records a value for the current minute.
+     *
+     * @param value The value to record
+     */
+    public void record(final long value) {
+        final long minute = currentMinute();
+        final int index = (int) Math.floorMod(minute, (long) slots.length());
+        Slot slot = slots.get(index);
+        if (slot == null || slot.minute != minute) {
+            final Slot fresh = new Slot(minute);
+            slot = slots.compareAndSet(index, slot, fresh) ? fresh : slots.get(index);
+        }
+        slot.histogram.record(value);
+    }
+
+    /**
+     * Returns the value at the given percentile of the values recorded within
+     * the given window.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @param minutes The window in minutes, limited to
+     *            {@link #MAX_WINDOW_MINUTES}
+     * @return the value at the percentile or {@code 0} if no value has been
+     *         recorded within the window
+     */
+    public long getValueAtPercentile(final double percentile, final int minutes) {
+        final long now = currentMinute();
+        final long oldest = now - Math.min(Math.max(minutes, 0), MAX_WINDOW_MINUTES);
+        final long[] snapshot = new long[ConcurrentHistogram.BUCKET_COUNT];
+        for (int i = 0; i < slots.length(); i++) {
+            final Slot slot = slots.get(i);
+            if (slot != null && slot.minute >= oldest && slot.minute <= now) {
+                slot.histogram.addTo(snapshot);
+            }
+        }
+        return ConcurrentHistogram.valueAtPercentile(snapshot, percentile);
+    }
+
+    private long currentMinute() {
+        return Math.floorDiv(nanoClock.getAsLong(), NANOS_PER_MINUTE);
+    }
+
+    private static final class Slot {
+
+        private final long minute;
+
+        private final ConcurrentHistogram histogram = new ConcurrentHistogram();
+
+        Slot(final long minute) {
+            this.minute = minute;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The <code>StripedStatistics</code> class accumulates count, sum, sum of
+ * squares, minimum and maximum of a series of values.
+ * <p>
+ * All values are kept in striped cells ({@link LongAdder} and friends) so
+ * that concurrent updates neither block nor allocate and only contend if
+ * more threads than cells update at the same time. The cells are only merged
+ * when one of the getters is called. As the getters read the cells one after
+ * the other, the values returned while updates are in progress are not an
+ * atomic snapshot, which is fine for monitoring purposes.
+ */
+public final class StripedStatistics {
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final DoubleAdder sumOfSquares = new DoubleAdder();
+
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Adds a value to the statistics.
+     *
+     * @param value The value to add
+     */
+    public void add(final long value) {
+        count.increment();
+        sum.add(value);
+        sumOfSquares.add((double) value * value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the number of values added
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the smallest value added or {@code Long.MAX_VALUE} if no value
+     *         has been added yet
+     */
+    public long getMin() {
+        return min.get();
+    }
+
+    /**
+     * @return the largest value added or {@code 0} if no value has been added
+     *         yet
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values added or {@code 0} if no value has been
+     *         added yet
+     */
+    public double getMean() {
+        final long n = getCount();
+        if (n > 0) {
+            return (double) sum.sum() / n;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the standard deviation of the values added or {@code 0} if less
+     *         than two values have been added
+     */
+    public double getStandardDeviation() {
+        final long n = getCount();
+        if (n > 1) {
+            // algorithm taken from
+            // http://de.wikipedia.org/wiki/Standardabweichung section
+            // "Berechnung fuer auflaufende Messwerte"
+            final double sumX = sum.sum();
+            final double variance = (sumOfSquares.sum() - sumX * sumX / n) / (n - 1);
+            // concurrent updates between reading the cells may leave a
+            // tiny negative rest which must not end up as NaN
+            return variance > 0 ? Math.sqrt(variance) : 0;
+        }
+
+        // single data point has no deviation
+        return 0;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.sling.engine.RequestLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>AsyncRequestLog</code> decouples writing log messages from the
+ * request threads. Messages are queued in a bounded
+ * {@link RequestLogRingBuffer} and a dedicated writer thread takes them from
+ * there in batches and writes them to the wrapped {@link RequestLog}. If the
+ * wrapped log is a {@link BatchRequestLog} each batch is written with a
+ * single call, such that a file is only flushed once per batch. Binary
+ * records are queued the same way if the wrapped log is a
+ * {@link BinaryRequestLog}.
+ * <p>
+ * If the buffer is full, the {@link OverflowPolicy} decides whether the
+ * request thread waits for the writer thread or the message is discarded.
+ */
+@Deprecated
+class AsyncRequestLog implements RequestLog, BinaryRequestLog {
+
+    /**
+     * What to do with a message if the buffer is full.
+     */
+    enum OverflowPolicy {
+
+        /** wait until the writer thread has made room for the message */
+        BLOCK,
+
+        /** discard the message, only counting it in the statistics */
+        DROP,
+
+        /**
+         * discard the message and write the number of discarded messages to
+         * the log once there is room again
+         */
+        COUNT;
+
+        static OverflowPolicy fromString(final String value) {
+            if (value != null) {
+                try {
+                    return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+                } catch (final IllegalArgumentException iae) {
+                    LOGGER.warn("Unknown request log overflow policy '{}', using 'block'", value);
+                }
+            }
+            return BLOCK;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRequestLog.class);
+
+    // the maximum number of messages written at once
+    static final int BATCH_SIZE = 256;
+
+    // how long the writer thread waits for messages before checking again
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // how long a blocked request thread waits before trying again
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // how long to wait for the writer thread to write the remaining messages
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final RequestLog delegate;
+
+    // holds messages (String) and binary records (byte[])
+    private final RequestLogRingBuffer<Object> buffer;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Thread writer;
+
+    private final LongAdder writtenCount = new LongAdder();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private final LongAdder blockedCount = new LongAdder();
+
+    // messages dropped but not yet reported to the log (COUNT policy)
+    private final AtomicLong unreportedDrops = new AtomicLong();
+
+    private volatile boolean writerWaiting;
+
+    private volatile boolean closed;
+
+    AsyncRequestLog(
+            final RequestLog delegate, final String name, final int capacity, final OverflowPolicy overflowPolicy) {
+        this.delegate = delegate;
+        this.buffer = new RequestLogRingBuffer<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.writer = new Thread(this::writeMessages, "Sling Request Log Writer " + name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the message to be written by the writer thread.
+     */
+    public void write(final String message) {
+        this.enqueue(message);
+    }
+
+    /**
+     * Sets the header of the delegate, which must be done before the first
+     * record is queued.
+     */
+    public void setHeader(final byte[] header) {
+        if (delegate instanceof BinaryRequestLog) {
+            ((BinaryRequestLog) delegate).setHeader(header);
+        }
+    }
+
+    /**
+     * Queues a copy of the record to be written by the writer thread.
+     */
+    public void write(final byte[] record, final int offset, final int length) {
+        this.enqueue(Arrays.copyOfRange(record, offset, offset + length));
+    }
+
+    private void enqueue(final Object message) {
+        if (closed) {
+            return;
+        }
+        if (!buffer.offer(message)) {
+            if (overflowPolicy != OverflowPolicy.BLOCK) {
+                droppedCount.increment();
+                if (overflowPolicy == OverflowPolicy.COUNT) {
+                    unreportedDrops.incrementAndGet();
+                }
+                return;
+            }
+
+            blockedCount.increment();
+            do {
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+                if (closed) {
+                    return;
+                }
+            } while (!buffer.offer(message));
+        }
+
+        // the writer thread sets the flag before checking the buffer
+        // a last time, so either it sees the message or we see the flag
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Writes all queued messages and closes the wrapped log.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            LOGGER.warn("{} did not finish writing the request log in time", writer.getName());
+        }
+        delegate.close();
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    int getQueuedCount() {
+        return buffer.size();
+    }
+
+    long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    long getBlockedCount() {
+        return blockedCount.sum();
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    void resetStatistics() {
+        writtenCount.reset();
+        droppedCount.reset();
+        blockedCount.reset();
+    }
+
+    private void writeMessages() {
+        final Object[] batch = new Object[BATCH_SIZE];
+        final String[] messages = new String[BATCH_SIZE];
+        for (; ; ) {
+            // read the flag before draining, such that all messages queued
+            // before closing are written even if closed while draining
+            final boolean closing = closed;
+            final int count = drain(batch);
+            if (count > 0) {
+                writeBatch(batch, messages, count);
+            }
+            reportDrops();
+            if (count > 0) {
+                continue;
+            }
+
+            if (closing) {
+                return;
+            }
+
+            writerWaiting = true;
+            if (buffer.size() == 0 && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerWaiting = false;
+        }
+    }
+
+    private int drain(final Object[] batch) {
+        int count = 0;
+        Object message;
+        while (count < batch.length && (message = buffer.poll()) != null) {
+            batch[count++] = message;
+        }
+        return count;
+    }
+
+    private void writeBatch(final Object[] batch, final String[] messages, final int count) {
+        try {
+            int i = 0;
+            while (i < count) {
+                if (batch[i] instanceof byte[]) {
+                    writeRecord((byte[]) batch[i++]);
+                } else {
+                    // write all messages up to the next binary record at once
+                    int length = 0;
+                    while (i < count && !(batch[i] instanceof byte[])) {
+                        messages[length++] = (String) batch[i++];
+                    }
+                    writeStrings(messages, length);
+                }
+            }
+            writtenCount.add(count);
+        } catch (final RuntimeException re) {
+            LOGGER.error("Failed to write {} request log messages", count, re);
+        }
+
+        // don't keep the messages alive until they are overwritten
+        Arrays.fill(batch, 0, count, null);
+        Arrays.fill(messages, 0, count, null);
+    }
+
+    private void writeStrings(final String[] messages, final int count) {
+        if (delegate instanceof BatchRequestLog) {
+            ((BatchRequestLog) delegate).write(messages, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                delegate.write(messages[i]);
+            }
+        }
+    }
+
+    private void writeRecord(final byte[] record) {
+        if (delegate instanceof BinaryRequestLog) {
+            ((BinaryRequestLog) delegate).write(record, 0, record.length);
+        }
+    }
+
+    private void reportDrops() {
+        final long drops = unreportedDrops.getAndSet(0);
+        if (drops > 0) {
+            try {
+                delegate.write(drops + " request log messages dropped");
+            } catch (final RuntimeException re) {
+                LOGGER.error("Failed to write the number of dropped request log messages", re);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+/**
+ * The <code>BatchRequestLog</code> is implemented by request logs which can
+ * write a number of messages more efficiently at once than one by one, for
+ * example by flushing the output only once. It is used by the
+ * {@link AsyncRequestLog} to write the messages it has queued.
+ */
+interface BatchRequestLog {
+
+    /**
+     * Writes the first <code>count</code> messages of the given array in
+     * order.
+     *
+     * @param messages The messages
+     * @param count The number of messages to write
+     */
+    void write(String[] messages, int count);
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+/**
+ * The <code>BinaryRequestLog</code> is implemented by request logs which can
+ * write binary log records, as created by the {@link StructuredLogFormat}.
+ * Records are written as they are, without a line separator.
+ */
+interface BinaryRequestLog {
+
+    /**
+     * Sets the header written once at the start of each file the records
+     * are written to, before the first record. This must be called before
+     * the first record is written.
+     *
+     * @param header The header
+     */
+    void setHeader(byte[] header);
+
+    /**
+     * Writes a record. The array must not be used anymore after this method
+     * returns.
+     *
+     * @param record The array containing the record
+     * @param offset The start of the record in the array
+     * @param length The length of the record
+     */
+    void write(byte[] record, int offset, int length);
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * The <code>CachedDateFormat</code> formats points in time with second
+ * precision. As log messages of the same second share the same timestamp,
+ * the last formatted second is cached.
+ * <p>
+ * The formatter is thread-safe without locking: The cache is an immutable
+ * holder of the second and its string which is replaced as a whole, so
+ * concurrent threads at worst format the same second more than once.
+ */
+final class CachedDateFormat {
+
+    private final DateTimeFormatter formatter;
+
+    private volatile Entry last = new Entry(Long.MIN_VALUE, null);
+
+    /**
+     * @param pattern The {@link DateTimeFormatter} pattern, which must not
+     *            contain fractions of a second
+     * @param zone The time zone to format the time in
+     */
+    CachedDateFormat(final String pattern, final ZoneId zone) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern, Locale.US).withZone(zone);
+    }
+
+    /**
+     * @param time The time in milliseconds since the epoch
+     * @return the formatted time
+     */
+    String format(final long time) {
+        final long second = Math.floorDiv(time, 1000L);
+        final Entry entry = this.last;
+        if (entry.second == second) {
+            return entry.formatted;
+        }
+
+        final String formatted = formatter.format(Instant.ofEpochSecond(second));
+        this.last = new Entry(second, formatted);
+        return formatted;
+    }
+
+    private static final class Entry {
+
+        private final long second;
+
+        private final String formatted;
+
+        Entry(final long second, final String formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+}
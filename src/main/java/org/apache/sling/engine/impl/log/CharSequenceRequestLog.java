@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+/**
+ * The <code>CharSequenceRequestLog</code> is implemented by request logs
+ * which write a message before returning from the write call and thus do not
+ * need the message as a string. The {@link RequestLoggerService} then passes
+ * the buffer into which the message has been formatted instead of creating a
+ * string for each message.
+ */
+interface CharSequenceRequestLog {
+
+    /**
+     * Writes the given message. The message must not be used anymore after
+     * this method returns.
+     *
+     * @param message The message
+     */
+    void write(CharSequence message);
+}
@@ -19,15 +19,11 @@
 package org.apache.sling.engine.impl.log;
 
 import java.text.CharacterIterator;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.text.StringCharacterIterator;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Locale;
 
 import jakarta.servlet.http.Cookie;
 import org.apache.sling.engine.impl.request.RequestData;
@@ -54,6 +50,17 @@ class CustomLogFormat {
      */
     Parameter[] logParameters;
 
+    /**
+     * Builders larger than this many characters are not kept for reuse, to
+     * not hold on to the memory of exceptionally long log messages.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8192;
+
+    /**
+     * The builder reused for formatting log messages on each thread.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
     /**
      * Creates a new instance from of this class parsing the log format pattern.
      *
@@ -80,12 +87,37 @@ class CustomLogFormat {
      *         pattern.
      */
     String format(RequestLoggerRequest request, RequestLoggerResponse response) {
+        final CharSequence message = this.formatToBuffer(request, response);
+        return (message == null) ? null : message.toString();
+    }
+
+    /**
+     * Creates a log message like {@link #format(RequestLoggerRequest,
+     * RequestLoggerResponse)} but without creating a string. The message is
+     * built in a buffer which is reused for the next message formatted on the
+     * current thread, so it must be consumed before formatting the next
+     * message.
+     *
+     * @param request The {@link RequestLoggerRequest} used to extract values
+     *            for the log message.
+     * @param response The {@link RequestLoggerResponse} used to extract values
+     *            for the log message.
+     * @return The formatted log message or <code>null</code> if this log
+     *         formatter has not been initialized with a valid log format
+     *         pattern.
+     */
+    CharSequence formatToBuffer(RequestLoggerRequest request, RequestLoggerResponse response) {
         if (this.logParameters != null) {
-            StringBuilder buf = new StringBuilder();
+            StringBuilder buf = BUFFER.get();
+            if (buf.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                buf = new StringBuilder(512);
+                BUFFER.set(buf);
+            }
+            buf.setLength(0);
             for (int i = 0; i < this.logParameters.length; i++) {
                 this.logParameters[i].print(buf, request, response);
             }
-            return buf.toString();
+            return buf;
         }
 
         return null;
@@ -376,7 +408,18 @@ class CustomLogFormat {
         }
     }
 
+    /**
+     * Implemented by parameters whose value is a number, which is written as
+     * a number to structured log records.
+     */
+    static interface NumericParameter {
+
+        long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response);
+    }
+
     abstract static class BaseParameter implements Parameter {
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
         private int[] statusLimits;
 
         private boolean required;
@@ -409,10 +452,121 @@ class CustomLogFormat {
         protected abstract String getValue(RequestLoggerResponse response);
 
         public final void print(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
-            if (this.printOk(response.getStatus())) {
-                String value = this.isRequest ? this.getValue(request) : this.getValue(response);
-                dest.append((value == null) ? "-" : value);
+            if (this.printOk(response.getStatus()) && !this.printValue(dest, request, response)) {
+                dest.append('-');
+            }
+        }
+
+        /**
+         * Appends the value of this parameter to the <code>dest</code>
+         * builder. Parameters whose value is a number or needs escaping
+         * overwrite this method to append the value without creating
+         * intermediate strings.
+         *
+         * @return <code>false</code> if there is no value, in which case
+         *         nothing has been appended
+         */
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            String value = this.isRequest ? this.getValue(request) : this.getValue(response);
+            if (value == null) {
+                return false;
+            }
+            dest.append(value);
+            return true;
+        }
+
+        /**
+         * Appends the value of this parameter to the <code>dest</code>
+         * builder without escaping, as used for structured log records which
+         * apply their own escaping. Parameters escaping their value overwrite
+         * this method.
+         *
+         * @return <code>false</code> if there is no value, in which case
+         *         nothing has been appended
+         */
+        protected boolean printRawValue(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.printValue(dest, request, response);
+        }
+
+        /**
+         * Returns whether this parameter is to be logged for the given status
+         * code.
+         */
+        boolean isLogged(int status) {
+            return this.printOk(status);
+        }
+
+        /**
+         * Returns the name of the field of this parameter in structured log
+         * records, such as <code>status</code> for <code>%s</code> or
+         * <code>requestHeader:User-Agent</code> for
+         * <code>%{User-Agent}i</code>.
+         */
+        String getFieldName() {
+            final String name;
+            switch (this.parName) {
+                case 'a':
+                    return "remoteAddr";
+                case 'A':
+                    return "localAddr";
+                case 'b':
+                    return "bytesCLF";
+                case 'B':
+                    return "bytes";
+                case 'C':
+                    name = "cookie";
+                    break;
+                case 'D':
+                    return "duration";
+                case 'f':
+                    return "contentPath";
+                case 'h':
+                    return "remoteHost";
+                case 'H':
+                    return "protocol";
+                case 'i':
+                    name = "requestHeader";
+                    break;
+                case 'm':
+                    return "method";
+                case 'M':
+                    name = "parameter";
+                    break;
+                case 'o':
+                    name = "responseHeader";
+                    break;
+                case 'p':
+                    return "localPort";
+                case 'P':
+                    return "thread";
+                case 'q':
+                    return "query";
+                case 'r':
+                    return "requestLine";
+                case 'R':
+                    return "requestId";
+                case 's':
+                    return "status";
+                case 't':
+                    return "end".equals(this.parParam) ? "endTime" : "time";
+                case 'T':
+                    return "durationSeconds";
+                case 'u':
+                    return "user";
+                case 'U':
+                    return "uri";
+                case 'v':
+                    return "canonicalServerName";
+                case 'V':
+                    return "serverName";
+                case 'y':
+                    return "authType";
+                default:
+                    name = String.valueOf(this.parName);
+                    break;
             }
+            return (this.parParam == null) ? name : name + ":" + this.parParam;
         }
 
         protected boolean printOk(int status) {
@@ -437,6 +591,10 @@ class CustomLogFormat {
             return this.parParam;
         }
 
+        protected boolean isRequest() {
+            return this.isRequest;
+        }
+
         public String toString() {
             StringBuilder result = new StringBuilder("%");
 
@@ -484,45 +642,68 @@ class CustomLogFormat {
                 return value;
             }
 
-            // otherwise copy the printable first part in a string buffer
-            // and start encoding
-            StringBuilder buf = new StringBuilder(value.substring(0, i));
-            while (i < value.length()) {
+            // otherwise encode into a string buffer
+            StringBuilder buf = new StringBuilder(value.length() + 16);
+            escape(buf, value);
+            return buf.toString();
+        }
+
+        /**
+         * Appends the <code>value</code> to <code>dest</code>, escaped if
+         * requested.
+         *
+         * @return <code>false</code> if the value is <code>null</code>, in
+         *         which case nothing has been appended
+         */
+        static boolean append(StringBuilder dest, String value, boolean escape) {
+            if (escape) {
+                return escape(dest, value);
+            }
+            if (value == null) {
+                return false;
+            }
+            dest.append(value);
+            return true;
+        }
+
+        /**
+         * Appends the escaped <code>value</code> to <code>dest</code>.
+         *
+         * @return <code>false</code> if the value is <code>null</code>, in
+         *         which case nothing has been appended
+         */
+        static boolean escape(StringBuilder dest, String value) {
+            if (value == null) {
+                return false;
+            }
+
+            for (int i = 0; i < value.length(); i++) {
                 char c = value.charAt(i);
                 if (isPrint(c)) {
-                    buf.append(c);
+                    dest.append(c);
                 } else if (c == '\n') { // LF
-                    buf.append("\\n");
+                    dest.append("\\n");
                 } else if (c == '\r') { // CR
-                    buf.append("\\r");
+                    dest.append("\\r");
                 } else if (c == '\t') { // HTAB
-                    buf.append("\\t");
+                    dest.append("\\t");
                 } else if (c == '\f') { // VTAB
-                    buf.append("\\f");
+                    dest.append("\\f");
                 } else if (c == '\b') { // BSP
-                    buf.append("\\b");
+                    dest.append("\\b");
                 } else if (c == '"') { // "
-                    buf.append("\\\"");
+                    dest.append("\\\"");
                 } else if (c == '\\') { // \
-                    buf.append("\\\\");
-                } else { // encode
-                    buf.append("\\u");
-                    if (c < 0x10) {
-                        buf.append('0'); // leading zero
-                    }
-                    if (c < 0x100) {
-                        buf.append('0'); // leading zero
-                    }
-                    if (c < 0x1000) {
-                        buf.append('0'); // leading zero
-                    }
-                    buf.append(Integer.toHexString(c));
+                    dest.append("\\\\");
+                } else { // encode as four lower case hex digits
+                    dest.append("\\u")
+                            .append(HEX_DIGITS[(c >> 12) & 0xf])
+                            .append(HEX_DIGITS[(c >> 8) & 0xf])
+                            .append(HEX_DIGITS[(c >> 4) & 0xf])
+                            .append(HEX_DIGITS[c & 0xf]);
                 }
-                i++;
             }
-
-            // return the encoded string value
-            return buf.toString();
+            return true;
         }
     }
 
@@ -569,7 +750,7 @@ class CustomLogFormat {
         }
     }
 
-    static class IdParameter extends BaseParameter {
+    static class IdParameter extends BaseParameter implements NumericParameter {
         public IdParameter() {
             super(null, false);
         }
@@ -581,9 +762,20 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return String.valueOf(response.getRequestId());
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            dest.append(response.getRequestId());
+            return true;
+        }
+
+        @Override
+        public long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response) {
+            return response.getRequestId();
+        }
     }
 
-    static class ByteCountParameter extends BaseParameter {
+    static class ByteCountParameter extends BaseParameter implements NumericParameter {
         public ByteCountParameter() {
             super(null, false);
         }
@@ -600,28 +792,29 @@ class CustomLogFormat {
 
             return String.valueOf(count);
         }
-    }
 
-    static class TimeParameter extends BaseParameter {
-
-        /** date format - see access logging in service() */
-        private static final SimpleDateFormat accessLogFmt = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss ", Locale.US);
-
-        /** time format for GMT offset - see access logging in service() */
-        private static final DecimalFormat dfmt = new DecimalFormat("+0000;-0000");
-
-        /** the timezone for the timezone offset calculation */
-        private static final Calendar calendar = Calendar.getInstance();
-
-        /** last zone offset (cached by hours) */
-        private static String lastZoneOffset = "";
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            int count = response.getCount();
+            if (count == 0) {
+                dest.append((this.getParName() == 'b') ? '-' : '0');
+            } else {
+                dest.append(count);
+            }
+            return true;
+        }
 
-        private static long lastZoneOffsetHour = -1;
+        @Override
+        public long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response) {
+            return response.getCount();
+        }
+    }
 
-        /** last formatted time (cached in seconds) */
-        private static String lastTimeFormatted = "";
+    static class TimeParameter extends BaseParameter implements NumericParameter {
 
-        private static long lastTimeFormattedSeconds = -1;
+        /** date format - see access logging in service() */
+        private static final CachedDateFormat accessLogFmt =
+                new CachedDateFormat("dd/MMM/yyyy:HH:mm:ss Z", ZoneId.systemDefault());
 
         private final boolean requestStart;
 
@@ -644,27 +837,16 @@ class CustomLogFormat {
         // -----------------------------------------------------
 
         static String timeFormatted(long time) {
-            if (time / 1000 != lastTimeFormattedSeconds) {
-                lastTimeFormattedSeconds = time / 1000;
-                Date date = new Date(time);
-                StringBuilder buf = new StringBuilder(accessLogFmt.format(date));
-                if (time / 3600000 != lastZoneOffsetHour) {
-                    lastZoneOffsetHour = time / 3600000;
-                    calendar.setTime(date);
-                    int tzOffset = calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
-                    tzOffset /= (60 * 1000);
-                    tzOffset = ((tzOffset / 60) * 100) + (tzOffset % 60);
-
-                    lastZoneOffset = dfmt.format(tzOffset);
-                }
-                buf.append(lastZoneOffset);
-                lastTimeFormatted = buf.toString();
-            }
-            return lastTimeFormatted;
+            return accessLogFmt.format(time);
+        }
+
+        @Override
+        public long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.requestStart ? response.getRequestStart() : response.getRequestEnd();
         }
     }
 
-    static class DurationParameter extends BaseParameter {
+    static class DurationParameter extends BaseParameter implements NumericParameter {
         private final boolean seconds;
 
         public DurationParameter(boolean seconds) {
@@ -683,6 +865,18 @@ class CustomLogFormat {
             }
             return String.valueOf(time);
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            long time = response.getRequestDuration();
+            dest.append(this.seconds ? time / 1000 : time);
+            return true;
+        }
+
+        @Override
+        public long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.seconds ? response.getRequestDuration() / 1000 : response.getRequestDuration();
+        }
     }
 
     static class RemoteIPParameter extends BaseParameter {
@@ -727,7 +921,7 @@ class CustomLogFormat {
         }
     }
 
-    static class LocalPortParameter extends BaseParameter {
+    static class LocalPortParameter extends BaseParameter implements NumericParameter {
         public LocalPortParameter() {
             super(null, true);
         }
@@ -739,6 +933,17 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return null;
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            dest.append(request.getServerPort());
+            return true;
+        }
+
+        @Override
+        public long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response) {
+            return request.getServerPort();
+        }
     }
 
     static class ServerNameParameter extends BaseParameter {
@@ -788,6 +993,14 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return null;
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            dest.append(request.getMethod()).append(' ').append(request.getRequestURI());
+            QueryParameter.appendQuery(dest, request.getQueryString());
+            dest.append(' ').append(request.getProtocol());
+            return true;
+        }
     }
 
     static class ProtocolParameter extends BaseParameter {
@@ -845,6 +1058,18 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return null;
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            appendQuery(dest, request.getQueryString());
+            return true;
+        }
+
+        static void appendQuery(StringBuilder dest, String query) {
+            if (query != null && query.length() > 0) {
+                dest.append('?').append(query);
+            }
+        }
     }
 
     static class UserParameter extends BaseParameter {
@@ -860,6 +1085,17 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return null;
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return escape(dest, request.getRemoteUser());
+        }
+
+        @Override
+        protected boolean printRawValue(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return append(dest, request.getRemoteUser(), false);
+        }
     }
 
     static class AuthTypeParameter extends BaseParameter {
@@ -875,9 +1111,20 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return null;
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return escape(dest, request.getAuthType());
+        }
+
+        @Override
+        protected boolean printRawValue(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return append(dest, request.getAuthType(), false);
+        }
     }
 
-    static class StatusParameter extends BaseParameter {
+    static class StatusParameter extends BaseParameter implements NumericParameter {
         public StatusParameter() {
             super(null, false);
         }
@@ -889,6 +1136,17 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return String.valueOf(response.getStatus());
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            dest.append(response.getStatus());
+            return true;
+        }
+
+        @Override
+        public long getLongValue(RequestLoggerRequest request, RequestLoggerResponse response) {
+            return response.getStatus();
+        }
     }
 
     static class CookieParameter extends BaseParameter {
@@ -910,6 +1168,24 @@ class CustomLogFormat {
         private String getValue(final Cookie cookie) {
             return (cookie == null) ? null : escape(cookie.getValue());
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.printCookie(dest, request, response, true);
+        }
+
+        @Override
+        protected boolean printRawValue(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.printCookie(dest, request, response, false);
+        }
+
+        private boolean printCookie(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response, boolean escape) {
+            final Cookie cookie =
+                    this.isRequest() ? request.getCookie(this.cookieName) : response.getCookie(this.cookieName);
+            return cookie != null && append(dest, cookie.getValue(), escape);
+        }
     }
 
     static class HeaderParameter extends BaseParameter {
@@ -936,5 +1212,35 @@ class CustomLogFormat {
         protected String getValue(RequestLoggerResponse response) {
             return escape(response.getHeadersString(this.headerName));
         }
+
+        @Override
+        protected boolean printValue(StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.printHeaders(dest, request, response, true);
+        }
+
+        @Override
+        protected boolean printRawValue(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response) {
+            return this.printHeaders(dest, request, response, false);
+        }
+
+        private boolean printHeaders(
+                StringBuilder dest, RequestLoggerRequest request, RequestLoggerResponse response, boolean escape) {
+            if (!this.isRequest()) {
+                return append(dest, response.getHeadersString(this.headerName), escape);
+            }
+
+            Enumeration<?> values = request.getHeaders(this.headerName);
+            if (values == null || !values.hasMoreElements()) {
+                return false;
+            }
+
+            append(dest, (String) values.nextElement(), escape);
+            while (values.hasMoreElements()) {
+                dest.append(',');
+                append(dest, (String) values.nextElement(), escape);
+            }
+            return true;
+        }
     }
 }
@@ -19,12 +19,15 @@
 package org.apache.sling.engine.impl.log;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.sling.engine.RequestLog;
 
@@ -32,56 +35,74 @@ import org.apache.sling.engine.RequestLog;
  * The <code>FileRequestLog</code> class is an implementation of the
  * {@link RequestLog} interface writing the log messages to an plain file. This
  * class supports sharing the files for different log formatters, in that an
- * internal map of log files is kept and access to the <code>PrintWriter</code>s
- * to write to the file is synchronized.
+ * internal map of {@link RequestLogFile}s is kept. A file is closed when the
+ * last log using it is closed; its buffer, flush and rotation settings are
+ * those of the log which opened it first.
+ * <p>
+ * Messages are buffered and written to the file in groups, either when the
+ * buffer is full or by a background thread once per configured flush
+ * interval. A flush interval of zero writes each message immediately.
  * <p>
  * This class has a defined lifecycle to ensure correct operation: To ensure no
  * log files are kept open, the {@link RequestLoggerFilter} object calls
  * {@link #dispose()} when it is being deactivated.
- * <p>
- * Note: Currently, each log file is kept open from the moment the log file is
- * first moment until the {@link #dispose()} method is called. Future
- * development should probably focus on the following issues: (1) Implement an
- * open/write/close cycle when logging a message, (2) close log files when the
- * last user has closed the log, (3) optimize the first strategy by keeping the
- * files open for some time.
- * <p>
- * Note: Currently, the <code>PrintWriter</code> used to log the message is
- * flushed after each log message written. Future development should probably
- * implement better buffering in conjunction with the temporary open/close
- * cycles of the files.
  */
 @Deprecated
-class FileRequestLog implements RequestLog {
+class FileRequestLog implements RequestLog, BatchRequestLog, CharSequenceRequestLog, BinaryRequestLog {
 
-    // The map of shared open files (actually PrintWriter instances)
-    private static Map<String, PrintWriter> logFiles = new HashMap<String, PrintWriter>();
+    // The map of shared open files
+    private static final Map<String, SharedFile> logFiles = new HashMap<>();
 
-    // Dispose class by closing all open PrintWeiter instances
+    // Flushes the files, only exists while files are open
+    private static ScheduledExecutorService executor;
+
+    // Compresses rotated files without delaying the flushes, only exists while files are open
+    private static ExecutorService compressor;
+
+    // Dispose class by closing all open files
     static void dispose() {
-        for (final Writer w : logFiles.values()) {
-            try {
-                w.close();
-            } catch (IOException ioe) {
-                // don't care
+        synchronized (logFiles) {
+            for (final SharedFile shared : logFiles.values()) {
+                shared.close();
             }
+            logFiles.clear();
+            shutdownExecutor();
         }
-        logFiles.clear();
     }
 
-    // The PrintWriter used by this instance to write the messages
-    private PrintWriter output;
+    // The file used by this instance to write the messages
+    private volatile SharedFile output;
 
-    FileRequestLog(File logFile) throws IOException {
+    private final boolean flushImmediately;
+
+    FileRequestLog(File logFile, RequestLoggerService.Config config) throws IOException {
+        final long flushInterval = config.request_log_service_file_flush_interval();
+        this.flushImmediately = flushInterval <= 0;
         synchronized (logFiles) {
             final String fileName = logFile.getAbsolutePath();
-            this.output = logFiles.get(fileName);
-            if (this.output == null) {
-                logFile.getParentFile().mkdirs();
-                FileWriter fw = new FileWriter(logFile, true);
-                this.output = new PrintWriter(fw);
-                logFiles.put(fileName, this.output);
+            SharedFile shared = logFiles.get(fileName);
+            if (shared == null) {
+                if (executor == null) {
+                    executor = createExecutor();
+                    compressor = createCompressor();
+                }
+                final RequestLogFile file = new RequestLogFile(
+                        logFile,
+                        config.request_log_service_file_buffer_size() * 1024,
+                        config.request_log_service_file_rotation_size() * 1024 * 1024,
+                        RequestLogFile.RotationInterval.fromString(config.request_log_service_file_rotation_interval()),
+                        config.request_log_service_file_compress(),
+                        compressor);
+
+                // also flush periodically if flushing each message to
+                // rotate the file by time even if nothing is logged
+                final long period = flushImmediately ? RequestLoggerService.DEFAULT_FILE_FLUSH_INTERVAL : flushInterval;
+                shared = new SharedFile(
+                        file, executor.scheduleWithFixedDelay(file::flush, period, period, TimeUnit.MILLISECONDS));
+                logFiles.put(fileName, shared);
             }
+            shared.users++;
+            this.output = shared;
         }
     }
 
@@ -89,20 +110,123 @@ class FileRequestLog implements RequestLog {
      * @see org.apache.sling.engine.RequestLog#write(java.lang.String)
      */
     public void write(String message) {
+        write((CharSequence) message);
+    }
+
+    /**
+     * Writes the message without requiring it to be a string, as the message
+     * is encoded into the buffer of the file before returning.
+     */
+    public void write(CharSequence message) {
         // use a local copy of the reference to not encounter NPE when this
         // log happens to be closed asynchronously while at the same time not
         // requiring synchronization
-        PrintWriter writer = this.output;
-        if (writer != null) {
-            synchronized (writer) {
-                writer.println(message);
-                writer.flush();
+        final SharedFile shared = this.output;
+        if (shared != null) {
+            shared.file.write(message);
+            if (flushImmediately) {
+                shared.file.flush();
+            }
+        }
+    }
+
+    /**
+     * Writes all messages at once, as used by the {@link AsyncRequestLog}.
+     */
+    public void write(String[] messages, int count) {
+        final SharedFile shared = this.output;
+        if (shared != null) {
+            shared.file.write(messages, count);
+            if (flushImmediately) {
+                shared.file.flush();
+            }
+        }
+    }
+
+    /**
+     * Sets the header of the file unless it already has one, as the file may
+     * be shared with other logs.
+     */
+    public void setHeader(byte[] header) {
+        final SharedFile shared = this.output;
+        if (shared != null) {
+            shared.file.setHeader(header);
+        }
+    }
+
+    /**
+     * Writes a binary record as it is.
+     */
+    public void write(byte[] record, int offset, int length) {
+        final SharedFile shared = this.output;
+        if (shared != null) {
+            shared.file.write(record, offset, length);
+            if (flushImmediately) {
+                shared.file.flush();
             }
         }
     }
 
     public void close() {
-        // just drop the reference to the output
-        this.output = null;
+        synchronized (logFiles) {
+            final SharedFile shared = this.output;
+            this.output = null;
+            if (shared != null && --shared.users == 0) {
+                shared.close();
+                logFiles.remove(shared.file.getFile().getAbsolutePath());
+                if (logFiles.isEmpty()) {
+                    shutdownExecutor();
+                }
+            }
+        }
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        final ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "Sling Request Log Flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        result.setRemoveOnCancelPolicy(true);
+        return result;
+    }
+
+    private static ExecutorService createCompressor() {
+        return Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "Sling Request Log Compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    private static void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+            // pending compressions of rotated files are still executed
+            compressor.shutdown();
+            compressor = null;
+        }
+    }
+
+    private static final class SharedFile {
+
+        private final RequestLogFile file;
+
+        private final ScheduledFuture<?> flushTask;
+
+        // the number of logs using the file, guarded by logFiles
+        private int users;
+
+        SharedFile(final RequestLogFile file, final ScheduledFuture<?> flushTask) {
+            this.file = file;
+            this.flushTask = flushTask;
+        }
+
+        void close() {
+            flushTask.cancel(false);
+            file.close();
+        }
     }
 }
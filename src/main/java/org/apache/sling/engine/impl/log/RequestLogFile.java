@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>RequestLogFile</code> writes log messages to a file through a
+ * {@link FileChannel}.
+ * <p>
+ * Messages are encoded in UTF-8 directly into a direct buffer which is only written to
+ * the file once it is full or when {@link #flush()} is called, which the
+ * {@link FileRequestLog} does periodically. Thus many messages are written
+ * with a single system call (group commit).
+ * <p>
+ * The file may be rotated when it exceeds a given size or at the start of
+ * each hour or day. The current file is then renamed by appending the time of
+ * the rotation and a new file is started. Optionally the rotated file is
+ * compressed with gzip in the background.
+ * <p>
+ * If the file cannot be renamed, logging continues to the current file and
+ * rotation by size is suspended for a while, such that a failing rotation is
+ * neither retried nor reported for each message.
+ * <p>
+ * Files of binary records start with a header, which is written before the
+ * first record of each new file.
+ * <p>
+ * All methods are synchronized as the file may be shared by multiple request
+ * logs.
+ */
+final class RequestLogFile {
+
+    /**
+     * When to rotate the file regardless of its size.
+     */
+    enum RotationInterval {
+        NONE(null),
+        HOURLY(ChronoUnit.HOURS),
+        DAILY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        RotationInterval(final ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        static RotationInterval fromString(final String value) {
+            if (value != null && !value.trim().isEmpty()) {
+                try {
+                    return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+                } catch (final IllegalArgumentException iae) {
+                    LOGGER.warn("Unknown request log rotation interval '{}', not rotating", value);
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestLogFile.class);
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final DateTimeFormatter ROTATION_SUFFIX = DateTimeFormatter.ofPattern("yyyy-MM-dd-HHmmss");
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final String GZIP_EXTENSION = ".gz";
+
+    // how long to not rotate by size after a rotation failed
+    private static final long ROTATION_RETRY_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private final long rotationSize;
+
+    private final RotationInterval rotationInterval;
+
+    private final boolean compress;
+
+    // runs the compression of rotated files
+    private final Executor executor;
+
+    private FileChannel channel;
+
+    // the size of the file excluding the buffered bytes
+    private long size;
+
+    // the time at which to rotate the file next or Long.MAX_VALUE
+    private long nextRotation;
+
+    // whether the last rotation failed, such that the failure is only logged once
+    private boolean rotationFailed;
+
+    // the time before which the file is not rotated by size after a failed rotation
+    private long sizeRotationResume;
+
+    // written before the first binary record of each new file, may be null
+    private byte[] header;
+
+    // whether the header is still to be written to the current file
+    private boolean headerPending;
+
+    /**
+     * @param file The absolute file to write to
+     * @param bufferSize The size of the buffer in bytes
+     * @param rotationSize Rotate the file once it is larger than this number
+     *            of bytes, zero or negative to not rotate by size
+     * @param rotationInterval When to rotate the file by time
+     * @param compress Whether to compress rotated files
+     * @param executor Runs the compression of rotated files
+     * @throws IOException If the file cannot be opened
+     */
+    RequestLogFile(
+            final File file,
+            final int bufferSize,
+            final long rotationSize,
+            final RotationInterval rotationInterval,
+            final boolean compress,
+            final Executor executor)
+            throws IOException {
+        this.file = file;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 1024));
+        this.rotationSize = rotationSize;
+        this.rotationInterval = rotationInterval;
+        this.compress = compress;
+        this.executor = executor;
+
+        file.getParentFile().mkdirs();
+        this.open(System.currentTimeMillis());
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Buffers a single message followed by a line separator.
+     */
+    synchronized void write(final CharSequence message) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            rotateIfNeeded();
+            append(message);
+        } catch (final IOException ioe) {
+            LOGGER.error("Failed to write to request log file {}", file, ioe);
+        }
+    }
+
+    /**
+     * Sets the header written before the first binary record of each new
+     * file, unless a header has already been set.
+     */
+    synchronized void setHeader(final byte[] header) {
+        if (this.header == null) {
+            this.header = header;
+        }
+    }
+
+    /**
+     * Buffers a binary record as it is, without a line separator.
+     */
+    synchronized void write(final byte[] record, final int offset, final int length) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            rotateIfNeeded();
+            if (headerPending) {
+                headerPending = false;
+                if (header != null) {
+                    put(header, 0, header.length);
+                }
+            }
+            put(record, offset, length);
+        } catch (final IOException ioe) {
+            LOGGER.error("Failed to write to request log file {}", file, ioe);
+        }
+    }
+
+    private void put(final byte[] bytes, final int offset, final int length) throws IOException {
+        int position = offset;
+        final int end = offset + length;
+        while (position < end) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            final int chunk = Math.min(buffer.remaining(), end - position);
+            buffer.put(bytes, position, chunk);
+            position += chunk;
+        }
+    }
+
+    /**
+     * Buffers the first <code>count</code> messages, each followed by a line
+     * separator.
+     */
+    synchronized void write(final String[] messages, final int count) {
+        if (channel == null) {
+            return;
+        }
+        for (int i = 0; i < count && channel != null; i++) {
+            try {
+                rotateIfNeeded();
+                append(messages[i]);
+            } catch (final IOException ioe) {
+                LOGGER.error("Failed to write to request log file {}", file, ioe);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered messages to the file. This also rotates the file if
+     * its time has come, such that rotation does not depend on messages
+     * being logged.
+     */
+    synchronized void flush() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            drain();
+            rotateIfNeeded();
+        } catch (final IOException ioe) {
+            LOGGER.error("Failed to flush request log file {}", file, ioe);
+        }
+    }
+
+    /**
+     * Writes the buffered messages and closes the file.
+     */
+    synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            drain();
+        } catch (final IOException ioe) {
+            LOGGER.error("Failed to flush request log file {}", file, ioe);
+        }
+        closeChannel();
+    }
+
+    /**
+     * Encodes the message in UTF-8 directly into the buffer, replacing
+     * unpaired surrogates by question marks.
+     */
+    private void append(final CharSequence message) throws IOException {
+        final int length = message.length();
+        int index = Utf8.encode(message, 0, buffer);
+        while (index < length) {
+            drain();
+            index = Utf8.encode(message, index, buffer);
+        }
+        if (buffer.remaining() < LINE_SEPARATOR.length) {
+            drain();
+        }
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void rotateIfNeeded() throws IOException {
+        final boolean bySize = rotationSize > 0 && size + buffer.position() >= rotationSize;
+        if (!bySize && nextRotation == Long.MAX_VALUE) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if ((bySize && now >= sizeRotationResume) || now >= nextRotation) {
+            rotate(now);
+        }
+    }
+
+    private void rotate(final long now) throws IOException {
+        drain();
+        closeChannel();
+        try {
+            final String suffix = ROTATION_SUFFIX.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZONE));
+            Path target = new File(file.getParentFile(), file.getName() + "." + suffix).toPath();
+            for (int i = 1; Files.exists(target) || Files.exists(gzipPath(target)); i++) {
+                target = new File(file.getParentFile(), file.getName() + "." + suffix + "." + i).toPath();
+            }
+            Files.move(file.toPath(), target);
+            rotationFailed = false;
+            sizeRotationResume = 0;
+            if (compress) {
+                compressLater(target);
+            }
+        } catch (final IOException ioe) {
+            if (!rotationFailed) {
+                rotationFailed = true;
+                LOGGER.error(
+                        "Failed to rotate request log file {}, continuing to log to it without rotation for now",
+                        file,
+                        ioe);
+            }
+            // retried at the next rotation by time or once the delay passed
+            sizeRotationResume = now + ROTATION_RETRY_DELAY;
+        } finally {
+            // continue logging to the file, even if it could not be rotated
+            open(now);
+        }
+    }
+
+    private void compressLater(final Path rotated) {
+        try {
+            executor.execute(() -> compress(rotated));
+        } catch (final RejectedExecutionException ree) {
+            // the log is being shut down, keep the rotated file as it is
+            LOGGER.warn("Not compressing rotated request log file {} while shutting down", rotated);
+        }
+    }
+
+    private void open(final long now) throws IOException {
+        channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        headerPending = size == 0;
+        nextRotation = nextRotation(now);
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (final IOException ioe) {
+            // don't care
+        }
+        channel = null;
+    }
+
+    private long nextRotation(final long now) {
+        if (rotationInterval.unit == null) {
+            return Long.MAX_VALUE;
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZONE)
+                .truncatedTo(rotationInterval.unit)
+                .plus(1, rotationInterval.unit)
+                .atZone(ZONE)
+                .toInstant()
+                .toEpochMilli();
+    }
+
+    private static Path gzipPath(final Path path) {
+        return path.resolveSibling(path.getFileName() + GZIP_EXTENSION);
+    }
+
+    static void compress(final Path path) {
+        final Path target = gzipPath(path);
+        try (InputStream in = Files.newInputStream(path);
+                OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), 64 * 1024)) {
+            in.transferTo(out);
+        } catch (final IOException ioe) {
+            LOGGER.error("Failed to compress rotated request log file {}", path, ioe);
+            return;
+        }
+        try {
+            Files.delete(path);
+        } catch (final IOException ioe) {
+            LOGGER.error("Failed to remove rotated request log file {}", path, ioe);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import java.util.Locale;
+
+import org.apache.sling.engine.jmx.RequestLogMBean;
+
+/**
+ * This is the implementation of the management interface of an
+ * {@link AsyncRequestLog}.
+ */
+@SuppressWarnings("deprecation")
+class RequestLogMBeanImpl extends StandardMBean implements RequestLogMBean {
+
+    private final AsyncRequestLog log;
+
+    RequestLogMBeanImpl(final AsyncRequestLog log) throws NotCompliantMBeanException {
+        super(RequestLogMBean.class);
+        this.log = log;
+    }
+
+    public int getCapacity() {
+        return log.getCapacity();
+    }
+
+    public int getQueuedCount() {
+        return log.getQueuedCount();
+    }
+
+    public long getWrittenCount() {
+        return log.getWrittenCount();
+    }
+
+    public long getDroppedCount() {
+        return log.getDroppedCount();
+    }
+
+    public long getBlockedCount() {
+        return log.getBlockedCount();
+    }
+
+    public String getOverflowPolicy() {
+        return log.getOverflowPolicy().name().toLowerCase(Locale.ENGLISH);
+    }
+
+    public void resetStatistics() {
+        log.resetStatistics();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The <code>RequestLogRingBuffer</code> is a bounded, lock-free queue of log
+ * messages or records for many producers (the request threads) and a single consumer
+ * (the writer thread of the {@link AsyncRequestLog}).
+ * <p>
+ * Each slot carries a sequence number telling whether it is free for the
+ * producer claiming position <i>n</i> (sequence <i>n</i>) or holds the
+ * message of position <i>n</i> for the consumer (sequence <i>n + 1</i>).
+ * Producers claim positions by a compare-and-set on the tail, so offering a
+ * message never blocks and fails immediately if the buffer is full.
+ */
+final class RequestLogRingBuffer<E> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> messages;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // only written by the consumer
+    private volatile long head;
+
+    /**
+     * @param capacity The minimum capacity, rounded up to the next power of
+     *            two
+     */
+    RequestLogRingBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.mask = size - 1;
+        this.messages = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds a message, may be called by any thread.
+     *
+     * @param message The message
+     * @return {@code true} if the message has been added, {@code false} if
+     *         the buffer is full
+     */
+    boolean offer(final E message) {
+        long position;
+        int index;
+        for (; ; ) {
+            position = tail.get();
+            index = (int) position & mask;
+            final long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                // the consumer has not yet taken the message of the
+                // previous round from this slot
+                return false;
+            }
+            // else another producer claimed the position, try again
+        }
+        messages.set(index, message);
+        sequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest message, must only be called by the consumer.
+     *
+     * @return the message or {@code null} if the buffer is empty
+     */
+    E poll() {
+        final long position = head;
+        final int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        final E message = messages.get(index);
+        messages.set(index, null);
+        sequences.set(index, position + mask + 1);
+        head = position + 1;
+        return message;
+    }
+
+    /**
+     * @return the number of messages in the buffer, which is only an estimate
+     *         while messages are added or removed
+     */
+    int size() {
+        final long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>RequestLogSampler</code> decides whether a
+ * {@link RequestLoggerService} logs a request. The decision is taken when the
+ * request enters the {@link RequestLoggerFilter}, before any wrappers are
+ * created or messages are formatted:
+ * <ul>
+ * <li>Requests whose URI matches one of the excluded path patterns are never
+ * logged.</li>
+ * <li>Of the remaining requests only every n-th is logged and of those only
+ * the given fraction, chosen at random.</li>
+ * <li>Requests not sampled this way are still logged on request exit if
+ * their status indicates an error or if they took longer than a given
+ * time.</li>
+ * </ul>
+ */
+final class RequestLogSampler {
+
+    /** the request is not logged */
+    static final int SKIP = 0;
+
+    /** the request is logged */
+    static final int LOG = 1;
+
+    /** the request is logged if it fails or is slow, see {@link #isLoggedAnyway(RequestLoggerResponse)} */
+    static final int CHECK = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestLogSampler.class);
+
+    private final double rate;
+
+    private final int every;
+
+    private final int errorStatus;
+
+    private final long slowThreshold;
+
+    private final Pattern[] excludedPaths;
+
+    private final boolean onEntry;
+
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * @param rate The fraction of requests to log, between 0 and 1
+     * @param every Only log every n-th request
+     * @param errorStatus Always log requests with this or a higher status, if
+     *            positive
+     * @param slowThreshold Always log requests taking this many milliseconds
+     *            or longer, if positive
+     * @param excludedPaths Regular expressions of request URIs never to log
+     * @param onEntry Whether the requests are logged on entry, in which case
+     *            neither status nor duration are known when logging
+     */
+    RequestLogSampler(
+            final double rate,
+            final int every,
+            final int errorStatus,
+            final long slowThreshold,
+            final String[] excludedPaths,
+            final boolean onEntry) {
+        this.rate = Math.max(0, Math.min(rate, 1));
+        this.every = Math.max(every, 1);
+        this.errorStatus = errorStatus;
+        this.slowThreshold = slowThreshold;
+        this.excludedPaths = compile(excludedPaths);
+        this.onEntry = onEntry;
+    }
+
+    /**
+     * Creates a sampler for the configuration.
+     *
+     * @return the sampler or {@code null} if all requests are logged
+     */
+    static RequestLogSampler create(final RequestLoggerService.Config config) {
+        final String[] excludedPaths = config.request_log_service_exclude_paths();
+        if (config.request_log_service_sample_rate() >= 1
+                && config.request_log_service_sample_every() <= 1
+                && (excludedPaths == null || excludedPaths.length == 0)) {
+            return null;
+        }
+        return new RequestLogSampler(
+                config.request_log_service_sample_rate(),
+                config.request_log_service_sample_every(),
+                config.request_log_service_sample_error_status(),
+                config.request_log_service_sample_slow(),
+                excludedPaths,
+                config.request_log_service_onentry());
+    }
+
+    /**
+     * Decides whether to log the request.
+     *
+     * @return {@link #LOG}, {@link #SKIP} or, for loggers on request exit,
+     *         {@link #CHECK}
+     */
+    int sample(final HttpServletRequest request) {
+        if (excludedPaths.length > 0) {
+            final String uri = request.getRequestURI();
+            if (uri != null) {
+                for (final Pattern pattern : excludedPaths) {
+                    if (pattern.matcher(uri).matches()) {
+                        return SKIP;
+                    }
+                }
+            }
+        }
+
+        final boolean sampled = (every == 1 || counter.getAndIncrement() % every == 0)
+                && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+        if (sampled) {
+            return LOG;
+        }
+        return (onEntry || (errorStatus <= 0 && slowThreshold <= 0)) ? SKIP : CHECK;
+    }
+
+    /**
+     * Decides whether to log a request which has not been sampled.
+     *
+     * @return {@code true} if the request failed or was slow
+     */
+    boolean isLoggedAnyway(final RequestLoggerResponse response) {
+        return (errorStatus > 0 && response.getStatus() >= errorStatus)
+                || (slowThreshold > 0 && response.getRequestDuration() >= slowThreshold);
+    }
+
+    private static Pattern[] compile(final String[] patterns) {
+        final List<Pattern> result = new ArrayList<>();
+        if (patterns != null) {
+            for (final String pattern : patterns) {
+                if (pattern != null && !pattern.trim().isEmpty()) {
+                    try {
+                        result.add(Pattern.compile(pattern.trim()));
+                    } catch (final PatternSyntaxException pse) {
+                        LOGGER.warn("Ignoring invalid request log path pattern '{}'", pattern, pse);
+                    }
+                }
+            }
+        }
+        return result.toArray(new Pattern[result.size()]);
+    }
+}
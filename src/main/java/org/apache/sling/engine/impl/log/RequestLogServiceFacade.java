@@ -18,10 +18,15 @@
  */
 package org.apache.sling.engine.impl.log;
 
+import java.util.Arrays;
+
 import org.apache.sling.engine.RequestLog;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
 /**
  * The <code>RequestLogServiceFacade</code> is a <code>RequestLog</code>
@@ -39,21 +44,24 @@ import org.osgi.util.tracker.ServiceTracker;
  * {@link RequestLog#REQUEST_LOG_NAME} constant whose value (or one of its
  * values, if multi-valued) must be the service name.</li>
  * </ol>
+ * <p>
+ * The services are kept in an array which is replaced whenever a service is
+ * added or removed, such that writing a message just reads the current array
+ * and neither locks nor looks up the services in the service registry.
  */
 @SuppressWarnings("deprecation")
-class RequestLogServiceFacade implements RequestLog {
+class RequestLogServiceFacade implements RequestLog, ServiceTrackerCustomizer<RequestLog, RequestLog> {
 
-    // The service tracker used to access the service(s)
-    private final ServiceTracker requestLogTracker;
+    private static final RequestLog[] NO_LOGGERS = new RequestLog[0];
 
-    // private copy of services currently available. We cache them to gain some
-    // milliseconds, as each call to ServiceTracker.getServices() looks the
-    // services up in the service registry
-    private Object[] loggers;
+    private final BundleContext context;
 
-    // tracking count of the time when we got the service list, if the
-    // service tracker changes its count, we have to reaquire the services
-    private int trackingCount;
+    // The service tracker used to access the service(s)
+    private final ServiceTracker<RequestLog, RequestLog> requestLogTracker;
+
+    // private copy of the services currently available, replaced (never
+    // modified) by the service tracker callbacks
+    private volatile RequestLog[] loggers = NO_LOGGERS;
 
     /**
      * Creates an instance of this facade class calling request log services
@@ -64,45 +72,84 @@ class RequestLogServiceFacade implements RequestLog {
      * @param serviceName The name of the services used for logging. This value
      *            is used to check the {@link RequestLog#REQUEST_LOG_NAME}
      *            service property for service selection.
+     * @throws IllegalArgumentException if no service filter can be created
+     *             for the service name
      */
     public RequestLogServiceFacade(BundleContext context, String serviceName) {
-        String filter = "(&(" + Constants.OBJECTCLASS + "=" + RequestLog.class.getName() + ")("
-                + RequestLog.REQUEST_LOG_NAME + "=" + serviceName + "))";
-        this.requestLogTracker = new ServiceTracker(context, filter, null);
+        final String filter = "(&(" + Constants.OBJECTCLASS + "=" + RequestLog.class.getName() + ")("
+                + RequestLog.REQUEST_LOG_NAME + "=" + escapeFilterValue(serviceName) + "))";
+        this.context = context;
+        try {
+            this.requestLogTracker = new ServiceTracker<>(context, context.createFilter(filter), this);
+        } catch (InvalidSyntaxException ise) {
+            throw new IllegalArgumentException("Invalid request log service name " + serviceName, ise);
+        }
         this.requestLogTracker.open();
-
-        // use negative initial tracking count to force acquiry of services
-        this.trackingCount = -1;
     }
 
     /**
      * @see org.apache.sling.engine.RequestLog#write(java.lang.String)
      */
     public void write(String message) {
+        for (final RequestLog logger : this.loggers) {
+            logger.write(message);
+        }
+    }
+
+    public void close() {
+        // terminate using the RequestLog service(s), which removes them
+        this.requestLogTracker.close();
+        this.loggers = NO_LOGGERS;
+    }
 
-        // acquire the current logger list
-        Object[] tmpLoggers = this.loggers;
+    // ---------- ServiceTrackerCustomizer
 
-        // if services have been added/removed reacquire from the tracker
-        if (this.trackingCount != this.requestLogTracker.getTrackingCount()) {
-            tmpLoggers = this.requestLogTracker.getServices();
-            this.loggers = tmpLoggers;
+    @Override
+    public RequestLog addingService(final ServiceReference<RequestLog> reference) {
+        final RequestLog logger = this.context.getService(reference);
+        if (logger != null) {
+            synchronized (this) {
+                final RequestLog[] current = this.loggers;
+                final RequestLog[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = logger;
+                this.loggers = updated;
+            }
         }
+        return logger;
+    }
+
+    @Override
+    public void modifiedService(final ServiceReference<RequestLog> reference, final RequestLog service) {
+        // nothing to do, the filter is checked by the tracker
+    }
 
-        // finally call the loggers with the message
-        if (tmpLoggers != null) {
-            for (int i = 0; i < tmpLoggers.length; i++) {
-                ((RequestLog) tmpLoggers[i]).write(message);
+    @Override
+    public void removedService(final ServiceReference<RequestLog> reference, final RequestLog service) {
+        synchronized (this) {
+            final RequestLog[] current = this.loggers;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == service) {
+                    final RequestLog[] updated = new RequestLog[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, updated.length - i);
+                    this.loggers = updated;
+                    break;
+                }
             }
         }
+        this.context.ungetService(reference);
     }
 
-    public void close() {
-        // drop the service references and reinitialize tracking counter
-        this.loggers = null;
-        this.trackingCount = -1;
-
-        // terminate using the RequestLog service(s)
-        this.requestLogTracker.close();
+    /** escapes the characters with a special meaning in an LDAP filter value */
+    static String escapeFilterValue(final String value) {
+        final StringBuilder buf = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '*' || c == '(' || c == ')') {
+                buf.append('\\');
+            }
+            buf.append(c);
+        }
+        return buf.toString();
     }
 }
@@ -90,6 +90,12 @@ public class RequestLogger {
         @AttributeDefinition(name = "Enable Request Log", description = "Whether to enable Request logging or not.")
         boolean request_log_enabled() default true;
 
+        @AttributeDefinition(
+                name = "Asynchronous Request Log",
+                description = "Whether the request log is written by a dedicated thread instead "
+                        + "of the request threads. Requests wait if the log falls behind.")
+        boolean request_log_async() default false;
+
         @AttributeDefinition(
                 name = "Access Log Name",
                 description = "Name of the destination for the request log. "
@@ -123,6 +129,12 @@ public class RequestLogger {
 
         @AttributeDefinition(name = "Enable Access Log", description = "Whether to enable Access logging or not.")
         boolean access_log_enabled() default true;
+
+        @AttributeDefinition(
+                name = "Asynchronous Access Log",
+                description = "Whether the access log is written by a dedicated thread instead "
+                        + "of the request threads. Requests wait if the log falls behind.")
+        boolean access_log_async() default false;
     }
 
     /**
@@ -164,14 +176,16 @@ public class RequestLogger {
                     true,
                     config.request_log_entry_format(),
                     config.request_log_output(),
-                    config.request_log_outputtype());
+                    config.request_log_outputtype(),
+                    config.request_log_async());
             createRequestLoggerService(
                     services,
                     bundleContext,
                     false,
                     config.request_log_exit_format(),
                     config.request_log_output(),
-                    config.request_log_outputtype());
+                    config.request_log_outputtype(),
+                    config.request_log_async());
         }
 
         // prepare the access logger if a name is configured and the
@@ -183,7 +197,8 @@ public class RequestLogger {
                     false,
                     config.access_log_format(),
                     config.access_log_output(),
-                    config.access_log_outputtype());
+                    config.access_log_outputtype(),
+                    config.access_log_async());
         }
     }
 
@@ -202,7 +217,8 @@ public class RequestLogger {
             final boolean onEntry,
             final String format,
             final String output,
-            final int outputType) {
+            final int outputType,
+            final boolean async) {
         final RequestLoggerService service = new RequestLoggerService(bundleContext, new RequestLoggerService.Config() {
 
             @Override
@@ -229,6 +245,76 @@ public class RequestLogger {
             public String request_log_service_format() {
                 return format;
             }
+
+            @Override
+            public String request_log_service_record_format() {
+                return "text";
+            }
+
+            @Override
+            public double request_log_service_sample_rate() {
+                return 1.0;
+            }
+
+            @Override
+            public int request_log_service_sample_every() {
+                return 1;
+            }
+
+            @Override
+            public int request_log_service_sample_error_status() {
+                return 0;
+            }
+
+            @Override
+            public long request_log_service_sample_slow() {
+                return 0;
+            }
+
+            @Override
+            public String[] request_log_service_exclude_paths() {
+                return new String[0];
+            }
+
+            @Override
+            public boolean request_log_service_async() {
+                return async;
+            }
+
+            @Override
+            public int request_log_service_async_capacity() {
+                return RequestLoggerService.DEFAULT_ASYNC_CAPACITY;
+            }
+
+            @Override
+            public String request_log_service_async_overflow() {
+                return "block";
+            }
+
+            @Override
+            public int request_log_service_file_buffer_size() {
+                return RequestLoggerService.DEFAULT_FILE_BUFFER_SIZE;
+            }
+
+            @Override
+            public long request_log_service_file_flush_interval() {
+                return RequestLoggerService.DEFAULT_FILE_FLUSH_INTERVAL;
+            }
+
+            @Override
+            public long request_log_service_file_rotation_size() {
+                return 0;
+            }
+
+            @Override
+            public String request_log_service_file_rotation_interval() {
+                return "none";
+            }
+
+            @Override
+            public boolean request_log_service_file_compress() {
+                return false;
+            }
         });
         final ServiceRegistration reg =
                 bundleContext.registerService(service.getClass().getName(), service, null);
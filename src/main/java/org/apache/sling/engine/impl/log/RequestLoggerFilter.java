@@ -20,6 +20,8 @@ package org.apache.sling.engine.impl.log;
 
 import java.io.IOException;
 
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.FilterConfig;
@@ -38,6 +40,7 @@ import org.osgi.service.component.propertytypes.ServiceRanking;
 import org.osgi.service.component.propertytypes.ServiceVendor;
 import org.osgi.service.servlet.whiteboard.HttpWhiteboardConstants;
 import org.osgi.service.servlet.whiteboard.propertytypes.HttpWhiteboardContextSelect;
+import org.osgi.service.servlet.whiteboard.propertytypes.HttpWhiteboardFilterAsyncSupported;
 import org.osgi.service.servlet.whiteboard.propertytypes.HttpWhiteboardFilterPattern;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +48,7 @@ import org.slf4j.LoggerFactory;
 @HttpWhiteboardContextSelect(
         "(" + HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_NAME + "=" + SlingHttpContext.SERVLET_CONTEXT_NAME + ")")
 @HttpWhiteboardFilterPattern("/")
+@HttpWhiteboardFilterAsyncSupported
 @ServiceRanking(32768)
 @ServiceDescription("Request Logger Filter")
 @ServiceVendor("The Apache Software Foundation")
@@ -63,15 +67,75 @@ public final class RequestLoggerFilter implements Filter {
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
             throws IOException, ServletException {
 
-        final RequestLoggerRequest rlreq = new RequestLoggerRequest((HttpServletRequest) request);
+        final RequestLoggerService[] entryServices = this.requestEntry;
+        final RequestLoggerService[] exitServices = this.requestExit;
+
+        // decide which services log the request before creating any wrappers,
+        // keeping the decisions as bit masks indexed by service; services
+        // beyond the 64th are not sampled and always log
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        long entryLog = 0;
+        for (int i = 0; i < entryServices.length && i < Long.SIZE; i++) {
+            if (entryServices[i].sample(httpRequest) == RequestLogSampler.LOG) {
+                entryLog |= 1L << i;
+            }
+        }
+        long exitLog = 0;
+        long exitCheck = 0;
+        for (int i = 0; i < exitServices.length && i < Long.SIZE; i++) {
+            final int decision = exitServices[i].sample(httpRequest);
+            if (decision == RequestLogSampler.LOG) {
+                exitLog |= 1L << i;
+            } else if (decision == RequestLogSampler.CHECK) {
+                exitCheck |= 1L << i;
+            }
+        }
+        if (entryLog == 0
+                && exitLog == 0
+                && exitCheck == 0
+                && entryServices.length <= Long.SIZE
+                && exitServices.length <= Long.SIZE) {
+            // fast path: no service logs this request, which is still
+            // counted to keep the request ids in line with the requests
+            RequestLoggerResponse.nextRequestId();
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final RequestLoggerRequest rlreq = new RequestLoggerRequest(httpRequest);
         final RequestLoggerResponse rlres = new RequestLoggerResponse(request, (HttpServletResponse) response);
 
-        log(this.requestEntry, rlreq, rlres);
+        log(entryServices, entryLog, 0, rlreq, rlres);
         try {
             chain.doFilter(rlreq, rlres);
         } finally {
-            rlres.requestEnd();
-            log(this.requestExit, rlreq, rlres);
+            if (rlreq.isAsyncStarted()) {
+                // the response is only complete once the asynchronous
+                // processing completes
+                final long finalExitLog = exitLog;
+                final long finalExitCheck = exitCheck;
+                rlreq.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        rlres.requestEnd();
+                        log(exitServices, finalExitLog, finalExitCheck, rlreq, rlres);
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {}
+
+                    @Override
+                    public void onError(final AsyncEvent event) {}
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) {
+                        event.getAsyncContext().addListener(this);
+                    }
+                });
+            } else {
+                rlres.requestEnd();
+                log(exitServices, exitLog, exitCheck, rlreq, rlres);
+            }
         }
     }
 
@@ -140,10 +204,20 @@ public final class RequestLoggerFilter implements Filter {
     }
 
     private void log(
-            RequestLoggerService[] services, final RequestLoggerRequest request, final RequestLoggerResponse response) {
-        for (RequestLoggerService service : services) {
+            RequestLoggerService[] services,
+            final long logMask,
+            final long checkMask,
+            final RequestLoggerRequest request,
+            final RequestLoggerResponse response) {
+        for (int i = 0; i < services.length; i++) {
+            final RequestLoggerService service = services[i];
+            final long bit = 1L << i;
             try {
-                service.log(request, response);
+                if (i >= Long.SIZE
+                        || (logMask & bit) != 0
+                        || ((checkMask & bit) != 0 && service.isLoggedAnyway(response))) {
+                    service.log(request, response);
+                }
             } catch (Exception e) {
                 LoggerFactory.getLogger(getClass()).debug("log: RequestLoggerService failed logging", e);
             }
@@ -20,9 +20,8 @@ package org.apache.sling.engine.impl.log;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -47,8 +46,8 @@ class RequestLoggerResponse extends HttpServletResponseWrapper {
     private static final String HEADER_CONTENT_LENGTH = "Content-Length";
 
     /** format for RFC 1123 date string -- "Sun, 06 Nov 1994 08:49:37 GMT" */
-    private static final SimpleDateFormat RFC1123_FORMAT =
-            new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+    private static final CachedDateFormat RFC1123_FORMAT =
+            new CachedDateFormat("EEE, dd MMM yyyy HH:mm:ss z", ZoneId.systemDefault());
 
     /**
      * The counter for request gone through this filter. As this is the first
@@ -61,6 +60,15 @@ class RequestLoggerResponse extends HttpServletResponseWrapper {
      */
     private static AtomicLong requestCounter = new AtomicLong();
 
+    /**
+     * Counts a request, also if it is not logged and thus not wrapped.
+     *
+     * @return the id of the request
+     */
+    static long nextRequestId() {
+        return requestCounter.getAndIncrement();
+    }
+
     // TODO: more content related headers, namely Content-Language should
     // probably be supported
 
@@ -95,7 +103,7 @@ class RequestLoggerResponse extends HttpServletResponseWrapper {
     RequestLoggerResponse(final ServletRequest request, final HttpServletResponse response) {
         super(response);
 
-        this.requestId = requestCounter.getAndIncrement();
+        this.requestId = nextRequestId();
         this.requestStart = RequestLoggerPreprocessor.getRequestStartTime(request);
     }
 
@@ -345,9 +353,7 @@ class RequestLoggerResponse extends HttpServletResponseWrapper {
      * @return The string representation of the date and time value.
      */
     public static String toDateString(long date) {
-        synchronized (RFC1123_FORMAT) {
-            return RFC1123_FORMAT.format(new Date(date));
-        }
+        return RFC1123_FORMAT.format(date);
     }
 
     // ---------- byte/character counting output channels ----------------------
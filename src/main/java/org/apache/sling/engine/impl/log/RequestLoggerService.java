@@ -18,11 +18,20 @@
  */
 package org.apache.sling.engine.impl.log;
 
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Hashtable;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.apache.sling.engine.RequestLog;
+import org.apache.sling.engine.impl.log.StructuredLogFormat.RecordFormat;
+import org.apache.sling.engine.jmx.RequestLogMBean;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
@@ -93,8 +102,123 @@ public class RequestLoggerService {
                         + "request exit (aka termination), which is the default for access logger type "
                         + "loggers.")
         boolean request_log_service_onentry() default false;
+
+        @AttributeDefinition(
+                name = "Record Format",
+                description = "The format of the log records. \"Text\" writes a line formatted as "
+                        + "defined by the Log Format. \"JSON\" writes a JSON object per line and \"Binary\" "
+                        + "writes length prefixed binary records, both with one field per parameter of the Log "
+                        + "Format. Binary files start with a header naming the fields. The binary format is "
+                        + "only supported for the \"File Name\" logger type, "
+                        + "otherwise JSON is written instead.",
+                options = {
+                    @Option(label = "Text", value = "text"),
+                    @Option(label = "JSON", value = "json"),
+                    @Option(label = "Binary", value = "binary")
+                })
+        String request_log_service_record_format() default "text";
+
+        @AttributeDefinition(
+                name = "Sample Rate",
+                description = "The fraction of requests to log, between 0 and 1. Requests are chosen at random.")
+        double request_log_service_sample_rate() default 1.0;
+
+        @AttributeDefinition(
+                name = "Sample Every",
+                description = "Only log every n-th request. Combined with the Sample Rate, "
+                        + "the given fraction of every n-th request is logged.")
+        int request_log_service_sample_every() default 1;
+
+        @AttributeDefinition(
+                name = "Always Log Status",
+                description = "Requests not sampled are still logged if their response status is "
+                        + "equal to or higher than this status. Zero disables this. Only used if "
+                        + "logging on request exit.")
+        int request_log_service_sample_error_status() default 500;
+
+        @AttributeDefinition(
+                name = "Always Log Duration",
+                description = "Requests not sampled are still logged if they took at least this "
+                        + "many milliseconds. Zero disables this. Only used if logging on request exit.")
+        long request_log_service_sample_slow() default 0;
+
+        @AttributeDefinition(
+                name = "Excluded Paths",
+                description = "Regular expressions matching the request URIs of requests never "
+                        + "to log, for example health checks or static assets.")
+        String[] request_log_service_exclude_paths() default {};
+
+        @AttributeDefinition(
+                name = "Asynchronous",
+                description = "Check to queue the log entries in a bounded buffer from which a "
+                        + "dedicated thread writes them in batches, instead of writing them on the "
+                        + "request thread.")
+        boolean request_log_service_async() default false;
+
+        @AttributeDefinition(
+                name = "Asynchronous Buffer Size",
+                description = "The maximum number of log entries waiting to be written if "
+                        + "logging asynchronously. The value is rounded up to the next power of two.")
+        int request_log_service_async_capacity() default DEFAULT_ASYNC_CAPACITY;
+
+        @AttributeDefinition(
+                name = "Asynchronous Overflow Policy",
+                description = "What to do with a log entry if logging asynchronously and the "
+                        + "buffer is full. \"Block\" makes the request wait until the entry can be "
+                        + "queued, \"Drop\" discards the entry and \"Count\" discards the entry and "
+                        + "writes the number of discarded entries to the log. Dropped entries are "
+                        + "counted in the request log MBean in any case.",
+                options = {
+                    @Option(label = "Block", value = "block"),
+                    @Option(label = "Drop", value = "drop"),
+                    @Option(label = "Count", value = "count")
+                })
+        String request_log_service_async_overflow() default "block";
+
+        @AttributeDefinition(
+                name = "File Buffer Size",
+                description = "Size in KB of the buffer in which log entries are collected before "
+                        + "they are written to the file. Only used for the \"File Name\" logger type.")
+        int request_log_service_file_buffer_size() default DEFAULT_FILE_BUFFER_SIZE;
+
+        @AttributeDefinition(
+                name = "File Flush Interval",
+                description = "Maximum time in milliseconds log entries are kept in the buffer "
+                        + "before they are written to the file. Zero writes each entry immediately. "
+                        + "Only used for the \"File Name\" logger type.")
+        long request_log_service_file_flush_interval() default DEFAULT_FILE_FLUSH_INTERVAL;
+
+        @AttributeDefinition(
+                name = "File Rotation Size",
+                description = "Size in MB at which the log file is rotated. Zero disables rotation "
+                        + "by size. Only used for the \"File Name\" logger type.")
+        long request_log_service_file_rotation_size() default 0;
+
+        @AttributeDefinition(
+                name = "File Rotation Interval",
+                description = "Whether to rotate the log file at the start of each hour or day. "
+                        + "Rotated files are renamed by appending the time of rotation. Only used for "
+                        + "the \"File Name\" logger type.",
+                options = {
+                    @Option(label = "None", value = "none"),
+                    @Option(label = "Hourly", value = "hourly"),
+                    @Option(label = "Daily", value = "daily")
+                })
+        String request_log_service_file_rotation_interval() default "none";
+
+        @AttributeDefinition(
+                name = "Compress Rotated Files",
+                description = "Check to compress rotated log files with gzip. Only used for the "
+                        + "\"File Name\" logger type.")
+        boolean request_log_service_file_compress() default false;
     }
 
+    static final int DEFAULT_ASYNC_CAPACITY = 8192;
+
+    static final int DEFAULT_FILE_BUFFER_SIZE = 64;
+
+    static final long DEFAULT_FILE_FLUSH_INTERVAL = 1000;
+
     private static final int OUTPUT_TYPE_LOGGER = 0;
 
     private static final int OUTPUT_TYPE_FILE = 1;
@@ -105,9 +229,17 @@ public class RequestLoggerService {
 
     private CustomLogFormat logFormat;
 
+    private RecordFormat recordFormat = RecordFormat.TEXT;
+
+    private StructuredLogFormat structuredFormat;
+
+    private RequestLogSampler sampler;
+
     @SuppressWarnings("deprecation")
     private RequestLog log;
 
+    private ServiceRegistration<RequestLogMBean> mbeanRegistration;
+
     /**
      * Public default constructor for SCR integration
      */
@@ -122,6 +254,9 @@ public class RequestLoggerService {
         // whether to log on request entry or request exit
         this.onEntry = configuration.request_log_service_onentry();
 
+        // which requests to log
+        this.sampler = RequestLogSampler.create(configuration);
+
         // shared or private CustomLogFormat
         final String format = configuration.request_log_service_format();
         if (format != null) {
@@ -131,35 +266,131 @@ public class RequestLoggerService {
         // where to log to
         final String output = configuration.request_log_service_output();
         if (output != null) {
-            this.log = this.getLog(bundleContext, output, configuration.request_log_service_outputtype());
+            this.log = this.getLog(bundleContext, output, configuration);
+
+            // text or structured records
+            this.recordFormat = RecordFormat.fromString(configuration.request_log_service_record_format());
+            if (this.recordFormat == RecordFormat.BINARY && !(this.log instanceof BinaryRequestLog)) {
+                LOGGER.warn("Request log {} does not support binary records, writing JSON instead", output);
+                this.recordFormat = RecordFormat.JSON;
+            }
+            if (this.recordFormat != RecordFormat.TEXT && this.logFormat != null) {
+                this.structuredFormat = new StructuredLogFormat(this.logFormat);
+                if (this.recordFormat == RecordFormat.BINARY) {
+                    ((BinaryRequestLog) this.log).setHeader(this.structuredFormat.createBinaryHeader());
+                }
+            }
+
+            if (this.log != null && configuration.request_log_service_async()) {
+                this.log = this.getAsyncLog(bundleContext, output, this.log, configuration);
+            }
         }
     }
 
     @SuppressWarnings("deprecation")
     @Deactivate
     void shutdown() {
+        if (this.mbeanRegistration != null) {
+            this.mbeanRegistration.unregister();
+            this.mbeanRegistration = null;
+        }
+
         if (this.log != null) {
             this.log.close();
             this.log = null;
         }
 
         this.logFormat = null;
+        this.structuredFormat = null;
     }
 
     @SuppressWarnings("deprecation")
     void log(RequestLoggerRequest request, RequestLoggerResponse response) {
-        if (this.log != null && this.logFormat != null) {
-            this.log.write(this.logFormat.format(request, response));
+        final RequestLog log = this.log;
+        if (log != null && this.logFormat != null) {
+            if (this.structuredFormat != null) {
+                this.logRecord(log, request, response);
+            } else if (log instanceof CharSequenceRequestLog) {
+                // write the reused buffer without creating a string
+                final CharSequence message = this.logFormat.formatToBuffer(request, response);
+                if (message != null) {
+                    ((CharSequenceRequestLog) log).write(message);
+                }
+            } else {
+                log.write(this.logFormat.format(request, response));
+            }
         }
     }
 
+    @SuppressWarnings("deprecation")
+    private void logRecord(RequestLog log, RequestLoggerRequest request, RequestLoggerResponse response) {
+        if (this.recordFormat == RecordFormat.BINARY) {
+            this.structuredFormat.writeBinary(request, response, (BinaryRequestLog) log);
+        } else {
+            final CharSequence json = this.structuredFormat.formatJson(request, response);
+            if (log instanceof CharSequenceRequestLog) {
+                ((CharSequenceRequestLog) log).write(json);
+            } else {
+                log.write(json.toString());
+            }
+        }
+    }
+
+    /**
+     * Decides whether to log the request before the request is processed.
+     *
+     * @return {@link RequestLogSampler#LOG}, {@link RequestLogSampler#SKIP}
+     *         or {@link RequestLogSampler#CHECK} if the decision depends on
+     *         the response
+     */
+    int sample(HttpServletRequest request) {
+        final RequestLogSampler localSampler = this.sampler;
+        return (localSampler == null) ? RequestLogSampler.LOG : localSampler.sample(request);
+    }
+
+    /**
+     * Decides whether to log a request for which {@link #sample(HttpServletRequest)}
+     * returned {@link RequestLogSampler#CHECK}.
+     */
+    boolean isLoggedAnyway(RequestLoggerResponse response) {
+        final RequestLogSampler localSampler = this.sampler;
+        return localSampler == null || localSampler.isLoggedAnyway(response);
+    }
+
     boolean isOnEntry() {
         return this.onEntry;
     }
 
     @SuppressWarnings("deprecation")
-    private RequestLog getLog(BundleContext bundleContext, String output, int outputType) {
-        switch (outputType) {
+    private RequestLog getAsyncLog(
+            final BundleContext bundleContext, final String output, final RequestLog log, final Config configuration) {
+        final AsyncRequestLog asyncLog = new AsyncRequestLog(
+                log,
+                output,
+                configuration.request_log_service_async_capacity(),
+                AsyncRequestLog.OverflowPolicy.fromString(configuration.request_log_service_async_overflow()));
+
+        if (bundleContext != null) {
+            try {
+                final Dictionary<String, String> mbeanProps = new Hashtable<>();
+                // the request log writes entry and exit messages to the same output
+                mbeanProps.put(
+                        "jmx.objectname",
+                        "org.apache.sling:type=engine-requestlog,service=" + ObjectName.quote(output) + ",event="
+                                + (this.onEntry ? "entry" : "exit"));
+                this.mbeanRegistration = bundleContext.registerService(
+                        RequestLogMBean.class, new RequestLogMBeanImpl(asyncLog), mbeanProps);
+            } catch (final NotCompliantMBeanException | RuntimeException e) {
+                LOGGER.debug("Unable to register mbean for request log {}", output, e);
+            }
+        }
+
+        return asyncLog;
+    }
+
+    @SuppressWarnings("deprecation")
+    private RequestLog getLog(BundleContext bundleContext, String output, Config configuration) {
+        switch (configuration.request_log_service_outputtype()) {
             case OUTPUT_TYPE_FILE:
                 // file logging
                 File file = new File(output);
@@ -173,7 +404,7 @@ public class RequestLoggerService {
                         file = file.getAbsoluteFile();
                     }
 
-                    return new FileRequestLog(file);
+                    return new FileRequestLog(file, configuration);
                 } catch (IOException ioe) {
                     LOGGER.error("Failed to create request log file at '{}'", file.getAbsolutePath(), ioe);
                 }
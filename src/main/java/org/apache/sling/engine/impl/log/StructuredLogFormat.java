@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.sling.engine.impl.log.CustomLogFormat.BaseParameter;
+import org.apache.sling.engine.impl.log.CustomLogFormat.NonImplementedParameter;
+import org.apache.sling.engine.impl.log.CustomLogFormat.NumericParameter;
+import org.apache.sling.engine.impl.log.CustomLogFormat.Parameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>StructuredLogFormat</code> creates structured log records from
+ * the parameters of a {@link CustomLogFormat}, such that the fields need not
+ * be parsed from a text line by the consumer of the log. The plain text
+ * between the parameters of the format and unsupported parameters are
+ * ignored. Values are not escaped beyond what the record format requires.
+ * <p>
+ * Two record formats are supported:
+ * <dl>
+ * <dt>JSON</dt>
+ * <dd>Each record is a JSON object on a single line, the field names are
+ * those of {@link #getFieldNames()}, which are unique. Numeric parameters like the status, the
+ * duration or the time (in milliseconds since the epoch) are JSON numbers,
+ * missing values are <code>null</code>.</dd>
+ * <dt>Binary</dt>
+ * <dd>Each file starts with a header, which is the length of the header body
+ * followed by the body. The body contains the number of fields followed by
+ * the length of the UTF-8 encoded name of each field in the order of
+ * {@link #getFieldNames()} and its bytes. The header is followed by the
+ * records, each of which is the length of the record body followed by the
+ * body. The body contains one field per parameter in the order of
+ * {@link #getFieldNames()}, which is a tag byte followed by the value:
+ * {@link #FIELD_ABSENT} has no value, {@link #FIELD_STRING} is followed by
+ * the length of the UTF-8 encoded string and its bytes and
+ * {@link #FIELD_NUMBER} is followed by the number in ZigZag encoding. All
+ * lengths and numbers are unsigned variable length integers with seven bits
+ * per byte, least significant group first, as used by Protocol Buffers.</dd>
+ * </dl>
+ */
+final class StructuredLogFormat {
+
+    /**
+     * The format of the log records of a {@link RequestLoggerService}.
+     */
+    enum RecordFormat {
+
+        /** text lines as defined by the {@link CustomLogFormat} */
+        TEXT,
+
+        /** JSON objects, one per line */
+        JSON,
+
+        /** length prefixed binary records */
+        BINARY;
+
+        static RecordFormat fromString(final String value) {
+            if (value != null && !value.trim().isEmpty()) {
+                try {
+                    return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+                } catch (final IllegalArgumentException iae) {
+                    LOGGER.warn("Unknown request log record format '{}', using 'text'", value);
+                }
+            }
+            return TEXT;
+        }
+    }
+
+    static final byte FIELD_ABSENT = 0;
+
+    static final byte FIELD_STRING = 1;
+
+    static final byte FIELD_NUMBER = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StructuredLogFormat.class);
+
+    /** the number of bytes reserved for the length of a binary record */
+    private static final int MAX_VARINT32_SIZE = 5;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final BaseParameter[] parameters;
+
+    // the parameters which are numeric, null for the other parameters
+    private final NumericParameter[] numericParameters;
+
+    private final String[] fieldNames;
+
+    // the field names as JSON strings followed by a colon
+    private final String[] jsonNames;
+
+    StructuredLogFormat(final CustomLogFormat format) {
+        final List<BaseParameter> list = new ArrayList<>();
+        if (format.logParameters != null) {
+            for (final Parameter parameter : format.logParameters) {
+                if (parameter instanceof BaseParameter && !(parameter instanceof NonImplementedParameter)) {
+                    list.add((BaseParameter) parameter);
+                }
+            }
+        }
+        this.parameters = list.toArray(new BaseParameter[list.size()]);
+        this.numericParameters = new NumericParameter[this.parameters.length];
+        this.fieldNames = new String[this.parameters.length];
+        this.jsonNames = new String[this.parameters.length];
+        final StringBuilder buf = new StringBuilder();
+        final Set<String> names = new HashSet<>();
+        for (int i = 0; i < this.parameters.length; i++) {
+            if (this.parameters[i] instanceof NumericParameter) {
+                this.numericParameters[i] = (NumericParameter) this.parameters[i];
+            }
+            // a parameter may be repeated, e.g. with different status
+            // conditions, the repetitions are numbered to keep names unique
+            final String name = this.parameters[i].getFieldName();
+            String fieldName = name;
+            for (int n = 2; !names.add(fieldName); n++) {
+                fieldName = name + "#" + n;
+            }
+            this.fieldNames[i] = fieldName;
+            buf.setLength(0);
+            appendJsonString(buf, this.fieldNames[i]);
+            this.jsonNames[i] = buf.append(':').toString();
+        }
+    }
+
+    /**
+     * @return the names of the fields of the records in the order they are
+     *         written
+     */
+    String[] getFieldNames() {
+        return Arrays.copyOf(fieldNames, fieldNames.length);
+    }
+
+    /**
+     * Creates a JSON record. The record is built in a buffer which is reused
+     * for the next record created on the current thread, so it must be
+     * consumed before creating the next record.
+     */
+    CharSequence formatJson(final RequestLoggerRequest request, final RequestLoggerResponse response) {
+        final Buffers buffers = BUFFERS.get();
+        final StringBuilder json = buffers.text(true);
+        final StringBuilder value = buffers.text(false);
+        final int status = response.getStatus();
+
+        json.append('{');
+        for (int i = 0; i < parameters.length; i++) {
+            final BaseParameter parameter = parameters[i];
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(jsonNames[i]);
+            if (!parameter.isLogged(status)) {
+                json.append("null");
+            } else if (numericParameters[i] != null) {
+                json.append(numericParameters[i].getLongValue(request, response));
+            } else {
+                value.setLength(0);
+                if (parameter.printRawValue(value, request, response)) {
+                    appendJsonString(json, value);
+                } else {
+                    json.append("null");
+                }
+            }
+        }
+        return json.append('}');
+    }
+
+    /**
+     * Creates a binary record and writes it to the log.
+     */
+    void writeBinary(
+            final RequestLoggerRequest request, final RequestLoggerResponse response, final BinaryRequestLog log) {
+        final Buffers buffers = BUFFERS.get();
+        final StringBuilder value = buffers.text(false);
+        final int status = response.getStatus();
+
+        // leave room for the length, which is only known at the end
+        buffers.startRecord(MAX_VARINT32_SIZE);
+        for (int i = 0; i < parameters.length; i++) {
+            final BaseParameter parameter = parameters[i];
+            if (!parameter.isLogged(status)) {
+                buffers.put(FIELD_ABSENT);
+            } else if (numericParameters[i] != null) {
+                final long number = numericParameters[i].getLongValue(request, response);
+                buffers.put(FIELD_NUMBER);
+                buffers.putVarint((number << 1) ^ (number >> 63));
+            } else {
+                value.setLength(0);
+                if (parameter.printRawValue(value, request, response)) {
+                    buffers.put(FIELD_STRING);
+                    buffers.putString(value);
+                } else {
+                    buffers.put(FIELD_ABSENT);
+                }
+            }
+        }
+
+        final int start = buffers.endRecord(MAX_VARINT32_SIZE);
+        log.write(buffers.bytes, start, buffers.length - start);
+    }
+
+    /**
+     * Creates the header of binary log files, which names the fields of the
+     * records.
+     */
+    byte[] createBinaryHeader() {
+        final Buffers buffers = new Buffers();
+        buffers.startRecord(MAX_VARINT32_SIZE);
+        buffers.putVarint(fieldNames.length);
+        for (final String fieldName : fieldNames) {
+            buffers.putString(fieldName);
+        }
+        final int start = buffers.endRecord(MAX_VARINT32_SIZE);
+        return Arrays.copyOfRange(buffers.bytes, start, buffers.length);
+    }
+
+    static void appendJsonString(final StringBuilder dest, final CharSequence value) {
+        dest.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                dest.append('\\').append(c);
+            } else if (c >= 0x20) {
+                dest.append(c);
+            } else if (c == '\n') {
+                dest.append("\\n");
+            } else if (c == '\r') {
+                dest.append("\\r");
+            } else if (c == '\t') {
+                dest.append("\\t");
+            } else {
+                dest.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        dest.append('"');
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * The buffers reused for creating records on a thread.
+     */
+    private static final class Buffers {
+
+        // builders larger than this are not kept for reuse
+        private static final int MAX_RETAINED_SIZE = 8192;
+
+        private StringBuilder record = new StringBuilder(512);
+
+        private StringBuilder value = new StringBuilder(128);
+
+        private byte[] bytes = new byte[512];
+
+        // encodes strings into the bytes
+        private ByteBuffer view = ByteBuffer.wrap(bytes);
+
+        private int length;
+
+        StringBuilder text(final boolean forRecord) {
+            StringBuilder buf = forRecord ? this.record : this.value;
+            if (buf.capacity() > MAX_RETAINED_SIZE) {
+                buf = new StringBuilder(128);
+                if (forRecord) {
+                    this.record = buf;
+                } else {
+                    this.value = buf;
+                }
+            }
+            buf.setLength(0);
+            return buf;
+        }
+
+        void startRecord(final int offset) {
+            if (bytes.length > MAX_RETAINED_SIZE) {
+                bytes = new byte[512];
+                view = ByteBuffer.wrap(bytes);
+            }
+            length = offset;
+        }
+
+        /**
+         * Prepends the length of the body to the record started with the
+         * given offset.
+         *
+         * @return the start of the record
+         */
+        int endRecord(final int offset) {
+            final int end = length;
+            final int bodyLength = end - offset;
+            final int start = offset - varintSize(bodyLength);
+            length = start;
+            putVarint(bodyLength);
+            length = end;
+            return start;
+        }
+
+        void put(final byte b) {
+            ensureCapacity(1);
+            bytes[length++] = b;
+        }
+
+        void putVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Puts the length of the UTF-8 encoding followed by the encoding,
+         * replacing unpaired surrogates by question marks.
+         */
+        void putString(final CharSequence value) {
+            final int utf8Length = Utf8.length(value);
+            putVarint(utf8Length);
+            ensureCapacity(utf8Length);
+            view.limit(length + utf8Length).position(length);
+            Utf8.encode(value, 0, view);
+            length = view.position();
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+                view = ByteBuffer.wrap(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The <code>Utf8</code> class encodes characters in UTF-8 directly into a
+ * byte buffer, without creating intermediate byte arrays as
+ * {@link String#getBytes(java.nio.charset.Charset)} does. Unpaired surrogates
+ * are replaced by question marks.
+ */
+final class Utf8 {
+
+    private Utf8() {}
+
+    /**
+     * @return the number of bytes of the UTF-8 encoding of the value
+     */
+    static int length(final CharSequence value) {
+        final int size = value.length();
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                length += 3;
+            } else if (isSurrogatePair(value, i)) {
+                length += 4;
+                i++;
+            } else {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the characters of the value starting at the given index into
+     * the buffer, until all characters are encoded or the encoding of the
+     * next character does not fit into the buffer.
+     *
+     * @return the index of the first character not encoded, which is the
+     *         length of the value if all characters are encoded
+     */
+    static int encode(final CharSequence value, final int index, final ByteBuffer dest) {
+        final int size = value.length();
+        int i = index;
+        while (i < size) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                if (!dest.hasRemaining()) {
+                    break;
+                }
+                dest.put((byte) c);
+            } else if (c < 0x800) {
+                if (dest.remaining() < 2) {
+                    break;
+                }
+                dest.put((byte) (0xc0 | (c >> 6)));
+                dest.put((byte) (0x80 | (c & 0x3f)));
+            } else if (!Character.isSurrogate(c)) {
+                if (dest.remaining() < 3) {
+                    break;
+                }
+                dest.put((byte) (0xe0 | (c >> 12)));
+                dest.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                dest.put((byte) (0x80 | (c & 0x3f)));
+            } else if (isSurrogatePair(value, i)) {
+                if (dest.remaining() < 4) {
+                    break;
+                }
+                final int cp = Character.toCodePoint(c, value.charAt(++i));
+                dest.put((byte) (0xf0 | (cp >> 18)));
+                dest.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                dest.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                dest.put((byte) (0x80 | (cp & 0x3f)));
+            } else {
+                if (!dest.hasRemaining()) {
+                    break;
+                }
+                dest.put((byte) '?');
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSurrogatePair(final CharSequence value, final int index) {
+        return Character.isHighSurrogate(value.charAt(index))
+                && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+}
@@ -21,9 +21,17 @@ package org.apache.sling.engine.impl.parameters;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 /**
- * The <code>ContainerRequestParameter</code> TODO
+ * The <code>ContainerRequestParameter</code> is a form field parameter taken
+ * from the query string, a www-form-encoded request body or the servlet
+ * container.
+ * <p>
+ * Parameters parsed from the query string or a form body refer to a range of
+ * the decoded bytes shared by all parameters of the request. The string value
+ * of such a parameter is only created when it is first requested, and
+ * changing the encoding just drops that string again.
  */
 public class ContainerRequestParameter extends AbstractRequestParameter {
 
@@ -31,21 +39,73 @@ public class ContainerRequestParameter extends AbstractRequestParameter {
 
     private byte[] content;
 
+    // raw name and value bytes, null if the parameter is created from a
+    // string value
+    private final byte[] data;
+
+    // offset and length of the value, the name directly precedes it
+    private final int offset;
+
+    private final int length;
+
+    private final int nameLength;
+
     public ContainerRequestParameter(String name, String value, String encoding) {
         super(name, encoding);
         this.value = value;
         this.content = null;
+        this.data = null;
+        this.offset = 0;
+        this.length = 0;
+        this.nameLength = 0;
     }
 
-    @Override
-    public void setEncoding(String encoding) {
-        // recode this parameter by encoding the string with the current
-        // encoding and decode the bytes with the encoding
+    /**
+     * Creates a parameter from raw bytes in the given encoding: the name bytes
+     * start at the given offset and are directly followed by the value bytes.
+     * The bytes are neither copied nor decoded and must not be modified
+     * afterwards.
+     */
+    ContainerRequestParameter(String name, byte[] data, int offset, int nameLength, int valueLength, String encoding) {
+        super(name, encoding);
+        this.data = data;
+        this.offset = offset + nameLength;
+        this.length = valueLength;
+        this.nameLength = nameLength;
+    }
+
+    /**
+     * Returns the name decoded from the raw bytes with the given encoding.
+     *
+     * @param encoding The encoding
+     * @return The name or {@code null} if the parameter has not been created
+     *         from raw bytes
+     */
+    String getName(String encoding) {
+        if (data == null) {
+            return null;
+        }
         try {
-            this.value = getString(encoding);
+            return new String(data, offset - nameLength, nameLength, encoding);
         } catch (UnsupportedEncodingException uee) {
             throw new SlingUnsupportedEncodingException(uee);
         }
+    }
+
+    @Override
+    public void setEncoding(String encoding) {
+        if (data != null) {
+            // decode the raw bytes with the new encoding when needed
+            this.value = null;
+        } else {
+            // recode this parameter by encoding the string with the current
+            // encoding and decode the bytes with the encoding
+            try {
+                this.value = getString(encoding);
+            } catch (UnsupportedEncodingException uee) {
+                throw new SlingUnsupportedEncodingException(uee);
+            }
+        }
 
         super.setEncoding(encoding);
     }
@@ -55,11 +115,15 @@ public class ContainerRequestParameter extends AbstractRequestParameter {
      */
     public byte[] get() {
         if (content == null) {
-            try {
-                content = getString().getBytes(getEncoding());
-            } catch (Exception e) {
-                // UnsupportedEncodingException, IllegalArgumentException
-                content = getString().getBytes();
+            if (data != null) {
+                content = Arrays.copyOfRange(data, offset, offset + length);
+            } else {
+                try {
+                    content = getString().getBytes(getEncoding());
+                } catch (Exception e) {
+                    // UnsupportedEncodingException, IllegalArgumentException
+                    content = getString().getBytes();
+                }
             }
         }
         return content;
@@ -77,6 +141,9 @@ public class ContainerRequestParameter extends AbstractRequestParameter {
      * @see org.apache.sling.api.request.RequestParameter#getInputStream()
      */
     public InputStream getInputStream() {
+        if (data != null) {
+            return new ByteArrayInputStream(data, offset, length);
+        }
         return new ByteArrayInputStream(this.get());
     }
 
@@ -92,6 +159,9 @@ public class ContainerRequestParameter extends AbstractRequestParameter {
      * @see org.apache.sling.api.request.RequestParameter#getSize()
      */
     public long getSize() {
+        if (data != null) {
+            return length;
+        }
         return this.get().length;
     }
 
@@ -99,6 +169,13 @@ public class ContainerRequestParameter extends AbstractRequestParameter {
      * @see org.apache.sling.api.request.RequestParameter#getString()
      */
     public String getString() {
+        if (value == null && data != null) {
+            try {
+                value = new String(data, offset, length, getEncoding());
+            } catch (UnsupportedEncodingException uee) {
+                throw new SlingUnsupportedEncodingException(uee);
+            }
+        }
         return value;
     }
 
@@ -106,6 +183,9 @@ public class ContainerRequestParameter extends AbstractRequestParameter {
      * @see org.apache.sling.api.request.RequestParameter#getString(java.lang.String)
      */
     public String getString(String encoding) throws UnsupportedEncodingException {
+        if (data != null) {
+            return new String(data, offset, length, encoding);
+        }
         return new String(this.get(), encoding);
     }
 
@@ -18,11 +18,14 @@
  */
 package org.apache.sling.engine.impl.parameters;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 
-import org.apache.commons.fileupload.disk.DiskFileItem;
+import org.apache.sling.engine.SpooledUpload;
 
 /**
  * The <code>MultipartRequestParameter</code> represents a request parameter
@@ -32,27 +35,39 @@ import org.apache.commons.fileupload.disk.DiskFileItem;
  * Servlet API 3 {@code Part} interface. To support Servlet API 3 {@code Part}s
  * the {@link SlingPart} class wraps instances of this class.
  */
-public class MultipartRequestParameter extends AbstractRequestParameter {
+public class MultipartRequestParameter extends AbstractRequestParameter implements SpooledUpload {
 
-    private final DiskFileItem delegatee;
+    private final SpooledPart delegatee;
+
+    // the directory of the upload policy for temporary files
+    private final File location;
 
     private String encodedFileName;
 
     private String cachedValue;
 
-    public MultipartRequestParameter(DiskFileItem delegatee) {
+    MultipartRequestParameter(SpooledPart delegatee, File location) {
         super(delegatee.getFieldName(), null);
         this.delegatee = delegatee;
+        this.location = location;
     }
 
-    void dispose() throws IOException {
+    void dispose() {
         this.delegatee.delete();
     }
 
-    DiskFileItem getFileItem() {
+    SpooledPart getSpooledPart() {
         return this.delegatee;
     }
 
+    /**
+     * @return the directory for temporary files of the upload policy of the
+     *         request or {@code null} for the {@code java.io.tmpdir} directory
+     */
+    File getLocation() {
+        return this.location;
+    }
+
     @Override
     void setEncoding(String encoding) {
         super.setEncoding(encoding);
@@ -92,6 +107,16 @@ public class MultipartRequestParameter extends AbstractRequestParameter {
         return this.delegatee.getSize();
     }
 
+    @Override
+    public Path getFile() {
+        return this.delegatee.getFile();
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+        return this.delegatee.openChannel();
+    }
+
     public String getString() {
         // only apply encoding in the case of a form field
         if (this.isFormField()) {
@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.fileupload.FileItemHeaders;
+import org.apache.commons.fileupload.FileItemStream;
+
+/**
+ * The <code>MultipartSpooler</code> reads the parts of a single multipart
+ * request from the commons-fileupload streaming API.
+ * <p>
+ * Each part is read through buffers of the {@link UploadBufferPool}. Parts up
+ * to the size threshold are copied into a byte array of their exact size.
+ * For larger parts the buffered head is written to a temporary file and the
+ * rest is transferred straight from the request to the file channel.
+ * <p>
+ * Parsers which receive the request in chunks rather than reading it push
+ * the content of a part to a {@link PartWriter} instead, which buffers and
+ * spools it the same way.
+ * <p>
+ * The spooler keeps track of the heap used for the parts of the request,
+ * including the buffers in use while reading, and of the bytes written to
+ * temporary files.
+ */
+final class MultipartSpooler {
+
+    /** The number of bytes transferred to the file channel at once */
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private final UploadBufferPool pool;
+
+    private final File location;
+
+    private final int threshold;
+
+    private final List<SpooledPart> parts = new ArrayList<>();
+
+    // heap retained by parts kept in memory
+    private long retainedMemory;
+
+    // largest heap in use at any time while reading the parts
+    private long peakMemory;
+
+    private long spooledSize;
+
+    /**
+     * @param pool The buffer pool
+     * @param location The directory for temporary files, {@code null} for
+     *            the {@code java.io.tmpdir} directory
+     * @param threshold The size above which parts are written to temporary
+     *            files
+     */
+    MultipartSpooler(final UploadBufferPool pool, final File location, final int threshold) {
+        this.pool = pool;
+        this.location = location;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Reads the content of the item and adds it as a part.
+     *
+     * @param item The item to read
+     * @return the part
+     * @throws IOException if reading the item or writing a temporary file
+     *             fails, including a part exceeding the file size limit
+     */
+    SpooledPart spool(final FileItemStream item) throws IOException {
+        final List<byte[]> buffers = new ArrayList<>();
+        try (InputStream in = item.openStream()) {
+            // read up to the threshold, and one byte more to tell whether
+            // the part fits into memory
+            long length = 0;
+            boolean eof = false;
+            while (!eof && length <= threshold) {
+                final byte[] buffer = pool.acquire();
+                buffers.add(buffer);
+                updatePeak(buffers.size() * (long) UploadBufferPool.BUFFER_SIZE);
+                final int read = readFully(in, buffer);
+                length += read;
+                eof = read < buffer.length;
+            }
+
+            final SpooledPart part;
+            if (length <= threshold) {
+                final byte[] data = toArray(buffers, length);
+                retainedMemory += data.length;
+                updatePeak(buffers.size() * (long) UploadBufferPool.BUFFER_SIZE);
+                part = SpooledPart.inMemory(
+                        item.getFieldName(),
+                        item.getContentType(),
+                        item.getName(),
+                        item.isFormField(),
+                        item.getHeaders(),
+                        data);
+            } else {
+                final Path file = createTempFile();
+                final long size;
+                try {
+                    size = spoolToFile(in, buffers, length, file);
+                } catch (final IOException | RuntimeException e) {
+                    Files.deleteIfExists(file);
+                    throw e;
+                }
+                part = SpooledPart.inFile(
+                        item.getFieldName(),
+                        item.getContentType(),
+                        item.getName(),
+                        item.isFormField(),
+                        item.getHeaders(),
+                        file,
+                        size);
+                spooledSize += size;
+            }
+            parts.add(part);
+            return part;
+        } finally {
+            for (final byte[] buffer : buffers) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Starts a part whose content is pushed to the returned writer as it is
+     * received.
+     *
+     * @return the writer for the content of the part
+     */
+    PartWriter begin(
+            final String fieldName,
+            final String contentType,
+            final String fileName,
+            final boolean formField,
+            final FileItemHeaders headers) {
+        return new PartWriter(fieldName, contentType, fileName, formField, headers);
+    }
+
+    /**
+     * Writes the buffered head of a part followed by the rest of the part to
+     * the file and returns the size of the part.
+     */
+    private static long spoolToFile(
+            final InputStream in, final List<byte[]> buffers, final long buffered, final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long remaining = buffered;
+            for (final byte[] buffer : buffers) {
+                final ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, remaining));
+                remaining -= bb.remaining();
+                writeFully(channel, bb);
+            }
+
+            long position = buffered;
+            final ReadableByteChannel source = Channels.newChannel(in);
+            for (long count = channel.transferFrom(source, position, TRANSFER_SIZE);
+                    count > 0;
+                    count = channel.transferFrom(source, position, TRANSFER_SIZE)) {
+                position += count;
+            }
+            return position;
+        }
+    }
+
+    /** writes the whole buffer to the channel */
+    private static void writeFully(final FileChannel channel, final ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+
+    /** reads until the buffer is full or the stream ends */
+    private static int readFully(final InputStream in, final byte[] buffer) throws IOException {
+        int pos = 0;
+        while (pos < buffer.length) {
+            final int read = in.read(buffer, pos, buffer.length - pos);
+            if (read < 0) {
+                break;
+            }
+            pos += read;
+        }
+        return pos;
+    }
+
+    private void updatePeak(final long buffersInUse) {
+        peakMemory = Math.max(peakMemory, retainedMemory + buffersInUse);
+    }
+
+    private Path createTempFile() throws IOException {
+        return (location != null)
+                ? Files.createTempFile(location.toPath(), "upload_", ".tmp")
+                : Files.createTempFile("upload_", ".tmp");
+    }
+
+    /** copies the first length bytes held in the buffers into a new array */
+    private static byte[] toArray(final List<byte[]> buffers, final long length) {
+        final byte[] data = new byte[(int) length];
+        int pos = 0;
+        for (final byte[] buffer : buffers) {
+            final int count = Math.min(buffer.length, data.length - pos);
+            System.arraycopy(buffer, 0, data, pos, count);
+            pos += count;
+        }
+        return data;
+    }
+
+    /**
+     * @return the parts read so far
+     */
+    List<SpooledPart> getParts() {
+        return parts;
+    }
+
+    /**
+     * Deletes the temporary files of all parts read so far.
+     */
+    void delete() {
+        for (final SpooledPart part : parts) {
+            part.delete();
+        }
+    }
+
+    /**
+     * @return the heap retained by the parts kept in memory
+     */
+    long getRetainedMemory() {
+        return retainedMemory;
+    }
+
+    /**
+     * @return the largest heap used for the parts while reading them
+     */
+    long getPeakMemory() {
+        return peakMemory;
+    }
+
+    /**
+     * @return the number of bytes written to temporary files
+     */
+    long getSpooledSize() {
+        return spooledSize;
+    }
+
+    /**
+     * The <code>PartWriter</code> receives the content of a single part in
+     * chunks. The content is collected in pooled buffers up to the size
+     * threshold and then written to a temporary file. Exactly one of
+     * {@link #close()} or {@link #abort()} must be called to release the
+     * buffers.
+     */
+    final class PartWriter {
+
+        private final String fieldName;
+
+        private final String contentType;
+
+        private final String fileName;
+
+        private final boolean formField;
+
+        private final FileItemHeaders headers;
+
+        private final List<byte[]> buffers = new ArrayList<>();
+
+        // number of bytes used of the last buffer
+        private int position;
+
+        private long length;
+
+        private Path file;
+
+        private FileChannel channel;
+
+        private PartWriter(
+                final String fieldName,
+                final String contentType,
+                final String fileName,
+                final boolean formField,
+                final FileItemHeaders headers) {
+            this.fieldName = fieldName;
+            this.contentType = contentType;
+            this.fileName = fileName;
+            this.formField = formField;
+            this.headers = headers;
+        }
+
+        /**
+         * Appends content to the part.
+         *
+         * @throws IOException if writing the temporary file fails
+         */
+        void write(final byte[] b, int off, int len) throws IOException {
+            if (channel == null && length + len > threshold) {
+                openFile();
+            }
+            length += len;
+            if (channel != null) {
+                writeFully(channel, ByteBuffer.wrap(b, off, len));
+                return;
+            }
+            while (len > 0) {
+                if (buffers.isEmpty() || position == UploadBufferPool.BUFFER_SIZE) {
+                    buffers.add(pool.acquire());
+                    position = 0;
+                    updatePeak(buffers.size() * (long) UploadBufferPool.BUFFER_SIZE);
+                }
+                final int count = Math.min(len, UploadBufferPool.BUFFER_SIZE - position);
+                System.arraycopy(b, off, buffers.get(buffers.size() - 1), position, count);
+                position += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        /** moves the buffered content to a temporary file written from now on */
+        private void openFile() throws IOException {
+            file = createTempFile();
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            long remaining = length;
+            for (final byte[] buffer : buffers) {
+                final ByteBuffer bb = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, remaining));
+                remaining -= bb.remaining();
+                writeFully(channel, bb);
+            }
+            releaseBuffers();
+        }
+
+        /**
+         * Completes the part and adds it to the parts of the spooler.
+         *
+         * @return the part
+         * @throws IOException if closing the temporary file fails
+         */
+        SpooledPart close() throws IOException {
+            final SpooledPart part;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                part = SpooledPart.inFile(fieldName, contentType, fileName, formField, headers, file, length);
+                spooledSize += length;
+            } else {
+                final byte[] data = toArray(buffers, length);
+                retainedMemory += data.length;
+                updatePeak(buffers.size() * (long) UploadBufferPool.BUFFER_SIZE);
+                releaseBuffers();
+                part = SpooledPart.inMemory(fieldName, contentType, fileName, formField, headers, data);
+            }
+            parts.add(part);
+            return part;
+        }
+
+        /**
+         * Discards the part, releasing its buffers and deleting its temporary
+         * file.
+         */
+        void abort() {
+            releaseBuffers();
+            if (channel != null) {
+                try {
+                    channel.close();
+                    Files.deleteIfExists(file);
+                } catch (final IOException ignore) {
+                    // nothing left to do, the file is in the temporary directory
+                }
+                channel = null;
+            }
+        }
+
+        private void releaseBuffers() {
+            for (final byte[] buffer : buffers) {
+                pool.release(buffer);
+            }
+            buffers.clear();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.commons.fileupload.FileCountLimitExceededException;
+import org.apache.commons.fileupload.FileItemHeaders;
+import org.apache.commons.fileupload.FileUploadBase.FileSizeLimitExceededException;
+import org.apache.commons.fileupload.FileUploadBase.SizeLimitExceededException;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.ParameterParser;
+import org.apache.commons.fileupload.util.FileItemHeadersImpl;
+
+/**
+ * The <code>MultipartStreamParser</code> is an incremental parser for
+ * <tt>multipart/form-data</tt> bodies. Contrary to the commons-fileupload
+ * streaming API, which pulls the body from an input stream, the body is
+ * pushed to the parser in chunks of any size as it is received, so the parser
+ * never blocks waiting for data.
+ * <p>
+ * The content of the parts is written to a {@link MultipartSpooler} and each
+ * part is passed to the part handler as soon as it is complete. The limits of
+ * the {@link UploadPolicy} are enforced while parsing. Parts without a field
+ * name are skipped, nested <tt>multipart/mixed</tt> parts are passed on as
+ * they are.
+ * <p>
+ * Instances are not thread safe, the body must be pushed by one thread at a
+ * time.
+ */
+final class MultipartStreamParser {
+
+    /** The maximum size of the headers of a part, as with commons-fileupload */
+    static final int HEADER_PART_SIZE_MAX = 10240;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final byte[] HEADER_SEPARATOR = {'\r', '\n', '\r', '\n'};
+
+    private static final byte[] STREAM_TERMINATOR = {'-', '-'};
+
+    private enum State {
+        PREAMBLE,
+        DELIMITER,
+        HEADERS,
+        BODY,
+        EPILOGUE
+    }
+
+    private final MultipartSpooler spooler;
+
+    private final UploadPolicy policy;
+
+    private final Consumer<SpooledPart> partHandler;
+
+    // CRLF followed by two dashes and the boundary
+    private final byte[] delimiter;
+
+    // received data not yet parsed
+    private byte[] pending;
+
+    private int pendingLength;
+
+    private State state = State.PREAMBLE;
+
+    private long requestSize;
+
+    private int partCount;
+
+    // the writer of the current part, null if the part is skipped
+    private MultipartSpooler.PartWriter writer;
+
+    private long partSize;
+
+    /**
+     * @param boundary The boundary of the multipart body
+     * @param spooler The spooler receiving the content of the parts
+     * @param policy The limits to enforce
+     * @param partHandler The handler called with each completed part
+     */
+    MultipartStreamParser(
+            final byte[] boundary,
+            final MultipartSpooler spooler,
+            final UploadPolicy policy,
+            final Consumer<SpooledPart> partHandler) {
+        this.spooler = spooler;
+        this.policy = policy;
+        this.partHandler = partHandler;
+        this.delimiter = new byte[boundary.length + 4];
+        this.delimiter[0] = '\r';
+        this.delimiter[1] = '\n';
+        this.delimiter[2] = '-';
+        this.delimiter[3] = '-';
+        System.arraycopy(boundary, 0, this.delimiter, 4, boundary.length);
+
+        // the first delimiter need not be preceded by a line break
+        this.pending = new byte[Math.max(UploadBufferPool.BUFFER_SIZE, HEADER_PART_SIZE_MAX)];
+        this.pending[0] = '\r';
+        this.pending[1] = '\n';
+        this.pendingLength = 2;
+    }
+
+    /**
+     * Returns the boundary from the content type of a multipart request.
+     *
+     * @param contentType The content type
+     * @return the boundary or {@code null} if the content type has none
+     */
+    static byte[] getBoundary(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        final ParameterParser parser = new ParameterParser();
+        parser.setLowerCaseNames(true);
+        final String boundary = parser.parse(contentType, new char[] {';', ','}).get("boundary");
+        return (boundary == null || boundary.isEmpty()) ? null : boundary.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parses the next chunk of the body.
+     *
+     * @throws FileUploadException if the body is malformed or exceeds a limit
+     * @throws IOException if writing the content of a part fails
+     */
+    void write(final byte[] b, final int off, final int len) throws FileUploadException, IOException {
+        requestSize += len;
+        if (policy.getMaxRequestSize() > 0 && requestSize > policy.getMaxRequestSize()) {
+            throw new SizeLimitExceededException(
+                    "the request was rejected because its size exceeds the configured maximum ("
+                            + policy.getMaxRequestSize() + ")",
+                    requestSize,
+                    policy.getMaxRequestSize());
+        }
+        if (state == State.EPILOGUE) {
+            return;
+        }
+        if (pendingLength + len > pending.length) {
+            final byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + len)];
+            System.arraycopy(pending, 0, grown, 0, pendingLength);
+            pending = grown;
+        }
+        System.arraycopy(b, off, pending, pendingLength, len);
+        pendingLength += len;
+
+        final int pos = parse();
+        System.arraycopy(pending, pos, pending, 0, pendingLength - pos);
+        pendingLength -= pos;
+    }
+
+    /**
+     * Completes parsing after the whole body has been received.
+     *
+     * @throws FileUploadException if the body ends before the final
+     *             delimiter
+     */
+    void finish() throws FileUploadException {
+        if (state != State.EPILOGUE) {
+            abort();
+            throw new FileUploadException("Stream ended unexpectedly");
+        }
+    }
+
+    /**
+     * Discards the part currently being parsed.
+     */
+    void abort() {
+        if (writer != null) {
+            writer.abort();
+            writer = null;
+        }
+    }
+
+    /** parses as much of the pending data as possible and returns the position of the remainder */
+    private int parse() throws FileUploadException, IOException {
+        int pos = 0;
+        while (true) {
+            switch (state) {
+                case PREAMBLE: {
+                    final int index = indexOf(delimiter, pos);
+                    if (index < 0) {
+                        return Math.max(pos, pendingLength - delimiter.length + 1);
+                    }
+                    pos = index + delimiter.length;
+                    state = State.DELIMITER;
+                    break;
+                }
+                case DELIMITER:
+                    if (pendingLength - pos < 2) {
+                        return pos;
+                    }
+                    if (startsWith(STREAM_TERMINATOR, pos)) {
+                        state = State.EPILOGUE;
+                        return pendingLength;
+                    }
+                    if (!startsWith(CRLF, pos)) {
+                        throw new FileUploadException("Unexpected characters follow a boundary");
+                    }
+                    pos += CRLF.length;
+                    state = State.HEADERS;
+                    break;
+                case HEADERS: {
+                    if (pendingLength - pos < CRLF.length) {
+                        return pos;
+                    }
+                    if (startsWith(CRLF, pos)) {
+                        // no headers at all
+                        startPart(parseHeaders(""));
+                        pos += CRLF.length;
+                        state = State.BODY;
+                        break;
+                    }
+                    final int index = indexOf(HEADER_SEPARATOR, pos);
+                    if (index < 0) {
+                        if (pendingLength - pos > HEADER_PART_SIZE_MAX) {
+                            throw new FileUploadException("Header section has more than " + HEADER_PART_SIZE_MAX
+                                    + " bytes (maybe it is not properly terminated)");
+                        }
+                        return pos;
+                    }
+                    startPart(parseHeaders(new String(pending, pos, index - pos, StandardCharsets.ISO_8859_1)));
+                    pos = index + HEADER_SEPARATOR.length;
+                    state = State.BODY;
+                    break;
+                }
+                case BODY: {
+                    final int index = indexOf(delimiter, pos);
+                    if (index < 0) {
+                        // keep what may be the start of the delimiter
+                        final int safe = pendingLength - delimiter.length + 1;
+                        if (safe > pos) {
+                            writeContent(pos, safe - pos);
+                            pos = safe;
+                        }
+                        return pos;
+                    }
+                    writeContent(pos, index - pos);
+                    completePart();
+                    pos = index + delimiter.length;
+                    state = State.DELIMITER;
+                    break;
+                }
+                default:
+                    return pendingLength;
+            }
+        }
+    }
+
+    private void startPart(final FileItemHeaders headers) throws FileUploadException {
+        partSize = 0;
+        final String disposition = headers.getHeader("Content-Disposition");
+        if (disposition == null) {
+            return;
+        }
+        final String lower = disposition.toLowerCase(Locale.ENGLISH);
+        if (!lower.startsWith("form-data") && !lower.startsWith("attachment")) {
+            return;
+        }
+        final ParameterParser parser = new ParameterParser();
+        parser.setLowerCaseNames(true);
+        final Map<String, String> params = parser.parse(disposition, ';');
+        final String fieldName = params.get("name");
+        if (fieldName == null) {
+            return;
+        }
+        String fileName = null;
+        if (params.containsKey("filename")) {
+            fileName = params.get("filename");
+            if (fileName == null) {
+                fileName = "";
+            }
+        }
+
+        if (partCount >= policy.getMaxFileCount()) {
+            throw new FileCountLimitExceededException("multipart/form-data", policy.getMaxFileCount());
+        }
+        partCount++;
+        writer = spooler.begin(fieldName, headers.getHeader("Content-Type"), fileName, fileName == null, headers);
+    }
+
+    private void writeContent(final int off, final int len) throws FileUploadException, IOException {
+        if (writer == null || len == 0) {
+            return;
+        }
+        partSize += len;
+        if (policy.getMaxFileSize() > 0 && partSize > policy.getMaxFileSize()) {
+            abort();
+            throw new FileSizeLimitExceededException(
+                    "The part exceeds its maximum permitted size of " + policy.getMaxFileSize() + " bytes.",
+                    partSize,
+                    policy.getMaxFileSize());
+        }
+        writer.write(pending, off, len);
+    }
+
+    private void completePart() throws IOException {
+        if (writer != null) {
+            final MultipartSpooler.PartWriter completed = writer;
+            writer = null;
+            partHandler.accept(completed.close());
+        }
+    }
+
+    /** parses the header lines of a part, unfolding continuation lines */
+    private static FileItemHeaders parseHeaders(final String headerBlock) {
+        final FileItemHeadersImpl headers = new FileItemHeadersImpl();
+        String name = null;
+        StringBuilder value = null;
+        for (final String line : headerBlock.split("\r\n")) {
+            if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                if (value != null) {
+                    value.append(' ').append(line.trim());
+                }
+                continue;
+            }
+            if (name != null) {
+                headers.addHeader(name, value.toString());
+                name = null;
+            }
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                name = line.substring(0, colon).trim();
+                value = new StringBuilder(line.substring(colon + 1).trim());
+            }
+        }
+        if (name != null) {
+            headers.addHeader(name, value.toString());
+        }
+        return headers;
+    }
+
+    private boolean startsWith(final byte[] pattern, final int pos) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (pending[pos + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** returns the position of the pattern in the pending data or -1 */
+    private int indexOf(final byte[] pattern, final int from) {
+        final byte first = pattern[0];
+        final int last = pendingLength - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (pending[i] == first && startsWith(pattern, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
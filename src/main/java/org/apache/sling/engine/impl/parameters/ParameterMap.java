@@ -18,12 +18,19 @@
  */
 package org.apache.sling.engine.impl.parameters;
 
+import java.security.SecureRandom;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
 
 import jakarta.servlet.http.Part;
 import org.apache.sling.api.request.RequestParameter;
@@ -31,72 +38,213 @@ import org.apache.sling.api.request.RequestParameterMap;
 import org.slf4j.LoggerFactory;
 
 /**
- * The <code>ParameterMap</code> TODO
+ * The <code>ParameterMap</code> holds the parameters of a request by name, in
+ * the order in which the names were first added.
+ * <p>
+ * The parameters are kept in parallel arrays: all parameters in the order
+ * they are added, each linked to the next parameter of the same name, and the
+ * distinct names with the first and last parameter of each. The names are
+ * indexed by an open addressing hash table with linear probing over a hash
+ * code seeded randomly at startup, such that clients cannot send names
+ * colliding in the table on purpose. Adding a parameter is thus constant
+ * time, also for names repeated many times, and
+ * the arrays of the {@code Map} values, the map of string values and the
+ * ordered list of parameters are only projected from these arrays when
+ * requested.
+ * <p>
+ * The map cannot be modified through the {@code Map} interface.
  */
-public class ParameterMap extends LinkedHashMap<String, RequestParameter[]> implements RequestParameterMap {
-
-    private static final long serialVersionUID = -3984737679401682171L;
+public class ParameterMap extends AbstractMap<String, RequestParameter[]> implements RequestParameterMap {
 
     static final int DEFAULT_MAX_PARAMS = 10000;
 
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int HASH_SEED = new SecureRandom().nextInt();
+
     private static int maxParameters = DEFAULT_MAX_PARAMS;
 
-    private Map<String, String[]> stringParameterMap;
+    private static long maxNamesSize = -1;
+
+    private static long maxValuesSize = -1;
+
+    // ---------- parameters in the order they are added
+
+    private RequestParameter[] parameters = new RequestParameter[INITIAL_CAPACITY];
+
+    // index of the next parameter of the same name or -1
+    private int[] nextOfName = new int[INITIAL_CAPACITY];
+
+    private int parameterCount;
+
+    // ---------- distinct names in the order they are added
+
+    // the names, null if renamed
+    private String[] names = new String[INITIAL_CAPACITY];
+
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    // index of the first and last parameter of each name, -1 for names
+    // whose values have been set as an array
+    private int[] firstOfName = new int[INITIAL_CAPACITY];
+
+    private int[] lastOfName = new int[INITIAL_CAPACITY];
+
+    private int[] valueCounts = new int[INITIAL_CAPACITY];
+
+    // values of each name, projected on demand
+    private RequestParameter[][] values = new RequestParameter[INITIAL_CAPACITY][];
+
+    // string values of each name, projected on demand
+    private String[][] stringValues = new String[INITIAL_CAPACITY][];
 
-    private List<RequestParameter> requestParameters = new ArrayList<RequestParameter>();
+    private int nameCount;
+
+    // number of names not renamed
+    private int size;
+
+    // ---------- index of the names: name index + 1, 0 for free slots
+
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    // slots in use, including those of renamed names
+    private int usedSlots;
+
+    // bytes of the names and values of the parameters parsed from the
+    // query string and the form body
+    private long namesSize;
+
+    private long valuesSize;
+
+    private Map<String, String[]> stringParameterMap;
 
     static void setMaxParameters(final int maxParameters) {
         ParameterMap.maxParameters = (maxParameters > 0) ? maxParameters : -1;
     }
 
+    static void setMaxParameterSizes(final long maxNamesSize, final long maxValuesSize) {
+        ParameterMap.maxNamesSize = (maxNamesSize > 0) ? maxNamesSize : -1;
+        ParameterMap.maxValuesSize = (maxValuesSize > 0) ? maxValuesSize : -1;
+    }
+
+    /**
+     * @return whether the maximum number of parameters has been reached
+     */
+    boolean isFull() {
+        return maxParameters > 0 && parameterCount >= maxParameters;
+    }
+
+    /**
+     * @param nameSize The size of a parameter name being parsed
+     * @return whether adding the name exceeds the maximum size of all names
+     */
+    boolean exceedsMaxNamesSize(final long nameSize) {
+        return maxNamesSize > 0 && namesSize + nameSize > maxNamesSize;
+    }
+
+    /**
+     * @param valueSize The size of a parameter value being parsed
+     * @return whether adding the value exceeds the maximum size of all values
+     */
+    boolean exceedsMaxValuesSize(final long valueSize) {
+        return maxValuesSize > 0 && valuesSize + valueSize > maxValuesSize;
+    }
+
     public RequestParameter getValue(String name) {
-        RequestParameter[] params = getValues(name);
-        return (params != null && params.length > 0) ? params[0] : null;
+        final int index = indexOf(name);
+        if (index < 0 || valueCounts[index] == 0) {
+            return null;
+        }
+        return (firstOfName[index] >= 0) ? parameters[firstOfName[index]] : values[index][0];
     }
 
     public RequestParameter[] getValues(String name) {
-        return super.get(name);
+        final int index = indexOf(name);
+        return (index < 0) ? null : getValues(index);
     }
 
     void renameParameter(String oldName, String newName) {
-        RequestParameter[] params = super.remove(oldName);
-
+        final int index = indexOf(oldName);
+        final RequestParameter[] params = getValues(index);
         for (RequestParameter param : params) {
             ((AbstractRequestParameter) param).setName(newName);
         }
 
-        super.put(newName, params);
+        // the slot of the old name stays in use to not break probing
+        names[index] = null;
+        values[index] = null;
+        stringValues[index] = null;
+        size--;
+
+        setParameters(newName, params);
     }
 
     void addParameter(RequestParameter parameter, boolean prependNew) {
+        addParameter(parameter, prependNew, 0, 0);
+    }
+
+    /**
+     * Adds a parameter parsed from the raw request data, accounting for the
+     * sizes of its name and value.
+     */
+    void addParameter(RequestParameter parameter, boolean prependNew, int nameSize, int valueSize) {
 
         // check number of parameters
-        if (this.requestParameters.size() == maxParameters) {
+        if (isFull()) {
             // TODO: how to handle this situation ?? just ignore or throw or what ??
             LoggerFactory.getLogger(Util.class)
                     .warn("Too many name/value pairs, stopped processing after " + maxParameters + " entries");
             return;
         }
 
+        // list of parameters
+        if (parameterCount == parameters.length) {
+            parameters = Arrays.copyOf(parameters, parameterCount * 2);
+            nextOfName = Arrays.copyOf(nextOfName, parameterCount * 2);
+        }
+        final int pos = parameterCount++;
+        parameters[pos] = parameter;
+        nextOfName[pos] = -1;
+        namesSize += nameSize;
+        valuesSize += valueSize;
+
         // map of parameters
         final String name = parameter.getName();
-        RequestParameter[] current = this.get(name);
-        if (current == null) {
-            super.put(name, new RequestParameter[] {parameter});
-        } else {
-            RequestParameter[] ppn = new RequestParameter[current.length + 1];
+        int index = indexOf(name);
+        if (index < 0) {
+            index = addName(name);
+            firstOfName[index] = pos;
+            lastOfName[index] = pos;
+        } else if (firstOfName[index] < 0) {
+            // values set as an array, which is rare enough to just copy
+            final RequestParameter[] current = values[index];
+            final RequestParameter[] ppn = new RequestParameter[current.length + 1];
             System.arraycopy(current, 0, ppn, prependNew ? 1 : 0, current.length);
             ppn[prependNew ? 0 : current.length] = parameter;
-
-            super.put(name, ppn);
+            values[index] = ppn;
+        } else if (prependNew) {
+            nextOfName[pos] = firstOfName[index];
+            firstOfName[index] = pos;
+            values[index] = null;
+        } else {
+            nextOfName[lastOfName[index]] = pos;
+            lastOfName[index] = pos;
+            values[index] = null;
         }
-
-        // list of parameters
-        this.requestParameters.add(parameter);
+        valueCounts[index]++;
+        stringValues[index] = null;
     }
 
-    void setParameters(String name, RequestParameter[] parameters) {
-        super.put(name, parameters);
+    void setParameters(String name, RequestParameter[] params) {
+        int index = indexOf(name);
+        if (index < 0) {
+            index = addName(name);
+        }
+        firstOfName[index] = -1;
+        lastOfName[index] = -1;
+        valueCounts[index] = params.length;
+        values[index] = params;
+        stringValues[index] = null;
     }
 
     // ---------- String parameter support
@@ -107,16 +255,14 @@ public class ParameterMap extends LinkedHashMap<String, RequestParameter[]> impl
     }
 
     public String[] getStringValues(final String name) {
-        return toStringArray(getValues(name));
+        final int index = indexOf(name);
+        // callers may modify the array, the cached one is not handed out
+        return (index < 0) ? null : getStringValues(index).clone();
     }
 
     public Map<String, String[]> getStringParameterMap() {
         if (this.stringParameterMap == null) {
-            LinkedHashMap<String, String[]> pm = new LinkedHashMap<String, String[]>();
-            for (Map.Entry<String, RequestParameter[]> ppmEntry : entrySet()) {
-                pm.put(ppmEntry.getKey(), toStringArray(ppmEntry.getValue()));
-            }
-            this.stringParameterMap = Collections.unmodifiableMap(pm);
+            this.stringParameterMap = new StringParameterMap();
         }
         return stringParameterMap;
     }
@@ -135,9 +281,14 @@ public class ParameterMap extends LinkedHashMap<String, RequestParameter[]> impl
 
     public Collection<?> getParts() {
         final ArrayList<Part> parts = new ArrayList<Part>(this.size());
-        for (RequestParameter[] param : this.values()) {
-            if (param.length >= 1 && param[0] instanceof MultipartRequestParameter) {
-                parts.add(new SlingPart((MultipartRequestParameter) param[0]));
+        for (int i = 0; i < nameCount; i++) {
+            if (names[i] != null) {
+                final RequestParameter param = (firstOfName[i] >= 0)
+                        ? parameters[firstOfName[i]]
+                        : (values[i].length > 0 ? values[i][0] : null);
+                if (param instanceof MultipartRequestParameter) {
+                    parts.add(new SlingPart((MultipartRequestParameter) param));
+                }
             }
         }
         return parts;
@@ -146,7 +297,44 @@ public class ParameterMap extends LinkedHashMap<String, RequestParameter[]> impl
     // ---------- Order Request Parameter access
 
     public List<RequestParameter> getRequestParameterList() {
-        return Collections.unmodifiableList(requestParameters);
+        return new RequestParameterList();
+    }
+
+    // ---------- Map
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (key instanceof String) && indexOf((String) key) >= 0;
+    }
+
+    @Override
+    public RequestParameter[] get(Object key) {
+        return (key instanceof String) ? getValues((String) key) : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, RequestParameter[]>> entrySet() {
+        return new AbstractSet<Map.Entry<String, RequestParameter[]>>() {
+            @Override
+            public Iterator<Map.Entry<String, RequestParameter[]>> iterator() {
+                return new NameIterator<Map.Entry<String, RequestParameter[]>>() {
+                    @Override
+                    Map.Entry<String, RequestParameter[]> get(final int index) {
+                        return new SimpleImmutableEntry<>(names[index], getValues(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
     // ---------- Prohibited Write Access --------------------------------------
@@ -193,6 +381,129 @@ public class ParameterMap extends LinkedHashMap<String, RequestParameter[]> impl
 
     // ---------- internal
 
+    /** returns the index of the name or -1 if the name is not contained */
+    private int indexOf(final String name) {
+        if (name == null) {
+            return -1;
+        }
+        final int hash = hash(name);
+        final int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (hashes[index] == hash && name.equals(names[index])) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /** adds a name not contained yet and returns its index */
+    private int addName(final String name) {
+        if (nameCount == names.length) {
+            final int capacity = nameCount * 2;
+            names = Arrays.copyOf(names, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            firstOfName = Arrays.copyOf(firstOfName, capacity);
+            lastOfName = Arrays.copyOf(lastOfName, capacity);
+            valueCounts = Arrays.copyOf(valueCounts, capacity);
+            values = Arrays.copyOf(values, capacity);
+            stringValues = Arrays.copyOf(stringValues, capacity);
+        }
+        // keep the table at most half full
+        if ((usedSlots + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        final int index = nameCount++;
+        names[index] = name;
+        hashes[index] = hash(name);
+        insert(index);
+        usedSlots++;
+        size++;
+        return index;
+    }
+
+    private void rehash(final int capacity) {
+        slots = new int[capacity];
+        usedSlots = 0;
+        for (int i = 0; i < nameCount; i++) {
+            // renamed names are dropped from the table
+            if (names[i] != null) {
+                insert(i);
+                usedSlots++;
+            }
+        }
+    }
+
+    private void insert(final int index) {
+        final int mask = slots.length - 1;
+        int slot = hashes[index] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    /**
+     * Returns the seeded MurmurHash3 of the characters of the name. Contrary
+     * to {@link String#hashCode()}, names colliding in the table cannot be
+     * computed without knowing the seed, and names like <code>p1</code>,
+     * <code>p2</code>, ... do not get consecutive hash codes building long
+     * runs of used slots.
+     */
+    private static int hash(final String name) {
+        final int length = name.length();
+        int h = HASH_SEED;
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            h = mixHash(h, name.charAt(i) | (name.charAt(i + 1) << 16));
+        }
+        if (i < length) {
+            h ^= mixKey(name.charAt(i));
+        }
+        h ^= length * 2;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static int mixKey(int k) {
+        k *= 0xCC9E2D51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1B873593;
+    }
+
+    private static int mixHash(int h, final int k) {
+        h ^= mixKey(k);
+        h = Integer.rotateLeft(h, 13);
+        return h * 5 + 0xE6546B64;
+    }
+
+    private RequestParameter[] getValues(final int index) {
+        RequestParameter[] result = values[index];
+        if (result == null) {
+            result = new RequestParameter[valueCounts[index]];
+            int pos = firstOfName[index];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = parameters[pos];
+                pos = nextOfName[pos];
+            }
+            values[index] = result;
+        }
+        return result;
+    }
+
+    private String[] getStringValues(final int index) {
+        String[] result = stringValues[index];
+        if (result == null) {
+            result = toStringArray(getValues(index));
+            stringValues[index] = result;
+        }
+        return result;
+    }
+
     private static String[] toStringArray(final RequestParameter[] params) {
         if (params == null) {
             return null;
@@ -204,4 +515,100 @@ public class ParameterMap extends LinkedHashMap<String, RequestParameter[]> impl
         }
         return ps;
     }
+
+    /**
+     * Iterates the indexes of the names not renamed
+     */
+    private abstract class NameIterator<T> implements Iterator<T> {
+
+        private int next = advance(0);
+
+        @Override
+        public boolean hasNext() {
+            return next < nameCount;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int index = next;
+            next = advance(index + 1);
+            return get(index);
+        }
+
+        abstract T get(int index);
+
+        private int advance(int index) {
+            while (index < nameCount && names[index] == null) {
+                index++;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Unmodifiable view of the string values of the parameters
+     */
+    private final class StringParameterMap extends AbstractMap<String, String[]> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return ParameterMap.this.containsKey(key);
+        }
+
+        @Override
+        public String[] get(final Object key) {
+            if (key instanceof String) {
+                final int index = indexOf((String) key);
+                return (index < 0) ? null : getStringValues(index);
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String[]>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String[]>>() {
+                @Override
+                public Iterator<Map.Entry<String, String[]>> iterator() {
+                    return new NameIterator<Map.Entry<String, String[]>>() {
+                        @Override
+                        Map.Entry<String, String[]> get(final int index) {
+                            return new SimpleImmutableEntry<>(names[index], getStringValues(index));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * Unmodifiable view of the parameters in the order they were added
+     */
+    private final class RequestParameterList extends AbstractList<RequestParameter> implements RandomAccess {
+
+        @Override
+        public RequestParameter get(final int index) {
+            if (index < 0 || index >= parameterCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + parameterCount);
+            }
+            return parameters[index];
+        }
+
+        @Override
+        public int size() {
+            return parameterCount;
+        }
+    }
 }
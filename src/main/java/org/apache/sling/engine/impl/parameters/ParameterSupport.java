@@ -18,11 +18,13 @@
  */
 package org.apache.sling.engine.impl.parameters;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
@@ -32,10 +34,11 @@ import java.util.Map;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletRequestWrapper;
 import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.fileupload.FileCountLimitExceededException;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileUploadBase.SizeLimitExceededException;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.RequestContext;
-import org.apache.commons.fileupload.disk.DiskFileItem;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.sling.api.request.RequestParameter;
 import org.apache.sling.api.request.RequestParameterMap;
@@ -77,34 +80,35 @@ public class ParameterSupport {
     public static final String REQUEST_PARTS_ITERATOR_ATTRIBUTE = "request-parts-iterator";
     /** value of upload mode header/parameter indicating streaming is requested */
     public static final String STREAM_UPLOAD = "stream";
-
-    /** default log */
-    private final Logger log = LoggerFactory.getLogger(getClass());
-
+    /** request attribute that stores the parts publisher when uploading asynchronously */
+    public static final String REQUEST_PARTS_PUBLISHER_ATTRIBUTE = "request-parts-publisher";
     /**
-     * The maximum size allowed for <tt>multipart/form-data</tt>
-     * requests
-     *
-     * <p>The default is <tt>-1L</tt>, which means unlimited.
+     * value of upload mode header/parameter indicating the request is to be
+     * read asynchronously, falls back to streaming if the request does not
+     * support asynchronous processing
      */
-    private static long maxRequestSize = -1L;
-
+    public static final String ASYNC_UPLOAD = "async";
     /**
-     * The directory location where files will be stored
+     * request attribute that stores the largest number of heap bytes used for
+     * the parts of a multipart request while reading them
      */
-    private static File location = null;
+    public static final String UPLOAD_MEMORY_USAGE_ATTRIBUTE = "request-upload-memory-usage";
+    /** request attribute that stores the number of bytes of a multipart request written to temporary files */
+    public static final String UPLOAD_SPOOLED_SIZE_ATTRIBUTE = "request-upload-spooled-size";
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
 
     /**
-     * The maximum size allowed for uploaded files.
-     *
-     * <p>The default is <tt>-1L</tt>, which means unlimited.
+     * The limits for <tt>multipart/form-data</tt> requests to which no
+     * path specific policy applies
      */
-    private static long maxFileSize = -1L;
+    private static volatile UploadPolicy defaultUploadPolicy = UploadPolicy.DEFAULT;
 
     /**
-     * The size threshold after which the file will be written to disk
+     * The path specific upload policies
      */
-    private static int fileSizeThreshold = 256000;
+    private static volatile PathPolicies pathUploadPolicies = PathPolicies.EMPTY;
 
     /**
      * Check for additional parameters from the container.
@@ -112,17 +116,18 @@ public class ParameterSupport {
      */
     private static boolean checkForAdditionalParameters = false;
 
-    /**
-     * The maximum number of files allowed in a single request.
-     */
-    private static long maxFileCount = 50;
-
     private final HttpServletRequest servletRequest;
 
     private ParameterMap postParameterMap;
 
     private boolean requestDataUsed;
 
+    // holds the parts of a multipart request
+    private MultipartSpooler spooler;
+
+    // the upload policy, set when first used
+    private UploadPolicy uploadPolicy;
+
     /**
      * Returns the {@code ParameterSupport} instance supporting request
      * parameter for the give {@code request}. For a single request only a
@@ -157,19 +162,61 @@ public class ParameterSupport {
         return new ParameterSupportHttpServletRequestWrapper(request);
     }
 
-    static void configure(
-            final long maxRequestSize,
-            final String location,
-            final long maxFileSize,
-            final int fileSizeThreshold,
-            final boolean checkForAdditionalParameters,
-            final long maxFileCount) {
-        ParameterSupport.maxRequestSize = (maxRequestSize > 0) ? maxRequestSize : -1;
-        ParameterSupport.location = (location != null) ? new File(location) : null;
-        ParameterSupport.maxFileSize = (maxFileSize > 0) ? maxFileSize : -1;
-        ParameterSupport.fileSizeThreshold = (fileSizeThreshold > 0) ? fileSizeThreshold : 256000;
+    static void configure(final UploadPolicy defaultUploadPolicy, final boolean checkForAdditionalParameters) {
+        ParameterSupport.defaultUploadPolicy = defaultUploadPolicy;
         ParameterSupport.checkForAdditionalParameters = checkForAdditionalParameters;
-        ParameterSupport.maxFileCount = (maxFileCount > 0) ? maxFileCount : 50;
+    }
+
+    static void setUploadPolicies(final Collection<UploadPolicyService> services) {
+        ParameterSupport.pathUploadPolicies = new PathPolicies(services);
+    }
+
+    /**
+     * Returns the upload policy for the request: the policy of the
+     * {@link UploadPolicyService} with the longest path matching the request
+     * path, or the default policy if none matches.
+     *
+     * @param request The request
+     * @return the upload policy
+     */
+    static UploadPolicy getUploadPolicy(final HttpServletRequest request) {
+        final UploadPolicy policy = pathUploadPolicies.get(getRequestPath(request));
+        return (policy != null) ? policy : defaultUploadPolicy;
+    }
+
+    /**
+     * Checks whether the request is a <tt>multipart/form-data</tt> POST
+     * request whose declared content length exceeds the maximum request size
+     * of its upload policy. Such a request can be rejected without reading
+     * its body.
+     *
+     * @param request The request
+     * @return {@code true} if the request is too large
+     */
+    public static boolean isUploadTooLarge(final HttpServletRequest request) {
+        return "POST".equals(request.getMethod())
+                && isMultipartContent(request)
+                && getUploadPolicy(request).exceedsMaxRequestSize(request.getContentLengthLong());
+    }
+
+    /** the path of the request within the servlet context */
+    private static String getRequestPath(final HttpServletRequest request) {
+        final String servletPath = request.getServletPath();
+        final String pathInfo = request.getPathInfo();
+        if (pathInfo == null) {
+            return servletPath;
+        }
+        return (servletPath == null || servletPath.isEmpty()) ? pathInfo : servletPath.concat(pathInfo);
+    }
+
+    /**
+     * @return the upload policy of this request
+     */
+    UploadPolicy getUploadPolicy() {
+        if (this.uploadPolicy == null) {
+            this.uploadPolicy = getUploadPolicy(getServletRequest());
+        }
+        return this.uploadPolicy;
     }
 
     private ParameterSupport(HttpServletRequest servletRequest) {
@@ -262,17 +309,18 @@ public class ParameterSupport {
             boolean addContainerParameters = false;
             // Query String
             final String query = getServletRequest().getQueryString();
+
+            // parse the query and a form body right away in the encoding
+            // which fixEncoding ends up with in almost all cases
+            final String formEncoding = Util.getFormEncoding(query);
             if (query != null) {
                 try {
-                    InputStream input = Util.toInputStream(query);
-                    Util.parseQueryString(input, encoding, parameters, false);
+                    Util.parseQueryString(query, formEncoding, parameters, false);
                     addContainerParameters = checkForAdditionalParameters;
                 } catch (IllegalArgumentException e) {
                     this.log.error("getRequestParameterMapInternal: Error parsing request", e);
                 } catch (UnsupportedEncodingException e) {
                     throw new SlingUnsupportedEncodingException(e);
-                } catch (IOException e) {
-                    this.log.error("getRequestParameterMapInternal: Error parsing request", e);
                 }
                 useFallback = false;
             } else {
@@ -287,7 +335,7 @@ public class ParameterSupport {
                 if (isWWWFormEncodedContent(this.getServletRequest())) {
                     try {
                         InputStream input = this.getServletRequest().getInputStream();
-                        Util.parseQueryString(input, encoding, parameters, false);
+                        Util.parseQueryString(input, formEncoding, parameters, false);
                         addContainerParameters = checkForAdditionalParameters;
                     } catch (IllegalArgumentException e) {
                         this.log.error("getRequestParameterMapInternal: Error parsing request", e);
@@ -301,14 +349,34 @@ public class ParameterSupport {
                 }
 
                 // Multipart POST
-                if (ServletFileUpload.isMultipartContent(this.getMultiPartContext())) {
-                    if (isStreamed(parameters, this.getServletRequest())) {
+                if (isMultipartContent(this.getServletRequest())) {
+                    final String uploadMode = getUploadMode(parameters, this.getServletRequest());
+                    if (ASYNC_UPLOAD.equals(uploadMode)
+                            && this.getServletRequest().isAsyncSupported()) {
+                        // the request is read without blocking once the parts publisher is subscribed to
+                        try {
+                            checkRequestSize();
+                            this.getServletRequest()
+                                    .setAttribute(
+                                            REQUEST_PARTS_PUBLISHER_ATTRIBUTE,
+                                            new RequestPartsPublisher(this.getServletRequest(), getUploadPolicy()));
+                            this.log.debug(
+                                    "getRequestParameterMapInternal: Flow.Publisher<jakarta.servlet.http.Part> available as request attribute named request-parts-publisher");
+                        } catch (final FileUploadException e) {
+                            this.log.error(
+                                    "getRequestParameterMapInternal: Error parsing multipart asynchronous request", e);
+                        }
+                        this.requestDataUsed = true;
+                        addContainerParameters = false;
+                        useFallback = false;
+                    } else if (STREAM_UPLOAD.equals(uploadMode) || ASYNC_UPLOAD.equals(uploadMode)) {
                         // special case, the request is Multipart and streamed processing has been requested
                         try {
+                            checkRequestSize();
                             this.getServletRequest()
                                     .setAttribute(
                                             REQUEST_PARTS_ITERATOR_ATTRIBUTE,
-                                            new RequestPartsIterator(this.getMultiPartContext()));
+                                            new RequestPartsIterator(this.getMultiPartContext(), getUploadPolicy()));
                             this.log.debug(
                                     "getRequestParameterMapInternal: Iterator<javax.servlet.http.Part> available as request attribute named request-parts-iterator");
                         } catch (final FileUploadException | IOException e) {
@@ -348,14 +416,15 @@ public class ParameterSupport {
      * to be streamed from the client to the server.
      * @param parameters parameters processed from the query string only.
      * @param servletRequest the servlet request, where the body has not been processed.
-     * @return true if the request was made with streaming in mind.
+     * @return the requested upload mode, {@code null} if none has been requested.
      */
-    private boolean isStreamed(ParameterMap parameters, HttpServletRequest servletRequest) {
-        if (STREAM_UPLOAD.equals(servletRequest.getHeader(SLING_UPLOADMODE_HEADER))) {
-            return true;
+    private String getUploadMode(ParameterMap parameters, HttpServletRequest servletRequest) {
+        final String header = servletRequest.getHeader(SLING_UPLOADMODE_HEADER);
+        if (STREAM_UPLOAD.equals(header) || ASYNC_UPLOAD.equals(header)) {
+            return header;
         }
         RequestParameter[] rp = parameters.get(UPLOADMODE_PARAM);
-        return (rp != null && rp.length == 1 && STREAM_UPLOAD.equals(rp[0].getString()));
+        return (rp != null && rp.length == 1) ? rp[0].getString() : null;
     }
 
     private void getContainerParameters(final ParameterMap parameters, final String encoding, final boolean alwaysAdd) {
@@ -390,6 +459,11 @@ public class ParameterSupport {
         return false;
     }
 
+    private static boolean isMultipartContent(final HttpServletRequest request) {
+        final String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase(Locale.ENGLISH).startsWith("multipart/");
+    }
+
     private RequestContext getMultiPartContext() {
         return new RequestContext() {
             @Override
@@ -415,30 +489,132 @@ public class ParameterSupport {
         };
     }
 
+    /**
+     * Checks the declared content length of the request against the maximum
+     * request size of the upload policy before reading the request.
+     */
+    private void checkRequestSize() throws SizeLimitExceededException {
+        final long contentLength = getServletRequest().getContentLengthLong();
+        final UploadPolicy policy = getUploadPolicy();
+        if (policy.exceedsMaxRequestSize(contentLength)) {
+            throw new SizeLimitExceededException(
+                    "the request was rejected because its size (" + contentLength + ") exceeds the configured maximum ("
+                            + policy.getMaxRequestSize() + ")",
+                    contentLength,
+                    policy.getMaxRequestSize());
+        }
+    }
+
     private void parseMultiPartPost(ParameterMap parameters) {
         // Create a new file upload handler
+        final UploadPolicy policy = getUploadPolicy();
         ServletFileUpload upload = new ServletFileUpload();
-        upload.setSizeMax(ParameterSupport.maxRequestSize);
-        upload.setFileSizeMax(ParameterSupport.maxFileSize);
-        upload.setFileItemFactory(
-                new DiskFileItemFactory(ParameterSupport.fileSizeThreshold, ParameterSupport.location));
-        upload.setFileCountMax(ParameterSupport.maxFileCount);
+        upload.setSizeMax(policy.getMaxRequestSize());
+        upload.setFileSizeMax(policy.getMaxFileSize());
         final RequestContext rc = this.getMultiPartContext();
 
-        // Parse the request
-        List<?> /* FileItem */ items = null;
+        // Parse the request, reading each part completely before the next
+        final MultipartSpooler spooler =
+                new MultipartSpooler(UploadBufferPool.INSTANCE, policy.getLocation(), policy.getFileSizeThreshold());
+        this.spooler = spooler;
         try {
-            items = upload.parseRequest(rc);
-        } catch (FileUploadException fue) {
-            this.log.error("parseMultiPartPost: Error parsing request", fue);
+            checkRequestSize();
+            final FileItemIterator items = upload.getItemIterator(rc);
+            while (items.hasNext()) {
+                if (spooler.getParts().size() >= policy.getMaxFileCount()) {
+                    throw new FileCountLimitExceededException("multipart/form-data", policy.getMaxFileCount());
+                }
+                spooler.spool(items.next());
+            }
+        } catch (FileUploadException | IOException e) {
+            this.log.error("parseMultiPartPost: Error parsing request", e);
+            // like commons-fileupload, drop all parts if parsing fails
+            spooler.delete();
+            spooler.getParts().clear();
+        }
+
+        for (final SpooledPart part : spooler.getParts()) {
+            parameters.addParameter(new MultipartRequestParameter(part, policy.getLocation()), false);
+        }
+
+        this.getServletRequest().setAttribute(UPLOAD_MEMORY_USAGE_ATTRIBUTE, spooler.getPeakMemory());
+        this.getServletRequest().setAttribute(UPLOAD_SPOOLED_SIZE_ATTRIBUTE, spooler.getSpooledSize());
+        if (this.log.isDebugEnabled()) {
+            this.log.debug(
+                    "parseMultiPartPost: {} parts, {} bytes in memory (peak {}), {} bytes in temporary files",
+                    spooler.getParts().size(),
+                    spooler.getRetainedMemory(),
+                    spooler.getPeakMemory(),
+                    spooler.getSpooledSize());
+        }
+    }
+
+    /**
+     * Deletes the temporary files of the uploaded parts of the request, if
+     * parameter support has been used for the request. The parts must not be
+     * used afterwards.
+     *
+     * @param request The request
+     */
+    public static void dispose(final HttpServletRequest request) {
+        final Object instance = request.getAttribute(ATTR_NAME);
+        if (instance instanceof ParameterSupport) {
+            final MultipartSpooler spooler = ((ParameterSupport) instance).spooler;
+            if (spooler != null) {
+                spooler.delete();
+            }
         }
+    }
 
-        if (items != null && items.size() > 0) {
-            for (Iterator<?> ii = items.iterator(); ii.hasNext(); ) {
-                DiskFileItem fileItem = (DiskFileItem) ii.next();
-                RequestParameter pp = new MultipartRequestParameter(fileItem);
-                parameters.addParameter(pp, false);
+    /**
+     * Immutable lookup of the upload policies by the longest matching path
+     */
+    private static final class PathPolicies {
+
+        static final PathPolicies EMPTY = new PathPolicies(Collections.emptyList());
+
+        // sorted by decreasing length
+        private final String[] paths;
+
+        private final UploadPolicy[] policies;
+
+        PathPolicies(final Collection<UploadPolicyService> services) {
+            final List<Map.Entry<String, UploadPolicy>> entries = new ArrayList<>();
+            for (final UploadPolicyService service : services) {
+                for (final String path : service.getPaths()) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(path, service.getPolicy()));
+                }
+            }
+            entries.sort((e1, e2) -> e2.getKey().length() - e1.getKey().length());
+            this.paths = new String[entries.size()];
+            this.policies = new UploadPolicy[entries.size()];
+            for (int i = 0; i < paths.length; i++) {
+                this.paths[i] = entries.get(i).getKey();
+                this.policies[i] = entries.get(i).getValue();
+            }
+        }
+
+        UploadPolicy get(final String path) {
+            if (path != null) {
+                for (int i = 0; i < paths.length; i++) {
+                    if (matches(paths[i], path)) {
+                        return policies[i];
+                    }
+                }
+            }
+            return null;
+        }
+
+        /** the path is the prefix itself, below it or has selectors or an extension */
+        private static boolean matches(final String prefix, final String path) {
+            if (!path.startsWith(prefix)) {
+                return false;
+            }
+            if (path.length() == prefix.length() || prefix.endsWith("/")) {
+                return true;
             }
+            final char next = path.charAt(prefix.length());
+            return next == '/' || next == '.';
         }
     }
 }
@@ -20,6 +20,8 @@ package org.apache.sling.engine.impl.parameters;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
@@ -28,11 +30,14 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.settings.SlingSettingsService;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.component.propertytypes.ServiceDescription;
 import org.osgi.service.component.propertytypes.ServiceRanking;
 import org.osgi.service.component.propertytypes.ServiceVendor;
@@ -40,6 +45,7 @@ import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.osgi.service.servlet.whiteboard.propertytypes.HttpWhiteboardContextSelect;
+import org.osgi.service.servlet.whiteboard.propertytypes.HttpWhiteboardFilterAsyncSupported;
 import org.osgi.service.servlet.whiteboard.propertytypes.HttpWhiteboardFilterPattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +53,7 @@ import org.slf4j.LoggerFactory;
 @Component(name = RequestParameterSupportConfigurer.PID, service = Filter.class)
 @HttpWhiteboardContextSelect("(osgi.http.whiteboard.context.name=org.apache.sling)")
 @HttpWhiteboardFilterPattern("/")
+@HttpWhiteboardFilterAsyncSupported
 @ServiceDescription("Filter for request parameter support")
 @ServiceVendor("The Apache Software Foundation")
 @ServiceRanking(Integer.MAX_VALUE)
@@ -62,7 +69,25 @@ public class RequestParameterSupportConfigurer implements Filter {
         if (request instanceof HttpServletRequest
                 && !(request instanceof ParameterSupportHttpServletRequestWrapper)
                 && !(request instanceof SlingJakartaHttpServletRequest)) {
-            chain.doFilter(ParameterSupport.getParameterSupportRequestWrapper((HttpServletRequest) request), response);
+            final HttpServletRequest httpRequest = (HttpServletRequest) request;
+            if (ParameterSupport.isUploadTooLarge(httpRequest)) {
+                // reject before reading any of the request body
+                log.info(
+                        "Rejecting multipart request to {} with content length {} exceeding the maximum request size",
+                        httpRequest.getRequestURI(),
+                        httpRequest.getContentLengthLong());
+                ((HttpServletResponse) response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            try {
+                chain.doFilter(
+                        ParameterSupport.getParameterSupportRequestWrapper((HttpServletRequest) request), response);
+            } finally {
+                // uploaded parts are only available until the request ends
+                if (!request.isAsyncStarted()) {
+                    ParameterSupport.dispose((HttpServletRequest) request);
+                }
+            }
         } else {
             chain.doFilter(request, response);
         }
@@ -95,6 +120,20 @@ public class RequestParameterSupportConfigurer implements Filter {
                         + ".")
         int sling_default_max_parameters() default ParameterMap.DEFAULT_MAX_PARAMS;
 
+        @AttributeDefinition(
+                name = "Maximum Parameter Names Size",
+                description = "The maximum number of bytes of all parameter names of the query string and of "
+                        + "application/x-www-form-urlencoded requests. Parsing stops as soon as the limit is reached, "
+                        + "without reading the rest of the request. The default is -1, which means unlimited.")
+        long sling_default_max_parameter_names_size() default -1;
+
+        @AttributeDefinition(
+                name = "Maximum Parameter Values Size",
+                description = "The maximum number of bytes of all parameter values of the query string and of "
+                        + "application/x-www-form-urlencoded requests. Parsing stops as soon as the limit is reached, "
+                        + "without reading the rest of the request. The default is -1, which means unlimited.")
+        long sling_default_max_parameter_values_size() default -1;
+
         @AttributeDefinition(
                 name = "Temporary File Location",
                 description = "The temporary directory where uploaded files are written to disk. The default is "
@@ -113,8 +152,9 @@ public class RequestParameterSupportConfigurer implements Filter {
 
         @AttributeDefinition(
                 name = "Maximum Request Size",
-                description =
-                        "The maximum size allowed for multipart/form-data requests. The default is -1, which means unlimited.")
+                description = "The maximum size allowed for multipart/form-data requests. Requests declaring a "
+                        + "larger content length are rejected before reading them. The default is -1, which means "
+                        + "unlimited.")
         long request_max() default -1;
 
         @AttributeDefinition(
@@ -138,12 +178,28 @@ public class RequestParameterSupportConfigurer implements Filter {
     @Reference
     private SlingSettingsService settignsService;
 
+    private final List<UploadPolicyService> uploadPolicies = new CopyOnWriteArrayList<>();
+
+    @Reference(
+            service = UploadPolicyService.class,
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC)
+    void bindUploadPolicyService(final UploadPolicyService service) {
+        this.uploadPolicies.add(service);
+        ParameterSupport.setUploadPolicies(this.uploadPolicies);
+    }
+
+    void unbindUploadPolicyService(final UploadPolicyService service) {
+        this.uploadPolicies.remove(service);
+        ParameterSupport.setUploadPolicies(this.uploadPolicies);
+    }
+
     @Activate
     private void configure(final Config config) {
         final String fixEncoding = config.sling_default_parameter_encoding();
         final int maxParams = config.sling_default_max_parameters();
         final long maxRequestSize = config.request_max();
-        final String fileLocation = getFileLocation(config.file_location());
+        final String fileLocation = getFileLocation(config.file_location(), this.settignsService);
         final long maxFileSize = config.file_max();
         final int fileSizeThreshold = config.file_threshold();
         final boolean checkAddParameters = config.sling_default_parameter_checkForAdditionalContainerParameters();
@@ -151,6 +207,8 @@ public class RequestParameterSupportConfigurer implements Filter {
         if (log.isInfoEnabled()) {
             log.info("Default Character Encoding: {}", fixEncoding);
             log.info("Parameter Number Limit: {}", (maxParams < 0) ? "unlimited" : maxParams);
+            log.info("Parameter Names Size Limit: {}", config.sling_default_max_parameter_names_size());
+            log.info("Parameter Values Size Limit: {}", config.sling_default_max_parameter_values_size());
             log.info("Maximum Request Size: {}", (maxParams < 0) ? "unlimited" : maxRequestSize);
             log.info("Temporary File Location: {}", fileLocation);
             log.info("Maximum File Size: {}", maxFileSize);
@@ -161,20 +219,20 @@ public class RequestParameterSupportConfigurer implements Filter {
 
         Util.setDefaultFixEncoding(fixEncoding);
         ParameterMap.setMaxParameters(maxParams);
+        ParameterMap.setMaxParameterSizes(
+                config.sling_default_max_parameter_names_size(), config.sling_default_max_parameter_values_size());
         ParameterSupport.configure(
-                maxRequestSize,
-                fileLocation,
-                maxFileSize,
-                fileSizeThreshold,
-                checkAddParameters,
-                config.request_max_file_count());
+                new UploadPolicy(
+                        maxRequestSize, fileLocation, maxFileSize, fileSizeThreshold, config.request_max_file_count()),
+                checkAddParameters);
     }
 
-    private String getFileLocation(String fileLocation) {
+    static String getFileLocation(String fileLocation, final SlingSettingsService settingsService) {
+        final Logger log = LoggerFactory.getLogger(PID);
         if (fileLocation != null) {
             File file = new File(fileLocation);
             if (!file.isAbsolute()) {
-                file = new File(this.settignsService.getSlingHomePath(), fileLocation);
+                file = new File(settingsService.getSlingHomePath(), fileLocation);
                 fileLocation = file.getAbsolutePath();
             }
             if (file.exists()) {
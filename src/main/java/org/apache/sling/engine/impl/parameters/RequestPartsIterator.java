@@ -47,13 +47,17 @@ public class RequestPartsIterator implements Iterator<Part> {
     /**
      * Create and initialse the iterator using the request. The request must be fresh. Headers can have been read but the stream
      * must not have been parsed.
-     * @param servletRequest the request
+     * @param context the request
+     * @param policy the limits applying to the request
      * @throws IOException when there is a problem reading the request.
      * @throws FileUploadException when there is a problem parsing the request.
      */
-    public RequestPartsIterator(final RequestContext context) throws FileUploadException, IOException {
+    RequestPartsIterator(final RequestContext context, final UploadPolicy policy)
+            throws FileUploadException, IOException {
         FileUpload upload = new FileUpload();
-        upload.setFileCountMax(50);
+        upload.setSizeMax(policy.getMaxRequestSize());
+        upload.setFileSizeMax(policy.getMaxFileSize());
+        upload.setFileCountMax(policy.getMaxFileCount());
         itemIterator = upload.getItemIterator(context);
     }
 
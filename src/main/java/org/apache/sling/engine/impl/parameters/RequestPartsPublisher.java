@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+import org.apache.commons.fileupload.FileUploadException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the parts of a multipart request to a single subscriber while the
+ * request is read without blocking.
+ * <p>
+ * Subscribing starts asynchronous processing of the request, unless already
+ * started, and registers a {@link ReadListener} on the request input stream.
+ * The body is parsed by a {@link MultipartStreamParser} from the data
+ * available in each callback, so no container thread waits for a slow
+ * client. Each part is published once it has been received completely. Its
+ * content is held in memory or in a temporary file according to the
+ * {@link UploadPolicy} of the request.
+ * <p>
+ * Parts are queued until requested by the subscriber. If reading or parsing
+ * the request fails, for example because a limit of the policy is exceeded,
+ * the error is signalled right away and queued parts are dropped. The parts
+ * and their temporary files are valid until the asynchronous processing
+ * completes; the subscriber is expected to complete the {@link AsyncContext}
+ * once it has consumed the parts and written the response.
+ * <p>
+ * If the subscription is cancelled, the rest of the body is still read but
+ * discarded, such that the container sees the whole request and can complete
+ * it.
+ */
+public class RequestPartsPublisher implements Flow.Publisher<Part> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestPartsPublisher.class);
+
+    private final HttpServletRequest request;
+
+    private final UploadPolicy policy;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    RequestPartsPublisher(final HttpServletRequest request, final UploadPolicy policy) {
+        this.request = request;
+        this.policy = policy;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Part> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("The parts of a request can only be subscribed to once"));
+            return;
+        }
+        final PartsSubscription subscription = new PartsSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Reads the request and hands the parts to the subscriber on demand.
+     * The container calls the {@link ReadListener} methods one at a time,
+     * while the subscriber may request parts from any thread; parts are
+     * emitted by whichever thread gets hold of the drain loop.
+     */
+    private final class PartsSubscription implements Flow.Subscription, ReadListener, AsyncListener {
+
+        private final Flow.Subscriber<? super Part> subscriber;
+
+        private final Queue<Part> parts = new ConcurrentLinkedQueue<>();
+
+        private final AtomicLong demand = new AtomicLong();
+
+        // number of pending drain requests, only the first one drains
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private final MultipartSpooler spooler;
+
+        private MultipartStreamParser parser;
+
+        private ServletInputStream input;
+
+        private volatile boolean done;
+
+        private volatile Throwable error;
+
+        // set when cancelled or a terminal signal has been sent
+        private volatile boolean terminated;
+
+        // set when cancelled, the rest of the body is discarded
+        private volatile boolean cancelled;
+
+        PartsSubscription(final Flow.Subscriber<? super Part> subscriber) {
+            this.subscriber = subscriber;
+            this.spooler = new MultipartSpooler(
+                    UploadBufferPool.INSTANCE, policy.getLocation(), policy.getFileSizeThreshold());
+        }
+
+        void start() {
+            final byte[] boundary = MultipartStreamParser.getBoundary(request.getContentType());
+            if (boundary == null) {
+                fail(new FileUploadException("the request was rejected because no multipart boundary was found"));
+                return;
+            }
+            final File location = policy.getLocation();
+            this.parser = new MultipartStreamParser(boundary, spooler, policy, part -> {
+                parts.add(new SlingPart(new MultipartRequestParameter(part, location)));
+            });
+            try {
+                final AsyncContext context =
+                        request.isAsyncStarted() ? request.getAsyncContext() : request.startAsync();
+                context.addListener(this);
+                this.input = request.getInputStream();
+                this.input.setReadListener(this);
+            } catch (final IllegalStateException | IOException e) {
+                fail(e);
+            }
+        }
+
+        // ---------- Flow.Subscription
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive request of " + n + " parts"));
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            terminated = true;
+            parts.clear();
+        }
+
+        // ---------- ReadListener
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            if (done) {
+                return;
+            }
+            final byte[] buffer = UploadBufferPool.INSTANCE.acquire();
+            try {
+                while (input.isReady() && !input.isFinished()) {
+                    final int read = input.read(buffer);
+                    if (read < 0) {
+                        break;
+                    }
+                    if (!cancelled) {
+                        parser.write(buffer, 0, read);
+                    }
+                }
+            } catch (final FileUploadException e) {
+                parser.abort();
+                fail(e);
+            } finally {
+                UploadBufferPool.INSTANCE.release(buffer);
+            }
+            drain();
+        }
+
+        @Override
+        public void onAllDataRead() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                // the discarded body is not parsed to its end
+                parser.abort();
+                done = true;
+                return;
+            }
+            try {
+                parser.finish();
+                request.setAttribute(ParameterSupport.UPLOAD_MEMORY_USAGE_ATTRIBUTE, spooler.getPeakMemory());
+                request.setAttribute(ParameterSupport.UPLOAD_SPOOLED_SIZE_ATTRIBUTE, spooler.getSpooledSize());
+                done = true;
+                drain();
+            } catch (final FileUploadException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            if (parser != null) {
+                parser.abort();
+            }
+            fail(t);
+        }
+
+        // ---------- AsyncListener
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            // the parts are only valid during the request
+            terminated = true;
+            spooler.delete();
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            fail(new IOException("asynchronous processing of the request timed out"));
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+            fail(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // keep listening if the asynchronous processing is restarted
+            event.getAsyncContext().addListener(this);
+        }
+
+        // ----------
+
+        private void fail(final Throwable t) {
+            LOG.debug("Failed reading the parts of the request", t);
+            if (error == null) {
+                error = t;
+            }
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (!terminated && error != null) {
+                    terminated = true;
+                    subscriber.onError(error);
+                }
+                long emitted = 0;
+                final long requested = demand.get();
+                while (emitted < requested && !terminated) {
+                    final Part part = parts.poll();
+                    if (part == null) {
+                        break;
+                    }
+                    subscriber.onNext(part);
+                    emitted++;
+                }
+                if (emitted > 0 && requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                if (!terminated && done && parts.isEmpty()) {
+                    terminated = true;
+                    final Throwable t = error;
+                    if (t != null) {
+                        subscriber.onError(t);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -18,15 +18,20 @@
  */
 package org.apache.sling.engine.impl.parameters;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
 import jakarta.servlet.http.Part;
+import org.apache.sling.engine.SpooledUpload;
 
-public class SlingPart implements Part {
+public class SlingPart implements Part, SpooledUpload {
 
     private final MultipartRequestParameter param;
 
@@ -46,7 +51,7 @@ public class SlingPart implements Part {
 
     @Override
     public String getName() {
-        return this.param.getFileItem().getFieldName();
+        return this.param.getSpooledPart().getFieldName();
     }
 
     @Override
@@ -54,26 +59,42 @@ public class SlingPart implements Part {
         return this.param.getSize();
     }
 
+    @Override
+    public Path getFile() {
+        return this.param.getFile();
+    }
+
+    @Override
+    public FileChannel openChannel() throws IOException {
+        return this.param.openChannel();
+    }
+
     @Override
     public void write(String fileName) throws IOException {
-        throw new IOException("Unsupported yet");
+        // relative names are resolved against the temporary file location
+        Path target = Paths.get(fileName);
+        if (!target.isAbsolute()) {
+            final File location = this.param.getLocation();
+            target = Paths.get(location != null ? location.getPath() : System.getProperty("java.io.tmpdir"), fileName);
+        }
+        this.param.getSpooledPart().write(target);
     }
 
     @Override
     public void delete() {
-        this.param.getFileItem().delete();
+        this.param.getSpooledPart().delete();
     }
 
     @Override
     public String getHeader(String name) {
-        return this.param.getFileItem().getHeaders().getHeader(name);
+        return this.param.getSpooledPart().getHeaders().getHeader(name);
     }
 
     @Override
     public Collection<String> getHeaders(String name) {
         final ArrayList<String> headers = new ArrayList<String>();
         final Iterator<String> itemHeaders =
-                this.param.getFileItem().getHeaders().getHeaders(name);
+                this.param.getSpooledPart().getHeaders().getHeaders(name);
         while (itemHeaders.hasNext()) {
             headers.add(itemHeaders.next());
         }
@@ -84,7 +105,7 @@ public class SlingPart implements Part {
     public Collection<String> getHeaderNames() {
         final ArrayList<String> headers = new ArrayList<String>();
         final Iterator<String> itemHeaders =
-                this.param.getFileItem().getHeaders().getHeaderNames();
+                this.param.getSpooledPart().getHeaders().getHeaderNames();
         while (itemHeaders.hasNext()) {
             headers.add(itemHeaders.next());
         }
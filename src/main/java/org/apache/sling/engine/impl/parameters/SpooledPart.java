@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.apache.commons.fileupload.FileItemHeaders;
+import org.apache.commons.fileupload.ParameterParser;
+
+/**
+ * The <code>SpooledPart</code> is a part of a multipart request whose content
+ * has been read completely, either into a byte array of the exact size or,
+ * for larger parts, into a temporary file.
+ * <p>
+ * The temporary file can be accessed directly through {@link #getFile()} and
+ * {@link #openChannel()}, which consumers reach through the
+ * {@link org.apache.sling.engine.SpooledUpload} interface of the request
+ * parameter and part, and {@link #write(Path)} just moves it to the target
+ * if possible, so large uploads need not be copied again.
+ */
+final class SpooledPart {
+
+    private final String fieldName;
+
+    private final String contentType;
+
+    private final String fileName;
+
+    private final boolean formField;
+
+    private final FileItemHeaders headers;
+
+    private final byte[] data;
+
+    private final long size;
+
+    private Path file;
+
+    // whether the file is a temporary file to be deleted with the part
+    private boolean temporary;
+
+    private SpooledPart(
+            final String fieldName,
+            final String contentType,
+            final String fileName,
+            final boolean formField,
+            final FileItemHeaders headers,
+            final byte[] data,
+            final Path file,
+            final long size) {
+        this.fieldName = fieldName;
+        this.contentType = contentType;
+        this.fileName = fileName;
+        this.formField = formField;
+        this.headers = headers;
+        this.data = data;
+        this.file = file;
+        this.temporary = file != null;
+        this.size = size;
+    }
+
+    static SpooledPart inMemory(
+            final String fieldName,
+            final String contentType,
+            final String fileName,
+            final boolean formField,
+            final FileItemHeaders headers,
+            final byte[] data) {
+        return new SpooledPart(fieldName, contentType, fileName, formField, headers, data, null, data.length);
+    }
+
+    static SpooledPart inFile(
+            final String fieldName,
+            final String contentType,
+            final String fileName,
+            final boolean formField,
+            final FileItemHeaders headers,
+            final Path file,
+            final long size) {
+        return new SpooledPart(fieldName, contentType, fileName, formField, headers, null, file, size);
+    }
+
+    String getFieldName() {
+        return fieldName;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    String getName() {
+        return fileName;
+    }
+
+    boolean isFormField() {
+        return formField;
+    }
+
+    FileItemHeaders getHeaders() {
+        return headers;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * @return the file holding the content or {@code null} if the content is
+     *         kept in memory
+     */
+    synchronized Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the content, which is read from the file each time if the
+     *         content is not kept in memory
+     */
+    byte[] get() {
+        if (data != null) {
+            return data;
+        }
+        try {
+            return Files.readAllBytes(getFile());
+        } catch (IOException ioe) {
+            // like commons-fileupload, which ignores the problem as well
+            return Util.NO_CONTENT;
+        }
+    }
+
+    InputStream getInputStream() throws IOException {
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        return Files.newInputStream(getFile());
+    }
+
+    /**
+     * @return a read-only channel on the file holding the content or
+     *         {@code null} if the content is kept in memory
+     */
+    FileChannel openChannel() throws IOException {
+        final Path path = getFile();
+        return path != null ? FileChannel.open(path, StandardOpenOption.READ) : null;
+    }
+
+    /**
+     * @return the content decoded with the charset of the content type, or
+     *         ISO-8859-1 if none is given
+     */
+    String getString() {
+        String charset = null;
+        if (contentType != null) {
+            final ParameterParser parser = new ParameterParser();
+            parser.setLowerCaseNames(true);
+            final Map<String, String> params = parser.parse(contentType, ';');
+            charset = params.get("charset");
+        }
+        try {
+            return new String(get(), charset != null ? charset : Util.ENCODING_DIRECT);
+        } catch (UnsupportedEncodingException uee) {
+            return new String(get());
+        }
+    }
+
+    /**
+     * Writes the content to the target file. A temporary file is moved to the
+     * target, which then holds the content of this part.
+     *
+     * @param target The target file
+     * @throws IOException if writing or moving fails
+     */
+    synchronized void write(final Path target) throws IOException {
+        if (data != null) {
+            Files.write(target, data);
+        } else if (temporary) {
+            file = Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            temporary = false;
+        } else {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the temporary file, if any.
+     */
+    synchronized void delete() {
+        if (temporary) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ioe) {
+                // file is in use or already gone, nothing more to do
+            }
+            temporary = false;
+        }
+    }
+}
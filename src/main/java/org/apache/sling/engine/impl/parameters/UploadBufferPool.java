@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The <code>UploadBufferPool</code> is a bounded pool of the byte arrays
+ * through which multipart request parts are read. Buffers are allocated when
+ * the pool is empty and are dropped when it is full, so neither acquiring nor
+ * releasing a buffer ever blocks.
+ */
+final class UploadBufferPool {
+
+    /** The size of each buffer */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The number of buffers retained, which is 4MB in total */
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    /** The pool shared by all requests */
+    static final UploadBufferPool INSTANCE = new UploadBufferPool(MAX_POOLED_BUFFERS);
+
+    private final ArrayBlockingQueue<byte[]> buffers;
+
+    UploadBufferPool(final int maxPooledBuffers) {
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    /**
+     * @return a pooled or new buffer of {@link #BUFFER_SIZE} bytes
+     */
+    byte[] acquire() {
+        final byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer The buffer acquired from this pool
+     */
+    void release(final byte[] buffer) {
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return the number of buffers currently available in the pool
+     */
+    int size() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.File;
+
+/**
+ * The <code>UploadPolicy</code> holds the limits applied to
+ * <tt>multipart/form-data</tt> requests. The policy of a request is selected
+ * by {@link ParameterSupport#getUploadPolicy(jakarta.servlet.http.HttpServletRequest)}
+ * from the {@link UploadPolicyService}s configured for request paths, falling
+ * back to the default policy configured with the
+ * {@link RequestParameterSupportConfigurer}.
+ */
+final class UploadPolicy {
+
+    static final int DEFAULT_FILE_SIZE_THRESHOLD = 256000;
+
+    static final long DEFAULT_MAX_FILE_COUNT = 50;
+
+    /** The policy used if none is configured */
+    static final UploadPolicy DEFAULT =
+            new UploadPolicy(-1, null, -1, DEFAULT_FILE_SIZE_THRESHOLD, DEFAULT_MAX_FILE_COUNT);
+
+    private final long maxRequestSize;
+
+    private final File location;
+
+    private final long maxFileSize;
+
+    private final int fileSizeThreshold;
+
+    private final long maxFileCount;
+
+    /**
+     * @param maxRequestSize The maximum size of a request, unlimited if zero
+     *            or negative
+     * @param location The directory for temporary files, {@code null} for the
+     *            {@code java.io.tmpdir} directory
+     * @param maxFileSize The maximum size of a single part, unlimited if zero
+     *            or negative
+     * @param fileSizeThreshold The size above which parts are written to
+     *            temporary files, the default if zero or negative
+     * @param maxFileCount The maximum number of parts, the default if zero or
+     *            negative
+     */
+    UploadPolicy(
+            final long maxRequestSize,
+            final String location,
+            final long maxFileSize,
+            final int fileSizeThreshold,
+            final long maxFileCount) {
+        this.maxRequestSize = (maxRequestSize > 0) ? maxRequestSize : -1;
+        this.location = (location != null) ? new File(location) : null;
+        this.maxFileSize = (maxFileSize > 0) ? maxFileSize : -1;
+        this.fileSizeThreshold = (fileSizeThreshold > 0) ? fileSizeThreshold : DEFAULT_FILE_SIZE_THRESHOLD;
+        this.maxFileCount = (maxFileCount > 0) ? maxFileCount : DEFAULT_MAX_FILE_COUNT;
+    }
+
+    /**
+     * @return the maximum size of a request, <tt>-1</tt> for unlimited
+     */
+    public long getMaxRequestSize() {
+        return maxRequestSize;
+    }
+
+    /**
+     * @return the directory for temporary files, {@code null} for the
+     *         {@code java.io.tmpdir} directory
+     */
+    public File getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the maximum size of a single part, <tt>-1</tt> for unlimited
+     */
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * @return the size above which parts are written to temporary files
+     */
+    public int getFileSizeThreshold() {
+        return fileSizeThreshold;
+    }
+
+    /**
+     * @return the maximum number of parts
+     */
+    public long getMaxFileCount() {
+        return maxFileCount;
+    }
+
+    /**
+     * Checks the declared length of a request body against the maximum
+     * request size.
+     *
+     * @param contentLength The content length of the request, negative if
+     *            unknown
+     * @return {@code true} if the content length is known and exceeds the
+     *         maximum request size
+     */
+    public boolean exceedsMaxRequestSize(final long contentLength) {
+        return maxRequestSize > 0 && contentLength > maxRequestSize;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadPolicy [maxRequestSize=" + maxRequestSize + ", location=" + location + ", maxFileSize="
+                + maxFileSize + ", fileSizeThreshold=" + fileSizeThreshold + ", maxFileCount=" + maxFileCount + "]";
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.settings.SlingSettingsService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.propertytypes.ServiceDescription;
+import org.osgi.service.component.propertytypes.ServiceVendor;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * The <code>UploadPolicyService</code> is a factory component providing an
+ * {@link UploadPolicy} for requests to configured paths. The policies are
+ * collected by the {@link RequestParameterSupportConfigurer} and the policy
+ * with the longest matching path applies to a request.
+ */
+@Component(
+        service = UploadPolicyService.class,
+        configurationPid = UploadPolicyService.PID,
+        configurationPolicy = ConfigurationPolicy.REQUIRE)
+@ServiceDescription("Upload policy for request paths")
+@ServiceVendor("The Apache Software Foundation")
+@Designate(ocd = UploadPolicyService.Config.class, factory = true)
+public class UploadPolicyService {
+
+    @ObjectClassDefinition(
+            name = "Apache Sling Request Parameter Upload Policy",
+            description = "Limits for multipart/form-data requests to specific paths. Requests to other paths "
+                    + "use the limits of the Apache Sling Request Parameter Handling configuration.")
+    public @interface Config {
+
+        @AttributeDefinition(
+                name = "Paths",
+                description = "The request paths this policy applies to. A path applies to requests to "
+                        + "the path itself as well as to paths below it or with selectors and extension. If "
+                        + "more than one policy applies to a request, the one with the longest path is used.")
+        String[] upload_paths();
+
+        @AttributeDefinition(
+                name = "Temporary File Location",
+                description = "The temporary directory where uploaded files are written to disk. The default is "
+                        + "null, which means the directory given by the 'java.io.tmpdir' system property.")
+        String file_location();
+
+        @AttributeDefinition(
+                name = "File Save Threshold",
+                description = "The size threshold after which the file will be written to disk. The default is 256KB.")
+        int file_threshold() default UploadPolicy.DEFAULT_FILE_SIZE_THRESHOLD;
+
+        @AttributeDefinition(
+                name = "Maximum File Size",
+                description = "The maximum size allowed for uploaded files. The default is -1, which means unlimited.")
+        long file_max() default -1;
+
+        @AttributeDefinition(
+                name = "Maximum Request Size",
+                description = "The maximum size allowed for multipart/form-data requests. Requests declaring a "
+                        + "larger content length are rejected before reading them. The default is -1, which means "
+                        + "unlimited.")
+        long request_max() default -1;
+
+        @AttributeDefinition(
+                name = "Maximum File Count",
+                description = "The maximum number of files allowed for multipart/form-data requests in a single "
+                        + "request. The default is 50.")
+        long request_max_file_count() default UploadPolicy.DEFAULT_MAX_FILE_COUNT;
+    }
+
+    static final String PID = "org.apache.sling.engine.parameters.upload";
+
+    private final String[] paths;
+
+    private final UploadPolicy policy;
+
+    @Activate
+    public UploadPolicyService(@Reference final SlingSettingsService settingsService, final Config config) {
+        final List<String> normalized = new ArrayList<>();
+        if (config.upload_paths() != null) {
+            for (final String path : config.upload_paths()) {
+                if (path != null && path.trim().length() > 0) {
+                    String p = path.trim();
+                    // a trailing slash is implied
+                    while (p.length() > 1 && p.endsWith("/")) {
+                        p = p.substring(0, p.length() - 1);
+                    }
+                    normalized.add(p);
+                }
+            }
+        }
+        this.paths = normalized.toArray(new String[0]);
+        this.policy = new UploadPolicy(
+                config.request_max(),
+                RequestParameterSupportConfigurer.getFileLocation(config.file_location(), settingsService),
+                config.file_max(),
+                config.file_threshold(),
+                config.request_max_file_count());
+    }
+
+    /**
+     * @return the paths this policy applies to
+     */
+    String[] getPaths() {
+        return paths;
+    }
+
+    /**
+     * @return the policy
+     */
+    UploadPolicy getPolicy() {
+        return policy;
+    }
+}
@@ -18,15 +18,16 @@
  */
 package org.apache.sling.engine.impl.parameters;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.sling.api.request.RequestParameter;
+import org.slf4j.LoggerFactory;
 
 public class Util {
 
@@ -54,10 +55,7 @@ public class Util {
     private static final int ESC_NAME = INSIDE_NAME + 1;
 
     /** Parse state constant */
-    private static final int BEFORE_EQU = ESC_NAME + 1;
-
-    /** Parse state constant */
-    private static final int BEFORE_VALUE = BEFORE_EQU + 1;
+    private static final int BEFORE_VALUE = ESC_NAME + 1;
 
     /** Parse state constant */
     private static final int INSIDE_VALUE = BEFORE_VALUE + 1;
@@ -65,11 +63,22 @@ public class Util {
     /** Parse state constant */
     private static final int ESC_VALUE = INSIDE_VALUE + 1;
 
-    /** Parse state constant */
-    private static final int AFTER_VALUE = INSIDE_VALUE + 1;
+    /** The size of the chunks read from an input stream */
+    private static final int READ_BUFFER_SIZE = 8192;
 
-    /** Parse state constant */
-    private static final int BEFORE_SEP = AFTER_VALUE + 1;
+    /** The value of each hex digit character, -1 for all other characters */
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
 
     public static void setDefaultFixEncoding(final String encoding) {
         defaultFixEncoding = validateEncoding(encoding);
@@ -103,11 +112,6 @@ public class Util {
         return data;
     }
 
-    static InputStream toInputStream(String source) {
-        byte[] data = fromIdentityEncodedString(source);
-        return new ByteArrayInputStream(data);
-    }
-
     static void fixEncoding(ParameterMap parameterMap) {
         // default the encoding to defaultFixEncoding
         String formEncoding = getDefaultFixEncoding();
@@ -139,7 +143,12 @@ public class Util {
                         // prepare the parameter for renaming
                         if (parName == null) {
                             parName = paramEntry.getKey();
-                            String name = reencode(parName, formEncoding);
+                            String name = (param instanceof ContainerRequestParameter)
+                                    ? ((ContainerRequestParameter) param).getName(formEncoding)
+                                    : null;
+                            if (name == null) {
+                                name = reencode(parName, formEncoding);
+                            }
                             if (!parName.equals(name)) {
                                 renameMap.put(parName, name);
                             }
@@ -157,6 +166,40 @@ public class Util {
         }
     }
 
+    /**
+     * Returns the encoding in which the parameters of a request are expected
+     * to end up after {@link #fixEncoding(ParameterMap)}: the value of the
+     * {@link ParameterSupport#PARAMETER_FORMENCODING} parameter if it is the
+     * first parameter of that name in the query string, or else the default.
+     * Parsing the parameters in this encoding right away saves
+     * {@link #fixEncoding(ParameterMap)} from decoding and renaming them a
+     * second time. If the form encoding is actually set in the request body,
+     * {@link #fixEncoding(ParameterMap)} still corrects the parameters.
+     *
+     * @param query The query string, may be {@code null}
+     * @return The expected form encoding
+     */
+    static String getFormEncoding(final String query) {
+        if (query != null) {
+            final String prefix = ParameterSupport.PARAMETER_FORMENCODING + "=";
+            for (int idx = query.indexOf(prefix); idx >= 0; idx = query.indexOf(prefix, idx + 1)) {
+                if (idx == 0 || query.charAt(idx - 1) == '&') {
+                    final int start = idx + prefix.length();
+                    int end = query.indexOf('&', start);
+                    if (end < 0) {
+                        end = query.length();
+                    }
+                    final String encoding = query.substring(start, end).trim();
+                    // leave escaped encoding names to fixEncoding
+                    return encoding.indexOf('%') < 0 && encoding.indexOf('+') < 0
+                            ? validateEncoding(encoding)
+                            : getDefaultFixEncoding();
+                }
+            }
+        }
+        return getDefaultFixEncoding();
+    }
+
     private static String reencode(String parName, String encoding) {
         // re-encode the parameter to the encoding
         if (!ENCODING_DIRECT.equalsIgnoreCase(encoding)) {
@@ -198,169 +241,285 @@ public class Util {
     }
 
     /**
-     * Parse a query string and store entries inside a map
+     * Parse a query string and store entries inside a map. Each character of
+     * the query string is taken as a single byte as with
+     * {@link #fromIdentityEncodedString(String)}, and the decoded names and
+     * values are converted to strings with the given encoding.
      *
-     * @param data querystring data
+     * @param query querystring, may be {@code null}
      * @param encoding encoding to use for converting bytes to characters
      * @param map map to populate
      * @param prependNew whether to prepend new values
      * @throws IllegalArgumentException if the nv string is malformed
      * @throws UnsupportedEncodingException if the {@code encoding} is not
      *             supported
-     * @throws IOException if an error occurrs reading from {@code data}
      */
-    public static void parseQueryString(InputStream data, String encoding, ParameterMap map, boolean prependNew)
-            throws UnsupportedEncodingException, IOException {
-
-        parseNVPairString(data, encoding, map, '&', false, prependNew);
+    public static void parseQueryString(String query, String encoding, ParameterMap map, boolean prependNew)
+            throws UnsupportedEncodingException {
+        if (query != null && query.length() > 0) {
+            final NVPairParser parser = new NVPairParser(encoding, map, prependNew, query.length());
+            parser.parse(query);
+            parser.finish();
+        }
     }
 
     /**
-     * Parse a name/value pair string and populate a map with key -> value[s]
+     * Parse a query string and store entries inside a map. The data is read in
+     * chunks, so the stream need not be buffered.
      *
-     * @param data name value data
+     * @param data querystring data
      * @param encoding encoding to use for converting bytes to characters
      * @param map map to populate
-     * @param separator multi-value separator character
-     * @param allowSpaces allow spaces inside name/values
      * @param prependNew whether to prepend new values
      * @throws IllegalArgumentException if the nv string is malformed
      * @throws UnsupportedEncodingException if the {@code encoding} is not
      *             supported
      * @throws IOException if an error occurrs reading from {@code data}
      */
-    private static void parseNVPairString(
-            InputStream data,
-            String encoding,
-            ParameterMap map,
-            char separator,
-            boolean allowSpaces,
-            boolean prependNew)
+    public static void parseQueryString(InputStream data, String encoding, ParameterMap map, boolean prependNew)
             throws UnsupportedEncodingException, IOException {
+        final NVPairParser parser = new NVPairParser(encoding, map, prependNew, READ_BUFFER_SIZE);
+        final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int len;
+        // the rest of the data is not read once a limit has been reached
+        while (!parser.isStopped() && (len = data.read(buffer)) >= 0) {
+            parser.parse(buffer, 0, len);
+        }
+        parser.finish();
+    }
+
+    /**
+     * The <code>NVPairParser</code> decodes <code>&amp;</code> separated
+     * name/value pairs in a single pass over the raw bytes. Escapes are
+     * decoded through a lookup table. The decoded bytes are collected in a
+     * buffer shared by the parameters: the names are created from it
+     * directly, while the values are only decoded on demand.
+     * <p>
+     * The data may be passed in any number of chunks, the state is kept
+     * across calls to the <code>parse</code> methods.
+     * <p>
+     * The limits of the number of parameters and of the sizes of all names
+     * and values of the {@link ParameterMap} are checked for each byte, so
+     * parsing stops as soon as a limit is reached and before decoding the
+     * pair exceeding it.
+     */
+    private static final class NVPairParser {
+
+        private final String encoding;
+
+        private final ParameterMap map;
+
+        private final boolean prependNew;
+
+        // resolved when the first pair is added
+        private Charset charset;
+
+        // decoded names and values of the pairs, shared by the parameters and
+        // replaced (not grown) when full such that the parameters can refer
+        // to it. The value of a pair directly follows its name.
+        private byte[] buffer;
+
+        private int pairStart;
+
+        private int keyLength;
+
+        private int valueLength;
 
-        ByteArrayOutputStream keyBuffer = new ByteArrayOutputStream(256);
-        ByteArrayOutputStream valueBuffer = new ByteArrayOutputStream(256);
-        char[] chCode = new char[2];
+        private int state = BEFORE_NAME;
 
-        int state = BEFORE_NAME;
-        int subState = 0;
+        // first character of an escape sequence or -1 if none read yet
+        private int escape = -1;
 
-        for (int in = data.read(); in >= 0; in = data.read()) {
-            char ch = (char) in;
+        // set when a limit has been reached, the rest of the data is ignored
+        private boolean stopped;
 
+        /**
+         * @param capacity The initial capacity of the buffer, for a query
+         *            string its length is sufficient for all pairs
+         */
+        NVPairParser(final String encoding, final ParameterMap map, final boolean prependNew, final int capacity) {
+            this.encoding = encoding;
+            this.map = map;
+            this.prependNew = prependNew;
+            this.buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        void parse(final String data) throws UnsupportedEncodingException {
+            final int length = data.length();
+            for (int i = 0; i < length && !stopped; i++) {
+                accept(data.charAt(i) & 0xff);
+            }
+        }
+
+        void parse(final byte[] data, final int offset, final int length) throws UnsupportedEncodingException {
+            final int end = offset + length;
+            for (int i = offset; i < end && !stopped; i++) {
+                accept(data[i] & 0xff);
+            }
+        }
+
+        void finish() throws UnsupportedEncodingException {
+            // an incomplete escape sequence at the end is ignored
+            if (keyLength > 0 && !stopped) {
+                addPair();
+            }
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+
+        private void stop(final String limit) {
+            if (!stopped) {
+                LoggerFactory.getLogger(Util.class).warn("{}, stopped processing the name/value pairs", limit);
+                stopped = true;
+            }
+        }
+
+        private void accept(final int ch) throws UnsupportedEncodingException {
             switch (state) {
                 case BEFORE_NAME:
                     if (ch == ' ') {
-                        continue;
+                        return;
+                    } else if (map.isFull()) {
+                        stop("Too many name/value pairs");
+                        return;
                     } else if (ch == '%') {
                         state = ESC_NAME;
-                        subState = 0;
-                    } else if (ch == '+' && !allowSpaces) {
-                        keyBuffer.write(' ');
+                    } else if (ch == '+') {
+                        appendKey(' ');
                         state = INSIDE_NAME;
                     } else {
-                        keyBuffer.write(ch);
+                        appendKey(ch);
                         state = INSIDE_NAME;
                     }
                     break;
                 case INSIDE_NAME:
                     if (ch == '=') {
                         state = BEFORE_VALUE;
-                    } else if (ch == '+' && !allowSpaces) {
-                        keyBuffer.write(' ');
+                    } else if (ch == '+') {
+                        appendKey(' ');
                     } else if (ch == '%') {
                         state = ESC_NAME;
-                        subState = 0;
                     } else if (ch == '&') {
-                        addNVPair(map, keyBuffer, valueBuffer, encoding, prependNew);
+                        addPair();
                         state = BEFORE_NAME;
                     } else {
-                        keyBuffer.write(ch);
+                        appendKey(ch);
                     }
                     break;
                 case ESC_NAME:
-                    chCode[subState++] = ch;
-                    if (subState == chCode.length) {
-                        String code = new String(chCode);
-                        try {
-                            keyBuffer.write(Integer.parseInt(code, 16));
-                        } catch (NumberFormatException e) {
-                            throw new IllegalArgumentException("Bad escape sequence: %" + code);
-                        }
+                    if (escape < 0) {
+                        escape = ch;
+                    } else {
+                        appendKey(decodeEscape(ch));
                         state = INSIDE_NAME;
                     }
                     break;
-                case BEFORE_EQU:
-                    if (ch == '=') {
-                        state = BEFORE_VALUE;
-                    }
-                    break;
                 case BEFORE_VALUE:
                     if (ch == ' ') {
-                        continue;
+                        return;
                     } else if (ch == '%') {
                         state = ESC_VALUE;
-                        subState = 0;
-                    } else if (ch == '+' && !allowSpaces) {
-                        valueBuffer.write(' ');
+                    } else if (ch == '+') {
+                        appendValue(' ');
                         state = INSIDE_VALUE;
-                    } else if (ch == separator) {
-                        addNVPair(map, keyBuffer, valueBuffer, encoding, prependNew);
+                    } else if (ch == '&') {
+                        addPair();
                         state = BEFORE_NAME;
                     } else {
-                        valueBuffer.write(ch);
+                        appendValue(ch);
                         state = INSIDE_VALUE;
                     }
                     break;
                 case INSIDE_VALUE:
-                    if (ch == separator) {
-                        addNVPair(map, keyBuffer, valueBuffer, encoding, prependNew);
+                    if (ch == '&') {
+                        addPair();
                         state = BEFORE_NAME;
-                    } else if (ch == '+' && !allowSpaces) {
-                        valueBuffer.write(' ');
+                    } else if (ch == '+') {
+                        appendValue(' ');
                     } else if (ch == '%') {
                         state = ESC_VALUE;
-                        subState = 0;
                     } else {
-                        valueBuffer.write(ch);
+                        appendValue(ch);
                     }
                     break;
                 case ESC_VALUE:
-                    chCode[subState++] = ch;
-                    if (subState == chCode.length) {
-                        String code = new String(chCode);
-                        try {
-                            valueBuffer.write(Integer.parseInt(code, 16));
-                        } catch (NumberFormatException e) {
-                            throw new IllegalArgumentException("Bad escape sequence: %" + code);
-                        }
+                    if (escape < 0) {
+                        escape = ch;
+                    } else {
+                        appendValue(decodeEscape(ch));
                         state = INSIDE_VALUE;
                     }
                     break;
-                case BEFORE_SEP:
-                    if (ch == separator) {
-                        state = BEFORE_NAME;
-                    }
-                    break;
             }
         }
 
-        if (keyBuffer.size() > 0) {
-            addNVPair(map, keyBuffer, valueBuffer, encoding, prependNew);
+        private int decodeEscape(final int ch) {
+            final int high = HEX_VALUES[escape];
+            final int low = HEX_VALUES[ch];
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Bad escape sequence: %" + (char) escape + (char) ch);
+            }
+            escape = -1;
+            return (high << 4) | low;
+        }
+
+        // names are complete before the first value byte is appended
+        private void appendKey(final int b) {
+            if (map.exceedsMaxNamesSize(keyLength + 1)) {
+                stop("Parameter names too large");
+                return;
+            }
+            ensureCapacity();
+            buffer[pairStart + keyLength++] = (byte) b;
+        }
+
+        private void appendValue(final int b) {
+            if (map.exceedsMaxValuesSize(valueLength + 1)) {
+                stop("Parameter values too large");
+                return;
+            }
+            ensureCapacity();
+            buffer[pairStart + keyLength + valueLength++] = (byte) b;
+        }
+
+        private void ensureCapacity() {
+            final int pairLength = keyLength + valueLength;
+            if (pairStart + pairLength == buffer.length) {
+                // continue in a new buffer, the previous one is still
+                // referred to by the parameters added so far
+                final byte[] next = new byte[Math.max(READ_BUFFER_SIZE, pairLength * 2)];
+                System.arraycopy(buffer, pairStart, next, 0, pairLength);
+                buffer = next;
+                pairStart = 0;
+            }
+        }
+
+        private void addPair() throws UnsupportedEncodingException {
+            if (charset == null) {
+                charset = toCharset(encoding);
+            }
+            // only the name is decoded, the value when it is first used
+            final String name = new String(buffer, pairStart, keyLength, charset);
+            map.addParameter(
+                    new ContainerRequestParameter(name, buffer, pairStart, keyLength, valueLength, encoding),
+                    prependNew,
+                    keyLength,
+                    valueLength);
+            pairStart += keyLength + valueLength;
+            keyLength = 0;
+            valueLength = 0;
+            escape = -1;
         }
     }
 
-    private static void addNVPair(
-            ParameterMap map,
-            ByteArrayOutputStream keyBuffer,
-            ByteArrayOutputStream valueBuffer,
-            String encoding,
-            boolean prependNew)
-            throws UnsupportedEncodingException {
-        final String key = keyBuffer.toString(encoding);
-        final String value = valueBuffer.toString(encoding);
-        map.addParameter(new ContainerRequestParameter(key, value, encoding), prependNew);
-        keyBuffer.reset();
-        valueBuffer.reset();
+    private static Charset toCharset(final String encoding) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            // IllegalCharsetNameException, UnsupportedCharsetException
+            throw new UnsupportedEncodingException(encoding);
+        }
     }
 }
@@ -53,12 +53,14 @@ import org.apache.sling.api.wrappers.JavaxToJakartaRequestWrapper;
 import org.apache.sling.api.wrappers.JavaxToJakartaResponseWrapper;
 import org.apache.sling.api.wrappers.SlingJakartaHttpServletRequestWrapper;
 import org.apache.sling.api.wrappers.SlingJakartaHttpServletResponseWrapper;
+import org.apache.sling.engine.impl.ContentTypeHeaderState;
 import org.apache.sling.engine.impl.SlingJakartaHttpServletRequestImpl;
 import org.apache.sling.engine.impl.SlingJakartaHttpServletResponseImpl;
 import org.apache.sling.engine.impl.SlingMainServlet;
 import org.apache.sling.engine.impl.SlingRequestProcessorImpl;
 import org.apache.sling.engine.impl.adapter.SlingServletRequestAdapter;
 import org.apache.sling.engine.impl.adapter.SlingServletResponseAdapter;
+import org.apache.sling.engine.impl.filter.FilterSelectionCache;
 import org.apache.sling.engine.impl.parameters.ParameterSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -99,6 +101,9 @@ public class RequestData {
 
     private final long startTimestamp;
 
+    /** High resolution start time used to compute the elapsed time in microseconds */
+    private final long startNanos;
+
     /** The original servlet Servlet Request Object */
     private final HttpServletRequest servletRequest;
 
@@ -154,6 +159,16 @@ public class RequestData {
      */
     private DispatchingInfo dispatchingInfo;
 
+    /**
+     * The filter predicate outcomes of this request, created on demand
+     */
+    private FilterSelectionCache filterSelectionCache;
+
+    /**
+     * Whether an include has tried to change the content type header
+     */
+    private ContentTypeHeaderState contentTypeHeaderState = ContentTypeHeaderState.UNSET;
+
     private final boolean disableCheckCompliantGetUserPrincipal;
 
     private static volatile boolean loggedNonCompliantGetUserPrincipalWarning = false;
@@ -176,6 +191,7 @@ public class RequestData {
             boolean checkContentTypeOnInclude,
             boolean disableCheckCompliantGetUserPrincipal) {
         this.startTimestamp = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
 
         this.slingRequestProcessor = slingRequestProcessor;
 
@@ -216,11 +232,12 @@ public class RequestData {
         requestProgressTracker.startTimer("ResourceResolution");
         final SlingJakartaHttpServletRequest request = getSlingRequest();
 
-        StringBuffer requestURL = servletRequest.getRequestURL();
+        // check the request URI which is usually kept by the container
+        // instead of building the request URL for each request
         String path = request.getPathInfo();
-        if (requestURL.indexOf(";") > -1 && !path.contains(";")) {
+        if (servletRequest.getRequestURI().indexOf(';') > -1 && !path.contains(";")) {
             try {
-                final URL rUrl = new URL(requestURL.toString());
+                final URL rUrl = new URL(servletRequest.getRequestURL().toString());
                 final String prefix = request.getContextPath().concat(request.getServletPath());
                 path = rUrl.getPath().substring(prefix.length());
             } catch (final MalformedURLException e) {
@@ -634,9 +651,18 @@ public class RequestData {
             requestData.getRequestProgressTracker().startTimer(timerName);
 
             String prevServletName = requestData.setActiveServletName(name);
+            final long start = System.nanoTime();
             try {
                 servlet.service(request, response);
             } finally {
+                final Resource resource = requestData.getContentData().getResource();
+                requestData
+                        .getSlingRequestProcessor()
+                        .addServletCallData(
+                                name,
+                                resource == null ? null : resource.getResourceType(),
+                                (System.nanoTime() - start) / 1000);
+
                 requestData.setActiveServletName(prevServletName);
                 request.setAttribute(SLING_CURRENT_SERVLET_NAME, oldValue);
                 requestData.getRequestProgressTracker().logTimer(timerName);
@@ -734,6 +760,10 @@ public class RequestData {
         return System.currentTimeMillis() - startTimestamp;
     }
 
+    public long getElapsedTimeUsec() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
     /**
      * Sets the name of the currently active servlet and returns the name of the
      * previously active servlet.
@@ -760,6 +790,27 @@ public class RequestData {
         return activeServletName;
     }
 
+    public ContentTypeHeaderState getContentTypeHeaderState() {
+        return contentTypeHeaderState;
+    }
+
+    public void setContentTypeHeaderState(final ContentTypeHeaderState newState) {
+        this.contentTypeHeaderState = newState;
+    }
+
+    /**
+     * Returns the cache of filter predicate outcomes used by the filter
+     * chains of this request.
+     *
+     * @return the filter selection cache
+     */
+    public FilterSelectionCache getFilterSelectionCache() {
+        if (filterSelectionCache == null) {
+            filterSelectionCache = new FilterSelectionCache();
+        }
+        return filterSelectionCache;
+    }
+
     // ---------- Parameter support -------------------------------------------
 
     public ServletInputStream getInputStream() throws IOException {
@@ -28,22 +28,88 @@ public interface FilterProcessorMBean {
 
     /**
      * Returns the number of invocations collected since last resetting the
-     * statistics.
+     * statistics. Requests for which the filter was not selected are not
+     * counted.
      *
      * @return Get invocation count
      * @see #resetStatistics()
      */
     long getInvocationsCount();
 
+    /**
+     * Returns the number of requests for which the filter was not selected
+     * since last resetting the statistics.
+     *
+     * @return Number of requests skipping the filter
+     * @see #resetStatistics()
+     * @since 1.2
+     */
+    long getSkippedCount();
+
     /**
      * Returns the mean filter invocation time in milliseconds since resetting
-     * the statistics.
+     * the statistics. This is the time spent in the filter itself, excluding
+     * the rest of the filter chain.
      *
      * @return Get mean filter duration
      * @see #resetStatistics()
      */
     double getMeanFilterDurationMsec();
 
+    /**
+     * Returns the median filter invocation time in milliseconds, excluding
+     * the rest of the filter chain. The value is computed from a histogram
+     * with microsecond resolution and a relative error of about 3%.
+     *
+     * @return 50th percentile of the filter duration
+     * @see #resetStatistics()
+     * @since 1.2
+     */
+    double getP50FilterDurationMsec();
+
+    /**
+     * Returns the 99th percentile of the filter invocation time in
+     * milliseconds, excluding the rest of the filter chain.
+     *
+     * @return 99th percentile of the filter duration
+     * @see #getP50FilterDurationMsec()
+     * @since 1.2
+     */
+    double getP99FilterDurationMsec();
+
+    /**
+     * Returns the mean filter invocation time in milliseconds including the
+     * rest of the filter chain, that is the filters called after this filter
+     * and the servlet.
+     *
+     * @return Mean filter duration including the rest of the chain
+     * @see #resetStatistics()
+     * @since 1.2
+     */
+    double getMeanInclusiveFilterDurationMsec();
+
+    /**
+     * Returns the median filter invocation time in milliseconds including the
+     * rest of the filter chain.
+     *
+     * @return 50th percentile of the filter duration including the rest of the
+     *         chain
+     * @see #getMeanInclusiveFilterDurationMsec()
+     * @since 1.2
+     */
+    double getP50InclusiveFilterDurationMsec();
+
+    /**
+     * Returns the 99th percentile of the filter invocation time in
+     * milliseconds including the rest of the filter chain.
+     *
+     * @return 99th percentile of the filter duration including the rest of the
+     *         chain
+     * @see #getMeanInclusiveFilterDurationMsec()
+     * @since 1.2
+     */
+    double getP99InclusiveFilterDurationMsec();
+
     /**
      * Resets all statistics values and restarts from zero.
      */
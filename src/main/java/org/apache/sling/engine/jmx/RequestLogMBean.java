@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.jmx;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * This is the management interface of an asynchronously written request log.
+ * Such a log queues the log entries in a bounded buffer from which a writer
+ * thread writes them to the log destination.
+ *
+ * @since 1.2
+ */
+@ProviderType
+public interface RequestLogMBean {
+
+    /**
+     * Returns the maximum number of log entries waiting to be written.
+     *
+     * @return The capacity of the buffer
+     */
+    int getCapacity();
+
+    /**
+     * Returns the number of log entries currently waiting to be written.
+     *
+     * @return The number of queued log entries
+     */
+    int getQueuedCount();
+
+    /**
+     * Returns the number of log entries written since last resetting the
+     * statistics.
+     *
+     * @return The number of written log entries
+     * @see #resetStatistics()
+     */
+    long getWrittenCount();
+
+    /**
+     * Returns the number of log entries which have been discarded because the
+     * buffer was full since last resetting the statistics. This is always
+     * zero if the overflow policy blocks the request until the entry can be
+     * queued.
+     *
+     * @return The number of dropped log entries
+     * @see #resetStatistics()
+     */
+    long getDroppedCount();
+
+    /**
+     * Returns the number of times a request had to wait for the buffer to
+     * have room for its log entry since last resetting the statistics.
+     *
+     * @return The number of blocked log calls
+     * @see #resetStatistics()
+     */
+    long getBlockedCount();
+
+    /**
+     * Returns the overflow policy applied if the buffer is full, one of
+     * <code>block</code>, <code>drop</code> or <code>count</code>.
+     *
+     * @return The overflow policy
+     */
+    String getOverflowPolicy();
+
+    /**
+     * Resets the written, dropped and blocked counts to zero.
+     */
+    void resetStatistics();
+}
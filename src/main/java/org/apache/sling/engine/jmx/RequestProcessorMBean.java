@@ -72,6 +72,60 @@ public interface RequestProcessorMBean {
      */
     double getStandardDeviationDurationMsec();
 
+    /**
+     * Returns the median request processing time in milliseconds. The value is
+     * computed from a histogram with microsecond resolution and a relative
+     * error of about 3%.
+     *
+     * @return 50th percentile of the request duration
+     * @see #getPercentileWindowMinutes()
+     * @see #resetStatistics()
+     * @since 1.2
+     */
+    double getP50RequestDurationMsec();
+
+    /**
+     * Returns the 90th percentile of the request processing time in
+     * milliseconds.
+     *
+     * @return 90th percentile of the request duration
+     * @see #getP50RequestDurationMsec()
+     * @since 1.2
+     */
+    double getP90RequestDurationMsec();
+
+    /**
+     * Returns the 99th percentile of the request processing time in
+     * milliseconds.
+     *
+     * @return 99th percentile of the request duration
+     * @see #getP50RequestDurationMsec()
+     * @since 1.2
+     */
+    double getP99RequestDurationMsec();
+
+    /**
+     * Returns the 99.9th percentile of the request processing time in
+     * milliseconds.
+     *
+     * @return 99.9th percentile of the request duration
+     * @see #getP50RequestDurationMsec()
+     * @since 1.2
+     */
+    double getP999RequestDurationMsec();
+
+    /**
+     * Returns the number of minutes the request duration percentiles are
+     * computed from. If this is zero, the percentiles are computed from all
+     * requests since last resetting the statistics. Otherwise they are
+     * computed from the requests of the current minute and the given number
+     * of minutes before.
+     *
+     * @return The percentile window in minutes or zero
+     * @since 1.2
+     */
+    int getPercentileWindowMinutes();
+
     /**
      * Returns the maximum peak recursive execution depth since last
      * resetting the statistics.
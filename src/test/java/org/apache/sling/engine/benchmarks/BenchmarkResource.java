@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+
+/**
+ * Immutable resource used by the JMH benchmarks. The {@link #getDepth() depth}
+ * tells the benchmark servlet how deep in the include tree this resource sits.
+ */
+class BenchmarkResource extends AbstractResource {
+
+    private final String path;
+
+    private final String resourceType;
+
+    private final int depth;
+
+    private final ResourceResolver resolver;
+
+    private final ResourceMetadata metadata = new ResourceMetadata();
+
+    BenchmarkResource(
+            final String path,
+            final String resourceType,
+            final String resolutionPathInfo,
+            final int depth,
+            final ResourceResolver resolver) {
+        this.path = path;
+        this.resourceType = resourceType;
+        this.depth = depth;
+        this.resolver = resolver;
+        this.metadata.setResolutionPath(path);
+        this.metadata.setResolutionPathInfo(resolutionPathInfo);
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    @Override
+    public String getResourceSuperType() {
+        return null;
+    }
+
+    @Override
+    public ResourceMetadata getResourceMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public ResourceResolver getResourceResolver() {
+        return resolver;
+    }
+
+    @Override
+    public String toString() {
+        return "BenchmarkResource, path=" + path;
+    }
+}
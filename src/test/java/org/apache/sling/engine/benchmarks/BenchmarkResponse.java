@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.mockito.Mockito;
+
+/**
+ * Minimal container response used by the JMH benchmarks. Output is
+ * discarded, headers are ignored. Like {@link BenchmarkRequest} the methods
+ * used on the hot path are implemented directly.
+ */
+class BenchmarkResponse extends HttpServletResponseWrapper {
+
+    private static final HttpServletResponse FALLBACK =
+            Mockito.mock(HttpServletResponse.class, Mockito.withSettings().stubOnly());
+
+    private static final PrintWriter NULL_WRITER = new PrintWriter(Writer.nullWriter());
+
+    private static final ServletOutputStream NULL_STREAM = new ServletOutputStream() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            // not supported
+        }
+
+        @Override
+        public void write(final int b) {
+            // discard
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            // discard
+        }
+    };
+
+    private int status = SC_OK;
+
+    private String contentType;
+
+    private String characterEncoding;
+
+    BenchmarkResponse() {
+        super(FALLBACK);
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return NULL_WRITER;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return NULL_STREAM;
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(final int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) {
+        this.status = sc;
+    }
+
+    @Override
+    public void setContentType(final String type) {
+        this.contentType = type;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(final String charset) {
+        this.characterEncoding = charset;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public boolean containsHeader(final String name) {
+        return false;
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        // ignored
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        // ignored
+    }
+
+    @Override
+    public void flushBuffer() {
+        // nothing buffered
+    }
+
+    @Override
+    public void reset() {
+        this.status = SC_OK;
+    }
+
+    @Override
+    public void resetBuffer() {
+        // nothing buffered
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.engine.impl.parameters.ContainerRequestParameter;
+import org.apache.sling.engine.impl.parameters.ParameterMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark comparing the {@link ParameterMap} with the previous
+ * implementation based on a {@link LinkedHashMap}, which copied the values
+ * array of a name whenever a value was added and built the string parameter
+ * map as a copy.
+ * <p>
+ * Each invocation adds the parameters and reads the string parameter map, as
+ * done by {@code getParameterMap()}. The parameters either all have distinct
+ * names or share ten names.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParameterMapBenchmark {
+
+    @Param({"1000", "5000"})
+    public int count;
+
+    @Param({"distinct", "repeated"})
+    public String names;
+
+    private RequestParameter[] parameters;
+
+    private MethodHandle addParameter;
+
+    @Setup
+    public void setup() throws Exception {
+        this.parameters = new RequestParameter[count];
+        for (int i = 0; i < count; i++) {
+            final String name = "distinct".equals(names) ? "p" + i : "p" + (i % 10);
+            this.parameters[i] = new ContainerRequestParameter(name, "v" + i, "ISO-8859-1");
+        }
+
+        final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(ParameterMap.class, MethodHandles.lookup());
+        this.addParameter = lookup.findVirtual(
+                ParameterMap.class,
+                "addParameter",
+                MethodType.methodType(void.class, RequestParameter.class, boolean.class));
+    }
+
+    @Benchmark
+    public int compact() throws Throwable {
+        final ParameterMap map = new ParameterMap();
+        for (final RequestParameter parameter : parameters) {
+            addParameter.invokeExact(map, parameter, false);
+        }
+        return read(map.getStringParameterMap());
+    }
+
+    @Benchmark
+    public int legacy() {
+        final LegacyParameterMap map = new LegacyParameterMap();
+        for (final RequestParameter parameter : parameters) {
+            map.addParameter(parameter);
+        }
+        return read(map.getStringParameterMap());
+    }
+
+    private static int read(final Map<String, String[]> map) {
+        int values = 0;
+        for (final String[] value : map.values()) {
+            values += value.length;
+        }
+        return values;
+    }
+
+    /** the parameter map as it was before the compact implementation */
+    private static final class LegacyParameterMap extends LinkedHashMap<String, RequestParameter[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<RequestParameter> requestParameters = new ArrayList<>();
+
+        void addParameter(final RequestParameter parameter) {
+            final String name = parameter.getName();
+            final RequestParameter[] current = this.get(name);
+            if (current == null) {
+                super.put(name, new RequestParameter[] {parameter});
+            } else {
+                final RequestParameter[] ppn = new RequestParameter[current.length + 1];
+                System.arraycopy(current, 0, ppn, 0, current.length);
+                ppn[current.length] = parameter;
+                super.put(name, ppn);
+            }
+            this.requestParameters.add(parameter);
+        }
+
+        Map<String, String[]> getStringParameterMap() {
+            final LinkedHashMap<String, String[]> pm = new LinkedHashMap<>();
+            for (final Map.Entry<String, RequestParameter[]> entry : entrySet()) {
+                final RequestParameter[] params = entry.getValue();
+                final String[] ps = new String[params.length];
+                for (int i = 0; i < params.length; i++) {
+                    ps[i] = params[i].getString();
+                }
+                pm.put(entry.getKey(), ps);
+            }
+            return Collections.unmodifiableMap(pm);
+        }
+    }
+}
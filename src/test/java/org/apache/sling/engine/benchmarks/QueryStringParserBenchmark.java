@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.engine.impl.parameters.ContainerRequestParameter;
+import org.apache.sling.engine.impl.parameters.ParameterMap;
+import org.apache.sling.engine.impl.parameters.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark comparing {@link Util#parseQueryString(String, String,
+ * ParameterMap, boolean)} with the previous implementation, which converted
+ * the query to a byte array, read it byte by byte from an input stream and
+ * decoded escapes through {@link Integer#parseInt(String, int)}.
+ * <p>
+ * The {@code typical} query has a dozen parameters with some escapes, the
+ * {@code adversarial} query has 10000 short parameters.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueryStringParserBenchmark {
+
+    @Param({"typical", "adversarial"})
+    public String query;
+
+    @Param({"ISO-8859-1", "UTF-8"})
+    public String encoding;
+
+    private String queryString;
+
+    private MethodHandle addParameter;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("adversarial".equals(query)) {
+            final StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                if (i > 0) {
+                    buf.append('&');
+                }
+                buf.append('p').append(i).append("=v%20").append(i);
+            }
+            this.queryString = buf.toString();
+        } else {
+            this.queryString = "cmsaction=createPage&templateName=%2Fapps%2Fsite%2Ftemplates%2Fpage"
+                    + "&label=&title=Some+Page+%C3%A4%C3%B6%C3%BC&parentPath=%2Fcontent%2Fsite"
+                    + "&_charset_=utf-8&:redirect=%2Fcontent%2Fsite.html&tags=a&tags=b&tags=c"
+                    + "&description=A+longer+description+of+the+page+to+create&order=last";
+        }
+
+        // the legacy parser adds the parameters through the package private method
+        final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(ParameterMap.class, MethodHandles.lookup());
+        this.addParameter = lookup.findVirtual(
+                ParameterMap.class,
+                "addParameter",
+                MethodType.methodType(void.class, RequestParameter.class, boolean.class));
+    }
+
+    @Benchmark
+    public ParameterMap singlePass() throws IOException {
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString(queryString, encoding, map, false);
+        return map;
+    }
+
+    @Benchmark
+    public ParameterMap legacy() throws Throwable {
+        final ParameterMap map = new ParameterMap();
+        final byte[] data = new byte[queryString.length()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (queryString.charAt(i) & 0xff);
+        }
+        parseLegacy(new ByteArrayInputStream(data), map);
+        return map;
+    }
+
+    /** the byte by byte state machine as it was before the single pass parser */
+    private void parseLegacy(final InputStream data, final ParameterMap map) throws Throwable {
+        final ByteArrayOutputStream keyBuffer = new ByteArrayOutputStream(256);
+        final ByteArrayOutputStream valueBuffer = new ByteArrayOutputStream(256);
+        final char[] chCode = new char[2];
+
+        int state = 0;
+        int subState = 0;
+
+        for (int in = data.read(); in >= 0; in = data.read()) {
+            final char ch = (char) in;
+
+            switch (state) {
+                case 0: // BEFORE_NAME
+                    if (ch == ' ') {
+                        continue;
+                    } else if (ch == '%') {
+                        state = 2;
+                        subState = 0;
+                    } else if (ch == '+') {
+                        keyBuffer.write(' ');
+                        state = 1;
+                    } else {
+                        keyBuffer.write(ch);
+                        state = 1;
+                    }
+                    break;
+                case 1: // INSIDE_NAME
+                    if (ch == '=') {
+                        state = 3;
+                    } else if (ch == '+') {
+                        keyBuffer.write(' ');
+                    } else if (ch == '%') {
+                        state = 2;
+                        subState = 0;
+                    } else if (ch == '&') {
+                        addLegacyPair(map, keyBuffer, valueBuffer);
+                        state = 0;
+                    } else {
+                        keyBuffer.write(ch);
+                    }
+                    break;
+                case 2: // ESC_NAME
+                    chCode[subState++] = ch;
+                    if (subState == chCode.length) {
+                        keyBuffer.write(Integer.parseInt(new String(chCode), 16));
+                        state = 1;
+                    }
+                    break;
+                case 3: // BEFORE_VALUE
+                    if (ch == ' ') {
+                        continue;
+                    } else if (ch == '%') {
+                        state = 5;
+                        subState = 0;
+                    } else if (ch == '+') {
+                        valueBuffer.write(' ');
+                        state = 4;
+                    } else if (ch == '&') {
+                        addLegacyPair(map, keyBuffer, valueBuffer);
+                        state = 0;
+                    } else {
+                        valueBuffer.write(ch);
+                        state = 4;
+                    }
+                    break;
+                case 4: // INSIDE_VALUE
+                    if (ch == '&') {
+                        addLegacyPair(map, keyBuffer, valueBuffer);
+                        state = 0;
+                    } else if (ch == '+') {
+                        valueBuffer.write(' ');
+                    } else if (ch == '%') {
+                        state = 5;
+                        subState = 0;
+                    } else {
+                        valueBuffer.write(ch);
+                    }
+                    break;
+                case 5: // ESC_VALUE
+                    chCode[subState++] = ch;
+                    if (subState == chCode.length) {
+                        valueBuffer.write(Integer.parseInt(new String(chCode), 16));
+                        state = 4;
+                    }
+                    break;
+            }
+        }
+
+        if (keyBuffer.size() > 0) {
+            addLegacyPair(map, keyBuffer, valueBuffer);
+        }
+    }
+
+    private void addLegacyPair(
+            final ParameterMap map, final ByteArrayOutputStream keyBuffer, final ByteArrayOutputStream valueBuffer)
+            throws Throwable {
+        final String key = keyBuffer.toString(encoding);
+        final String value = valueBuffer.toString(encoding);
+        addParameter.invokeExact(map, (RequestParameter) new ContainerRequestParameter(key, value, encoding), false);
+        keyBuffer.reset();
+        valueBuffer.reset();
+    }
+}
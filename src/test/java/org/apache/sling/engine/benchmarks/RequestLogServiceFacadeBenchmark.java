@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.engine.RequestLog;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * JMH benchmark dispatching request log messages to {@link RequestLog}
+ * services registered with a request log name, once through the
+ * <code>RequestLogServiceFacade</code> which keeps a snapshot of the services
+ * and once by calling {@link ServiceTracker#getServices()} for every message
+ * as the facade used to do once the services had changed.
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestLogServiceFacadeBenchmark {
+
+    private static final String LOG_NAME = "benchmark";
+
+    private static final String MESSAGE = "127.0.0.1 - admin 16/Oct/2026:10:00:00 +0000 \"GET / HTTP/1.1\" 200 42";
+
+    /** Number of request log services registered with the benchmark name */
+    @Param({"1", "4"})
+    public int serviceCount;
+
+    private BundleContext bundleContext;
+
+    private RequestLog facade;
+
+    private ServiceTracker<RequestLog, RequestLog> tracker;
+
+    // characters written by the services, returned to prevent dead code elimination
+    private long written;
+
+    @Setup
+    public void setup() throws Exception {
+        this.bundleContext = MockOsgi.newBundleContext();
+        for (int i = 0; i < serviceCount; i++) {
+            final Hashtable<String, Object> props = new Hashtable<>();
+            props.put(RequestLog.REQUEST_LOG_NAME, LOG_NAME);
+            bundleContext.registerService(RequestLog.class, new CountingRequestLog(), props);
+        }
+
+        // the facade is package private, it is only created by the request logger
+        final Constructor<?> constructor = Class.forName("org.apache.sling.engine.impl.log.RequestLogServiceFacade")
+                .getDeclaredConstructor(BundleContext.class, String.class);
+        constructor.setAccessible(true);
+        this.facade = (RequestLog) constructor.newInstance(bundleContext, LOG_NAME);
+
+        this.tracker = new ServiceTracker<>(
+                bundleContext,
+                bundleContext.createFilter("(&(objectClass=" + RequestLog.class.getName() + ")("
+                        + RequestLog.REQUEST_LOG_NAME + "=" + LOG_NAME + "))"),
+                null);
+        this.tracker.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.facade.close();
+        this.tracker.close();
+        MockOsgi.shutdown(bundleContext);
+    }
+
+    @Benchmark
+    public long snapshot() {
+        facade.write(MESSAGE);
+        return written;
+    }
+
+    @Benchmark
+    public long getServices() {
+        final Object[] loggers = tracker.getServices();
+        if (loggers != null) {
+            for (final Object logger : loggers) {
+                ((RequestLog) logger).write(MESSAGE);
+            }
+        }
+        return written;
+    }
+
+    private final class CountingRequestLog implements RequestLog {
+
+        @Override
+        public void write(final String message) {
+            written += message.length();
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.auth.core.AuthenticationSupport;
+import org.apache.sling.engine.impl.SlingMainServlet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark driving {@link SlingMainServlet#service} concurrently from a
+ * pool of platform threads or from virtual threads, with and without
+ * renaming the request threads.
+ * <p>
+ * The container is not part of the benchmark: instead of a servlet
+ * container's (virtual) thread pool, each invocation submits a batch of
+ * requests to an {@link ExecutorService} and waits for all of them. Virtual
+ * threads require Java 21 or later, on older runtimes the {@code virtual}
+ * executor fails to set up.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SlingMainServletBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final int PLATFORM_THREADS = 16;
+
+    @Param({"platform", "virtual"})
+    public String executor;
+
+    @Param({"true", "false"})
+    public boolean renameThreads;
+
+    private final SlingRequestProcessorBenchmark requestProcessor = new SlingRequestProcessorBenchmark();
+
+    private SlingMainServlet servlet;
+
+    private ExecutorService executorService;
+
+    @Setup
+    public void setup() throws Exception {
+        requestProcessor.filterCount = 10;
+        requestProcessor.includeDepth = 2;
+        requestProcessor.parameterCount = 5;
+        requestProcessor.setup();
+
+        this.servlet = new SlingMainServlet();
+        setField("requestProcessorImpl", requestProcessor.getProcessor());
+        setField("renameThreads", renameThreads);
+
+        if ("virtual".equals(executor)) {
+            try {
+                this.executorService = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (final NoSuchMethodException nsme) {
+                throw new IllegalStateException("Virtual threads require Java 21 or later", nsme);
+            }
+        } else {
+            this.executorService = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executorService.shutdown();
+        executorService.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int throughput() throws Exception {
+        final List<Callable<Integer>> requests = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            requests.add(this::processRequest);
+        }
+        int status = 0;
+        for (final Future<Integer> result : executorService.invokeAll(requests)) {
+            status += result.get();
+        }
+        return status;
+    }
+
+    private int processRequest() throws Exception {
+        final BenchmarkRequest request = requestProcessor.newRequest();
+        request.setAttribute(AuthenticationSupport.REQUEST_ATTRIBUTE_RESOLVER, requestProcessor.getResourceResolver());
+        final BenchmarkResponse response = new BenchmarkResponse();
+        servlet.service(request, response);
+        return response.getStatus();
+    }
+
+    private void setField(final String name, final Object value) throws Exception {
+        final Field field = SlingMainServlet.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(servlet, value);
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.GenericServlet;
+import jakarta.servlet.Servlet;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.ServletResolver;
+import org.apache.sling.engine.EngineConstants;
+import org.apache.sling.engine.impl.RequestProcessorMBeanImpl;
+import org.apache.sling.engine.impl.SlingRequestProcessorImpl;
+import org.apache.sling.engine.impl.filter.FilterPredicate;
+import org.apache.sling.engine.impl.filter.ServletFilterManager;
+import org.apache.sling.engine.impl.filter.ServletFilterManager.FilterChainType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.ServiceReference;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * JMH benchmark driving {@link SlingRequestProcessorImpl#doProcessRequest} end
+ * to end: resource resolution, servlet resolution, request and component
+ * filter chains, parameter parsing, includes and the request statistics.
+ * <p>
+ * Run with {@code mvn verify -Pbenchmarks}; the profile enables the
+ * {@code gc} profiler so the allocation rate per request is reported next to
+ * the throughput and the latency percentiles.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SlingRequestProcessorBenchmark {
+
+    private static final String PATH = "/content/benchmark/page";
+
+    private static final String RESOURCE_TYPE = "benchmark/page";
+
+    /** Number of filters, split evenly between the request and component chain */
+    @Param({"0", "10", "40"})
+    public int filterCount;
+
+    /** Number of nested includes rendered by the servlet */
+    @Param({"0", "5"})
+    public int includeDepth;
+
+    /** Number of query parameters, all of which are read by the servlet */
+    @Param({"0", "20"})
+    public int parameterCount;
+
+    private SlingRequestProcessorImpl processor;
+
+    private ResourceResolver resourceResolver;
+
+    private String queryString;
+
+    @Setup
+    public void setup() throws Exception {
+        final BenchmarkResource[] resources = new BenchmarkResource[includeDepth + 1];
+        this.resourceResolver = newResourceResolver(resources);
+        resources[0] = new BenchmarkResource(PATH, RESOURCE_TYPE, ".html", 0, resourceResolver);
+        for (int i = 1; i < resources.length; i++) {
+            resources[i] = new BenchmarkResource(
+                    resources[i - 1].getPath() + "/c" + i, "benchmark/component", null, i, resourceResolver);
+        }
+
+        final String[] parameterNames = new String[parameterCount];
+        final StringBuilder query = new StringBuilder();
+        for (int i = 0; i < parameterCount; i++) {
+            parameterNames[i] = "p" + i;
+            if (i > 0) {
+                query.append('&');
+            }
+            query.append(parameterNames[i]).append("=value%20").append(i);
+        }
+        this.queryString = parameterCount > 0 ? query.toString() : null;
+
+        final ServletFilterManager filterManager = new ServletFilterManager(mock(ServletContext.class));
+        addFilters(filterManager);
+
+        this.processor = new SlingRequestProcessorImpl();
+        setField("servletResolver", new BenchmarkServletResolver(new BenchmarkServlet(resources, parameterNames)));
+        setField("filterManager", filterManager);
+        setField("mbean", new RequestProcessorMBeanImpl());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int throughput() throws IOException {
+        return processRequest();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int latency() throws IOException {
+        return processRequest();
+    }
+
+    private int processRequest() throws IOException {
+        final BenchmarkResponse response = new BenchmarkResponse();
+        processor.doProcessRequest(newRequest(), response, resourceResolver);
+        return response.getStatus();
+    }
+
+    SlingRequestProcessorImpl getProcessor() {
+        return processor;
+    }
+
+    ResourceResolver getResourceResolver() {
+        return resourceResolver;
+    }
+
+    BenchmarkRequest newRequest() {
+        return new BenchmarkRequest("GET", PATH + ".html", queryString);
+    }
+
+    /**
+     * Registers {@link #filterCount} pass-through filters. Every second filter
+     * has a predicate which does not match the request so that filter
+     * selection is exercised as well.
+     */
+    @SuppressWarnings("unchecked")
+    private void addFilters(final ServletFilterManager filterManager) {
+        final ServiceReference<Filter> nonMatching = mock(ServiceReference.class);
+        when(nonMatching.getProperty(EngineConstants.SLING_FILTER_EXTENSIONS)).thenReturn(new String[] {"json"});
+        final FilterPredicate predicate = new FilterPredicate(nonMatching);
+
+        for (int i = 0; i < filterCount; i++) {
+            final Filter filter = new PassThroughFilter();
+            final FilterPredicate filterPredicate = (i % 2 == 0) ? null : predicate;
+            if (i < filterCount / 2) {
+                filterManager
+                        .getFilterChain(FilterChainType.REQUEST)
+                        .addFilter(filter, null, filterPredicate, i, i, "benchmark", null);
+            } else {
+                for (final FilterChainType type :
+                        new FilterChainType[] {FilterChainType.COMPONENT, FilterChainType.INCLUDE}) {
+                    filterManager
+                            .getFilterChain(type)
+                            .addFilter(filter, null, filterPredicate, i, i, "benchmark", null);
+                }
+            }
+        }
+    }
+
+    private void setField(final String name, final Object value) throws Exception {
+        final Field field = SlingRequestProcessorImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(processor, value);
+    }
+
+    /**
+     * Returns a resource resolver resolving every request to the first of the
+     * given resources. A dynamic proxy is used instead of a Mockito mock to
+     * keep the mocking overhead out of the measured allocation rate.
+     */
+    private static ResourceResolver newResourceResolver(final Resource[] resources) {
+        return (ResourceResolver) Proxy.newProxyInstance(
+                SlingRequestProcessorBenchmark.class.getClassLoader(),
+                new Class<?>[] {ResourceResolver.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "resolve":
+                            return resources[0];
+                        case "isResourceType":
+                            return ((Resource) args[0]).getResourceType().equals(args[1]);
+                        case "isLive":
+                            return Boolean.TRUE;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "BenchmarkResourceResolver";
+                        default:
+                            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                    }
+                });
+    }
+
+    private static final class PassThroughFilter implements Filter {
+
+        @Override
+        public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+                throws IOException, ServletException {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * Servlet reading all request parameters, writing a bit of markup and
+     * including the resource at the next depth, if any.
+     */
+    @SuppressWarnings("serial")
+    private static final class BenchmarkServlet extends GenericServlet {
+
+        private final BenchmarkResource[] resources;
+
+        private final String[] parameterNames;
+
+        BenchmarkServlet(final BenchmarkResource[] resources, final String[] parameterNames) {
+            this.resources = resources;
+            this.parameterNames = parameterNames;
+        }
+
+        @Override
+        public void service(final ServletRequest req, final ServletResponse res) throws ServletException, IOException {
+            final SlingJakartaHttpServletRequest request = (SlingJakartaHttpServletRequest) req;
+            for (final String name : parameterNames) {
+                if (request.getParameter(name) == null) {
+                    throw new ServletException("Missing parameter " + name);
+                }
+            }
+
+            final Resource resource = request.getResource();
+            final int depth = (resource instanceof BenchmarkResource) ? ((BenchmarkResource) resource).getDepth() : 0;
+
+            res.getWriter().write("<div>");
+            if (depth + 1 < resources.length) {
+                request.getRequestDispatcher(resources[depth + 1]).include(req, res);
+            }
+            res.getWriter().write("</div>");
+        }
+    }
+
+    private static final class BenchmarkServletResolver implements ServletResolver {
+
+        private final Servlet servlet;
+
+        BenchmarkServletResolver(final Servlet servlet) {
+            this.servlet = servlet;
+        }
+
+        @Override
+        public Servlet resolve(final SlingJakartaHttpServletRequest request) {
+            return servlet;
+        }
+
+        @Override
+        public Servlet resolve(final Resource resource, final String scriptName) {
+            return servlet;
+        }
+
+        @Override
+        public Servlet resolve(final ResourceResolver resolver, final String scriptName) {
+            return servlet;
+        }
+
+        @Override
+        public javax.servlet.Servlet resolveServlet(final SlingHttpServletRequest request) {
+            return null;
+        }
+
+        @Override
+        public javax.servlet.Servlet resolveServlet(final Resource resource, final String scriptName) {
+            return null;
+        }
+
+        @Override
+        public javax.servlet.Servlet resolveServlet(final ResourceResolver resolver, final String scriptName) {
+            return null;
+        }
+    }
+}
@@ -18,9 +18,15 @@
  */
 package org.apache.sling.engine.impl;
 
+import javax.management.MBeanInfo;
 import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeData;
 
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.math.stat.descriptive.SummaryStatistics;
 import org.apache.sling.engine.impl.request.RequestData;
@@ -186,6 +192,104 @@ public class RequestProcessorMBeanImplTest {
                 0d);
     }
 
+    @Test
+    public void test_concurrent_statistics() throws Exception {
+        final RequestProcessorMBeanImpl bean = new RequestProcessorMBeanImpl();
+        final int threads = 8;
+        final int perThread = 5000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                final long durationValue = t + 1;
+                final RequestData requestData = Mockito.mock(RequestData.class, "requestData" + t);
+                Mockito.when(requestData.getElapsedTimeMsec()).thenReturn(durationValue);
+                Mockito.when(requestData.getServletCallCount()).thenReturn(2);
+                Mockito.when(requestData.getPeakRecusionDepth()).thenReturn(3);
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        bean.addRequestData(requestData);
+                    }
+                });
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // every thread contributed perThread requests with duration t + 1
+        assertEquals(threads * perThread, bean.getRequestsCount());
+        assertEquals(1, bean.getMinRequestDurationMsec());
+        assertEquals(threads, bean.getMaxRequestDurationMsec());
+        assertEquals((threads + 1) / 2.0, bean.getMeanRequestDurationMsec(), 1e-9);
+        assertEquals(2, bean.getMinServletCallCount());
+        assertEquals(2, bean.getMaxServletCallCount());
+        assertEquals(0.0, bean.getStandardDeviationServletCallCount(), 1e-9);
+        assertEquals(3, bean.getMaxPeakRecursionDepth());
+        assertEquals(3.0, bean.getMeanPeakRecursionDepth(), 1e-9);
+    }
+
+    @Test
+    public void test_percentiles() throws NotCompliantMBeanException {
+        final RequestProcessorMBeanImpl bean = new RequestProcessorMBeanImpl();
+        assertEquals(0, bean.getPercentileWindowMinutes());
+        assertEquals(0.0, bean.getP99RequestDurationMsec(), 0);
+
+        // 1000 requests taking 1ms to 1000ms
+        for (int i = 1; i <= 1000; i++) {
+            final RequestData requestData = Mockito.mock(RequestData.class, "requestData" + i);
+            Mockito.when(requestData.getElapsedTimeUsec()).thenReturn(i * 1000L);
+            bean.addRequestData(requestData);
+        }
+
+        assertEquals(500, bean.getP50RequestDurationMsec(), 500 * 0.03);
+        assertEquals(900, bean.getP90RequestDurationMsec(), 900 * 0.03);
+        assertEquals(990, bean.getP99RequestDurationMsec(), 990 * 0.03);
+        assertEquals(999, bean.getP999RequestDurationMsec(), 999 * 0.03);
+
+        // all requests have been recorded in the current minute
+        final Config config = Mockito.mock(Config.class);
+        Mockito.when(config.sling_statistics_percentile_window()).thenReturn(60);
+        bean.configure(config);
+        assertEquals(15, bean.getPercentileWindowMinutes());
+        assertEquals(990, bean.getP99RequestDurationMsec(), 990 * 0.03);
+
+        bean.resetStatistics();
+        assertEquals(0.0, bean.getP99RequestDurationMsec(), 0);
+    }
+
+    @Test
+    public void test_servlet_call_breakdown() throws Exception {
+        final RequestProcessorMBeanImpl bean = new RequestProcessorMBeanImpl();
+        bean.addServletCallData("servlet1", "type/a", 1000);
+        bean.addServletCallData("servlet1", "type/b", 3000);
+        bean.addServletCallData("servlet2", null, 5000);
+
+        final KeyedStatisticsMBean servlets = new KeyedStatisticsMBean("servlets", bean.getServletStatistics());
+        final MBeanInfo info = servlets.getMBeanInfo();
+        assertEquals(2, info.getAttributes().length);
+        assertEquals("servlet1", info.getAttributes()[0].getName());
+
+        final CompositeData servlet1 = (CompositeData) servlets.getAttribute("servlet1");
+        assertEquals(2L, servlet1.get("count"));
+        assertEquals(4.0, servlet1.get("totalDurationMsec"));
+        assertEquals(2.0, servlet1.get("meanDurationMsec"));
+        assertEquals(1.0, servlet1.get("minDurationMsec"));
+        assertEquals(3.0, servlet1.get("maxDurationMsec"));
+
+        final KeyedStatisticsMBean resourceTypes =
+                new KeyedStatisticsMBean("resource types", bean.getResourceTypeStatistics());
+        assertEquals(2, resourceTypes.getMBeanInfo().getAttributes().length);
+        assertEquals(1L, ((CompositeData) resourceTypes.getAttribute("type/b")).get("count"));
+
+        servlets.invoke("resetStatistics", null, null);
+        assertEquals(0, servlets.getMBeanInfo().getAttributes().length);
+        assertEquals(2, resourceTypes.getMBeanInfo().getAttributes().length);
+    }
+
     private void assertAlmostEqual(final String message, final double v1, final double v2, int samples) {
         final double centi = v1 / samples;
         if (v2 < (v1 - centi) || v2 > (v1 + centi)) {
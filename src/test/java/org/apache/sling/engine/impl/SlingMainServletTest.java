@@ -18,23 +18,44 @@
  */
 package org.apache.sling.engine.impl;
 
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Servlet;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.ServletResolver;
+import org.apache.sling.auth.core.AuthenticationSupport;
+import org.apache.sling.engine.impl.filter.ServletFilterManager;
 import org.apache.sling.testing.mock.osgi.junit.OsgiContext;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.servlet.whiteboard.HttpWhiteboardConstants;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -51,8 +72,16 @@ public class SlingMainServletTest {
 
     private SlingMainServlet servlet;
 
+    private RequestProcessorMBeanImpl mbean;
+
+    @Mock
+    private Servlet resolvedServlet;
+
+    // the names of the threads the resolved servlet has been called on
+    private final List<String> threadNames = new ArrayList<>();
+
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
         MockitoAnnotations.openMocks(this);
 
         // Provide mandatory ProductInfoProvider reference (mock is sufficient for activation)
@@ -63,8 +92,17 @@ public class SlingMainServletTest {
         props.put("name", SlingHttpContext.SERVLET_CONTEXT_NAME);
         osgiContext.bundleContext().registerService(ServletContext.class, Mockito.mock(ServletContext.class), props);
 
-        // Satisfy mandatory reference to SlingRequestProcessorImpl
-        osgiContext.registerService(SlingRequestProcessorImpl.class, Mockito.mock(SlingRequestProcessorImpl.class));
+        // Process requests with the real request processor, resolving a mock servlet
+        Mockito.doAnswer(invocation -> threadNames.add(Thread.currentThread().getName()))
+                .when(resolvedServlet)
+                .service(any(), any());
+        final ServletResolver servletResolver = Mockito.mock(ServletResolver.class);
+        when(servletResolver.resolve(any(SlingJakartaHttpServletRequest.class))).thenReturn(resolvedServlet);
+        osgiContext.registerService(ServletResolver.class, servletResolver);
+        osgiContext.registerService(
+                ServletFilterManager.class, new ServletFilterManager(Mockito.mock(ServletContext.class)));
+        mbean = osgiContext.registerService(RequestProcessorMBeanImpl.class, new RequestProcessorMBeanImpl());
+        osgiContext.registerInjectActivateService(SlingRequestProcessorImpl.class);
 
         // Activate SlingMainServlet with OSGi config
         Map<String, Object> cfg = new HashMap<>();
@@ -83,4 +121,109 @@ public class SlingMainServletTest {
         verify(response, times(1)).setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
         verify(response, times(1)).setHeader("Allow", "GET, HEAD, POST, PUT, DELETE, OPTIONS");
     }
+
+    @Test
+    public void testRegisteredAsyncSupported() {
+        final ServiceReference<Servlet> ref = osgiContext.bundleContext().getServiceReference(Servlet.class);
+        assertEquals(Boolean.TRUE, ref.getProperty(HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED));
+    }
+
+    @Test
+    public void testSynchronousRequestEndsWithService() throws Exception {
+        final ResourceResolver resolver = mockRequest();
+
+        servlet.service(request, response);
+
+        // the request is ended and recorded right away, as before
+        verify(resolver, times(1)).close();
+        verify(request, never()).getAsyncContext();
+        assertEquals(1, mbean.getRequestsCount());
+    }
+
+    @Test
+    public void testAsyncRequestEndsOnceOnComplete() throws Exception {
+        final ResourceResolver resolver = mockRequest();
+        final AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+        when(request.isAsyncStarted()).thenReturn(true);
+        when(request.getAsyncContext()).thenReturn(asyncContext);
+
+        servlet.service(request, response);
+
+        // the processing is recorded, but the resolver is still in use
+        assertEquals(1, mbean.getRequestsCount());
+        verify(resolver, never()).close();
+        final ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+
+        // restarting the asynchronous processing keeps the listener
+        final AsyncEvent event = new AsyncEvent(asyncContext, request, response);
+        listener.getValue().onStartAsync(event);
+        verify(asyncContext, times(2)).addListener(listener.getValue());
+
+        listener.getValue().onTimeout(event);
+        verify(resolver, never()).close();
+        listener.getValue().onComplete(event);
+        listener.getValue().onComplete(event);
+        verify(resolver, times(1)).close();
+        assertEquals(1, mbean.getRequestsCount());
+    }
+
+    @Test
+    public void testThreadRenamedDuringProcessing() throws Exception {
+        mockRequest();
+        final String name = Thread.currentThread().getName();
+
+        servlet.service(request, response);
+
+        final String processingName = getProcessingThreadName();
+        assertTrue(processingName, processingName.startsWith("127.0.0.1 ["));
+        assertTrue(processingName, processingName.endsWith("] GET /content/page.html HTTP/1.1"));
+        assertEquals(name, Thread.currentThread().getName());
+    }
+
+    @Test
+    public void testThreadNotRenamedIfDisabled() throws Exception {
+        final Map<String, Object> cfg = new HashMap<>();
+        cfg.put("sling.thread.rename", false);
+        cfg.put("servlet.name", "test-servlet");
+        final SlingMainServlet notRenaming = osgiContext.registerInjectActivateService(new SlingMainServlet(), cfg);
+        mockRequest();
+        final String name = Thread.currentThread().getName();
+
+        notRenaming.service(request, response);
+
+        assertEquals(name, getProcessingThreadName());
+        assertEquals(name, Thread.currentThread().getName());
+    }
+
+    @Test
+    public void testPlatformThreadIsNotVirtual() {
+        assertFalse(SlingMainServlet.isVirtual(Thread.currentThread()));
+    }
+
+    private String getProcessingThreadName() {
+        assertEquals(1, threadNames.size());
+        return threadNames.get(0);
+    }
+
+    private ResourceResolver mockRequest() {
+        final Resource resource = Mockito.mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content/page");
+        when(resource.getResourceType()).thenReturn("app/page");
+        when(resource.getResourceMetadata()).thenReturn(new ResourceMetadata());
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        when(resolver.resolve(any(HttpServletRequest.class), Mockito.eq("/content/page.html")))
+                .thenReturn(resource);
+
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getRequestURI()).thenReturn("/content/page.html");
+        when(request.getPathInfo()).thenReturn("/content/page.html");
+        when(request.getServletPath()).thenReturn("");
+        when(request.getContextPath()).thenReturn("");
+        when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+        when(request.getProtocol()).thenReturn("HTTP/1.1");
+        when(request.getAttribute(AuthenticationSupport.REQUEST_ATTRIBUTE_RESOLVER))
+                .thenReturn(resolver);
+        return resolver;
+    }
 }
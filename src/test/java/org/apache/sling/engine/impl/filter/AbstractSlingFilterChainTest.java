@@ -30,11 +30,16 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.api.SlingJakartaHttpServletResponse;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.wrappers.SlingJakartaHttpServletRequestWrapper;
 import org.apache.sling.engine.impl.SlingJakartaHttpServletRequestImpl;
 import org.apache.sling.engine.impl.SlingRequestProcessorImpl;
 import org.apache.sling.engine.impl.request.RequestData;
+import org.jmock.Expectations;
 import org.junit.Test;
 
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_EXTENSIONS;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class AbstractSlingFilterChainTest extends AbstractFilterTest {
@@ -75,4 +80,171 @@ public class AbstractSlingFilterChainTest extends AbstractFilterTest {
         }
         assertTrue("an illegal state exception should have been caught", illegalStateCaught);
     }
+
+    @Test
+    public void testFilterStatistics() throws Exception {
+        final Filter passThrough = new Filter() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                    throws IOException, ServletException {
+                chain.doFilter(request, response);
+            }
+        };
+        final FilterProcessorMBeanImpl first = new FilterProcessorMBeanImpl();
+        final FilterProcessorMBeanImpl skipped = new FilterProcessorMBeanImpl();
+        final FilterProcessorMBeanImpl last = new FilterProcessorMBeanImpl();
+        final FilterHandle[] handles = {
+            new FilterHandle(passThrough, null, null, 1, 3, null, first),
+            new FilterHandle(passThrough, null, null, 2, 2, null, skipped) {
+                @Override
+                boolean select(SlingJakartaHttpServletRequest slingHttpServletRequest, FilterSelectionCache cache) {
+                    return false;
+                }
+            },
+            new FilterHandle(passThrough, null, null, 3, 1, null, last)
+        };
+
+        HttpServletRequest httpReq = whateverRequest();
+        final RequestData requestData = new RequestData(
+                new SlingRequestProcessorImpl(), httpReq, context.mock(HttpServletResponse.class), false, false, true);
+        final SlingJakartaHttpServletRequestImpl req = new SlingJakartaHttpServletRequestImpl(requestData, httpReq);
+        for (int i = 0; i < 3; i++) {
+            new AbstractSlingFilterChain(handles) {
+                @Override
+                protected void render(SlingJakartaHttpServletRequest request, SlingJakartaHttpServletResponse response)
+                        throws IOException, ServletException {}
+            }.doFilter(req, context.mock(SlingJakartaHttpServletResponse.class, "response" + i));
+        }
+
+        // the first filter of the chain is timed as well
+        assertEquals(3, first.getInvocationsCount());
+        assertEquals(0, first.getSkippedCount());
+        assertTrue(first.getMeanInclusiveFilterDurationMsec() >= first.getMeanFilterDurationMsec());
+        assertTrue(first.getP99InclusiveFilterDurationMsec() >= first.getP50InclusiveFilterDurationMsec());
+
+        assertEquals(0, skipped.getInvocationsCount());
+        assertEquals(3, skipped.getSkippedCount());
+
+        assertEquals(3, last.getInvocationsCount());
+
+        first.resetStatistics();
+        assertEquals(0, first.getInvocationsCount());
+        assertEquals(0.0, first.getP99FilterDurationMsec(), 0);
+    }
+
+    @Test
+    public void testManySkippedFilters() throws Exception {
+        final FilterProcessorMBeanImpl skipped = new FilterProcessorMBeanImpl();
+        final FilterHandle[] handles = new FilterHandle[100000];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = new FilterHandle(null, null, null, i, -i, null, skipped) {
+                @Override
+                boolean select(SlingJakartaHttpServletRequest slingHttpServletRequest, FilterSelectionCache cache) {
+                    return false;
+                }
+            };
+        }
+        final int[] renderCalls = new int[1];
+        final AbstractSlingFilterChain chain = new AbstractSlingFilterChain(handles) {
+            @Override
+            protected void render(SlingJakartaHttpServletRequest request, SlingJakartaHttpServletResponse response)
+                    throws IOException, ServletException {
+                renderCalls[0]++;
+            }
+        };
+
+        HttpServletRequest httpReq = whateverRequest();
+        final RequestData requestData = new RequestData(
+                new SlingRequestProcessorImpl(), httpReq, context.mock(HttpServletResponse.class), false, false, true);
+        final SlingJakartaHttpServletRequestImpl req = new SlingJakartaHttpServletRequestImpl(requestData, httpReq);
+
+        // skipping filters must not take a stack frame per filter
+        chain.doFilter(req, context.mock(SlingJakartaHttpServletResponse.class));
+        assertEquals(1, renderCalls[0]);
+        assertEquals(handles.length, skipped.getSkippedCount());
+        assertEquals(0, skipped.getInvocationsCount());
+    }
+
+    @Test
+    public void testIndexedFiltersWithWrappedRequest() throws Exception {
+        HttpServletRequest httpReq = whateverRequest();
+        final RequestData requestData = new RequestData(
+                new SlingRequestProcessorImpl(), httpReq, context.mock(HttpServletResponse.class), false, false, true);
+        final SlingJakartaHttpServletRequest html =
+                withRequestPathInfo(new SlingJakartaHttpServletRequestImpl(requestData, httpReq), "html");
+        final SlingJakartaHttpServletRequest json = withRequestPathInfo(html, "json");
+
+        final FilterProcessorMBeanImpl jsonFilter = new FilterProcessorMBeanImpl();
+        final FilterProcessorMBeanImpl txtFilter = new FilterProcessorMBeanImpl();
+        final Filter wrapping = new Filter() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                    throws IOException, ServletException {
+                chain.doFilter(json, response);
+            }
+        };
+        final Filter passThrough = new Filter() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                    throws IOException, ServletException {
+                chain.doFilter(request, response);
+            }
+        };
+        final FilterHandle first = new FilterHandle(passThrough, null, null, 1, 4, null, null);
+        final FilterHandle wrapper = new FilterHandle(wrapping, null, null, 2, 3, null, null);
+        final FilterHandle[] handles = {
+            first,
+            new FilterHandle(passThrough, null, predicate(SLING_FILTER_EXTENSIONS, "txt"), 3, 2, null, txtFilter),
+            wrapper,
+            new FilterHandle(passThrough, null, predicate(SLING_FILTER_EXTENSIONS, "json"), 4, 1, null, jsonFilter)
+        };
+        final FilterSelectionIndex index = new FilterSelectionIndex(handles);
+
+        // the json filter is left out by the index for the html request ...
+        new AbstractSlingFilterChain(index) {
+            @Override
+            protected void render(SlingJakartaHttpServletRequest request, SlingJakartaHttpServletResponse response)
+                    throws IOException, ServletException {}
+        }.doFilter(html, context.mock(SlingJakartaHttpServletResponse.class));
+
+        // ... but selected for the json request passed on by the wrapper
+        assertEquals(1, jsonFilter.getInvocationsCount());
+        assertEquals(0, jsonFilter.getSkippedCount());
+
+        // filters left out by the index count as skipped
+        assertEquals(0, txtFilter.getInvocationsCount());
+        assertEquals(1, txtFilter.getSkippedCount());
+        assertEquals(1, first.getCalls());
+        assertEquals(1, wrapper.getCalls());
+    }
+
+    private SlingJakartaHttpServletRequest withRequestPathInfo(
+            final SlingJakartaHttpServletRequest request, final String extension) {
+        final RequestPathInfo info = context.mock(RequestPathInfo.class, "info " + extension);
+        context.checking(new Expectations() {
+            {
+                allowing(info).getExtension();
+                will(returnValue(extension));
+                allowing(info).getSelectors();
+                will(returnValue(new String[0]));
+                allowing(info).getSelectorString();
+                will(returnValue(null));
+                allowing(info).getSuffix();
+                will(returnValue(null));
+                allowing(info).getResourcePath();
+                will(returnValue("/content/test"));
+            }
+        });
+        return new SlingJakartaHttpServletRequestWrapper(request) {
+            @Override
+            public RequestPathInfo getRequestPathInfo() {
+                return info;
+            }
+
+            @Override
+            public String getMethod() {
+                return "GET";
+            }
+        };
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.filter;
+
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.junit.Test;
+
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_EXTENSIONS;
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_RESOURCE_PATTERN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FilterSelectionCacheTest extends AbstractFilterTest {
+
+    private int tests;
+
+    private SlingJakartaHttpServletRequest request(final String path, final String extension, final String type) {
+        final RequestPathInfo info = mock(RequestPathInfo.class);
+        when(info.getResourcePath()).thenReturn(path);
+        when(info.getExtension()).thenReturn(extension);
+        when(info.getSelectors()).thenReturn(new String[0]);
+        final Resource resource = mock(Resource.class);
+        when(resource.getResourceType()).thenReturn(type);
+        final SlingJakartaHttpServletRequest request = mock(SlingJakartaHttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn(path + "." + extension);
+        when(request.getRequestPathInfo()).thenReturn(info);
+        when(request.getResource()).thenReturn(resource);
+        return request;
+    }
+
+    @Test
+    public void testOutcomesAreMemoizedPerShape() {
+        final FilterPredicate predicate = new FilterPredicate(mockService(SLING_FILTER_EXTENSIONS, "html")) {
+            @Override
+            boolean testShape(final SlingJakartaHttpServletRequest req) {
+                tests++;
+                return super.testShape(req);
+            }
+        };
+        final FilterSelectionCache cache = new FilterSelectionCache();
+
+        final SlingJakartaHttpServletRequest page = request("/content/page", "html", "app/page");
+        assertTrue(cache.test(predicate, page));
+        assertTrue(cache.test(predicate, page));
+        assertEquals(1, tests);
+
+        // another include of the same shape
+        assertTrue(cache.test(predicate, request("/content/page", "html", "app/page")));
+        assertEquals(1, tests);
+
+        // different shapes
+        assertFalse(cache.test(predicate, request("/content/page", "json", "app/page")));
+        assertTrue(cache.test(predicate, request("/content/page", "html", "app/other")));
+        assertEquals(3, tests);
+    }
+
+    @Test
+    public void testOutcomesAreSharedAcrossPaths() {
+        final FilterPredicate predicate = new FilterPredicate(mockService(SLING_FILTER_EXTENSIONS, "html")) {
+            @Override
+            boolean testShape(final SlingJakartaHttpServletRequest req) {
+                tests++;
+                return super.testShape(req);
+            }
+        };
+        final FilterSelectionCache cache = new FilterSelectionCache();
+
+        // includes of different resources of the same type
+        assertTrue(cache.test(predicate, request("/content/page/a", "html", "app/teaser")));
+        assertTrue(cache.test(predicate, request("/content/page/b", "html", "app/teaser")));
+        assertEquals(1, tests);
+    }
+
+    @Test
+    public void testPathConditionsAreNotCached() {
+        final FilterPredicate predicate =
+                new FilterPredicate(mockService(SLING_FILTER_RESOURCE_PATTERN, "/content/page/a")) {
+                    @Override
+                    boolean testShape(final SlingJakartaHttpServletRequest req) {
+                        tests++;
+                        return super.testShape(req);
+                    }
+                };
+        final FilterSelectionCache cache = new FilterSelectionCache();
+
+        assertTrue(cache.test(predicate, request("/content/page/a", "html", "app/teaser")));
+        assertFalse(cache.test(predicate, request("/content/page/b", "html", "app/teaser")));
+        assertEquals(1, tests);
+    }
+}
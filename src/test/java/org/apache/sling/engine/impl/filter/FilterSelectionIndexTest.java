@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.filter;
+
+import jakarta.servlet.Filter;
+import org.junit.Test;
+
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_EXTENSIONS;
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_METHODS;
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_PATTERN;
+import static org.apache.sling.engine.EngineConstants.SLING_FILTER_SELECTORS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class FilterSelectionIndexTest extends AbstractFilterTest {
+
+    private FilterHandle handle(final String name, final long id, final FilterPredicate predicate) {
+        return new FilterHandle(context.mock(Filter.class, name), null, predicate, id, 0, name, null);
+    }
+
+    @Test
+    public void testUnconditionalFilters() {
+        final FilterHandle[] filters = {
+            handle("a", 1, null), handle("b", 2, predicate()), handle("c", 3, predicate(SLING_FILTER_PATTERN, "/x/.*"))
+        };
+        final FilterSelectionIndex index = new FilterSelectionIndex(filters);
+        assertSame(filters, index.getCandidates(whateverRequest()));
+    }
+
+    @Test
+    public void testCandidates() {
+        final FilterHandle all = handle("all", 1, null);
+        final FilterHandle post = handle("post", 2, predicate(SLING_FILTER_METHODS, "POST"));
+        final FilterHandle json = handle("json", 3, predicate(SLING_FILTER_EXTENSIONS, new String[] {"json", "txt"}));
+        final FilterHandle test = handle("test", 4, predicate(SLING_FILTER_SELECTORS, "test"));
+        final FilterHandle getHtml =
+                handle("getHtml", 5, predicate(SLING_FILTER_METHODS, "GET", SLING_FILTER_EXTENSIONS, "html"));
+        final FilterSelectionIndex index =
+                new FilterSelectionIndex(new FilterHandle[] {all, post, json, test, getHtml});
+
+        // GET /content/test/what/ever.test.json
+        assertArrayEquals(new FilterHandle[] {all, json, test}, index.getCandidates(whateverRequest()));
+        assertArrayEquals(
+                new FilterHandle[] {all, getHtml},
+                index.getCandidates(mockRequest("/a", "html", new String[] {"other"}, "GET", null)));
+        assertArrayEquals(
+                new FilterHandle[] {all, post, json, test},
+                index.getCandidates(mockRequest("/b", "txt", new String[] {"x", "test"}, "POST", null)));
+        assertArrayEquals(new FilterHandle[] {all}, index.getCandidates(mockRequest("/c", null, null, null, null)));
+
+        // requests with the same known values share the candidates
+        assertSame(
+                index.getCandidates(mockRequest("/d", "html", null, "GET", null)),
+                index.getCandidates(mockRequest("/e", "html", new String[] {"unknown"}, "GET", null)));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedKeyedStatisticsTest {
+
+    @Test
+    public void testRecordsPerKey() {
+        final BoundedKeyedStatistics statistics = new BoundedKeyedStatistics(10);
+        statistics.add("a", 10);
+        statistics.add("a", 30);
+        statistics.add("b", 5);
+        statistics.add(null, 5);
+
+        assertEquals(2, statistics.getStatistics().size());
+        assertEquals(2, statistics.getStatistics("a").getCount());
+        assertEquals(20.0, statistics.getStatistics("a").getMean(), 0);
+        assertEquals(1, statistics.getStatistics("b").getCount());
+
+        statistics.reset();
+        assertTrue(statistics.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void testRetainsFrequentKeys() {
+        final BoundedKeyedStatistics statistics = new BoundedKeyedStatistics(10);
+        for (int i = 0; i < 100; i++) {
+            statistics.add("frequent", i);
+        }
+        statistics.add("medium", 1);
+        statistics.add("medium", 1);
+
+        // a flood of distinct keys only ever replaces the keys of the flood
+        for (int i = 0; i < 100; i++) {
+            statistics.add("rare" + i, 1);
+        }
+
+        assertEquals(10, statistics.getStatistics().size());
+        assertEquals(100, statistics.getStatistics("frequent").getCount());
+        assertNotNull(statistics.getStatistics("rare99"));
+    }
+
+    @Test
+    public void testAdmitsLateKey() {
+        final BoundedKeyedStatistics statistics = new BoundedKeyedStatistics(3);
+        for (int i = 0; i < 10; i++) {
+            statistics.add("a", 1);
+            statistics.add("b", 1);
+            statistics.add("c", 1);
+        }
+
+        // the late key inherits the weight of the key it replaces and is
+        // thus not replaced by the next new key
+        statistics.add("late", 1);
+        statistics.add("next", 1);
+
+        assertEquals(3, statistics.getStatistics().size());
+        assertEquals(1, statistics.getStatistics("late").getCount());
+        assertEquals(1, statistics.getStatistics("next").getCount());
+    }
+
+    @Test
+    public void testResize() {
+        final BoundedKeyedStatistics statistics = new BoundedKeyedStatistics(3);
+        statistics.add("a", 1);
+        statistics.add("b", 1);
+        statistics.add("b", 1);
+
+        statistics.setMaxSize(1);
+        assertEquals(1, statistics.getStatistics().size());
+        assertNotNull(statistics.getStatistics("b"));
+
+        statistics.setMaxSize(0);
+        statistics.add("c", 1);
+        assertTrue(statistics.getStatistics().isEmpty());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        assertEquals(0, ConcurrentHistogram.bucketIndex(-5));
+        assertEquals(0, ConcurrentHistogram.bucketIndex(0));
+        assertEquals(31, ConcurrentHistogram.bucketIndex(31));
+        assertEquals(ConcurrentHistogram.BUCKET_COUNT - 1, ConcurrentHistogram.bucketIndex(Long.MAX_VALUE));
+
+        for (int i = 1; i < ConcurrentHistogram.BUCKET_COUNT; i++) {
+            final long lowest = ConcurrentHistogram.lowestValue(i);
+            assertEquals("lowest value of bucket " + i, i, ConcurrentHistogram.bucketIndex(lowest));
+            assertEquals("value below bucket " + i, i - 1, ConcurrentHistogram.bucketIndex(lowest - 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertWithinRelativeError(5000, histogram.getValueAtPercentile(50));
+        assertWithinRelativeError(9000, histogram.getValueAtPercentile(90));
+        assertWithinRelativeError(9900, histogram.getValueAtPercentile(99));
+        assertWithinRelativeError(9990, histogram.getValueAtPercentile(99.9));
+        assertWithinRelativeError(10000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        assertEquals(3, histogram.getValueAtPercentile(50));
+        assertEquals(7, histogram.getValueAtPercentile(99));
+    }
+
+    private static void assertWithinRelativeError(final long expected, final long actual) {
+        final double error = Math.abs(actual - expected) / (double) expected;
+        assertTrue("expected " + expected + " but got " + actual, error <= 0.03);
+    }
+}
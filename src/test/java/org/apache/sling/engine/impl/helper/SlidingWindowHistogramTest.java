@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.helper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlidingWindowHistogramTest {
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    private final SlidingWindowHistogram histogram = new SlidingWindowHistogram(clock::get);
+
+    @Test
+    public void testOldValuesLeaveTheWindow() {
+        // a slow minute followed by fast minutes
+        histogram.record(20);
+        advanceMinutes(1);
+        histogram.record(10);
+        advanceMinutes(1);
+        histogram.record(10);
+
+        assertEquals(10, histogram.getValueAtPercentile(50, 1));
+        assertEquals(10, histogram.getValueAtPercentile(100, 1));
+        assertEquals(20, histogram.getValueAtPercentile(100, 2));
+
+        advanceMinutes(SlidingWindowHistogram.MAX_WINDOW_MINUTES + 1);
+        assertEquals(0, histogram.getValueAtPercentile(100, SlidingWindowHistogram.MAX_WINDOW_MINUTES));
+    }
+
+    @Test
+    public void testReusedSlotIsReplaced() {
+        histogram.record(25);
+        advanceMinutes(SlidingWindowHistogram.MAX_WINDOW_MINUTES + 1);
+        histogram.record(5);
+
+        assertEquals(5, histogram.getValueAtPercentile(100, SlidingWindowHistogram.MAX_WINDOW_MINUTES));
+    }
+
+    private void advanceMinutes(final int minutes) {
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(minutes));
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.engine.RequestLog;
+import org.apache.sling.engine.impl.log.AsyncRequestLog.OverflowPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("deprecation")
+public class AsyncRequestLogTest {
+
+    @Test
+    public void testRingBuffer() {
+        final RequestLogRingBuffer<String> buffer = new RequestLogRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer("m" + i));
+        }
+        assertFalse(buffer.offer("m4"));
+        assertEquals(4, buffer.size());
+
+        assertEquals("m0", buffer.poll());
+        assertTrue(buffer.offer("m4"));
+        for (int i = 1; i < 5; i++) {
+            assertEquals("m" + i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testConcurrentWritesInOrderPerThread() throws InterruptedException {
+        final CollectingLog delegate = new CollectingLog(null);
+        final AsyncRequestLog log = new AsyncRequestLog(delegate, "test", 16, OverflowPolicy.BLOCK);
+
+        final int threadCount = 4;
+        final int messageCount = 5000;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final String prefix = t + ":";
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < messageCount; i++) {
+                    log.write(prefix + i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+
+        assertTrue(delegate.closed);
+        assertEquals(threadCount * messageCount, delegate.messages.size());
+        assertEquals(threadCount * messageCount, log.getWrittenCount());
+        assertEquals(0, log.getDroppedCount());
+
+        final int[] next = new int[threadCount];
+        for (final String message : delegate.messages) {
+            final int sep = message.indexOf(':');
+            final int thread = Integer.parseInt(message.substring(0, sep));
+            assertEquals(next[thread]++, Integer.parseInt(message.substring(sep + 1)));
+        }
+    }
+
+    @Test
+    public void testBatchWrite() {
+        final CollectingLog delegate = new CollectingLog(null);
+        final AsyncRequestLog log = new AsyncRequestLog(delegate, "test", 1024, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 1000; i++) {
+            log.write("m" + i);
+        }
+        log.close();
+
+        assertEquals(1000, delegate.messages.size());
+        assertTrue(delegate.batches > 0);
+        assertTrue(delegate.batches <= delegate.messages.size());
+    }
+
+    @Test
+    public void testDrop() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectingLog delegate = new CollectingLog(release);
+        final AsyncRequestLog log = new AsyncRequestLog(delegate, "test", 4, OverflowPolicy.DROP);
+
+        // the writer thread takes the first message and waits
+        log.write("first");
+        assertTrue(delegate.writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            log.write("m" + i);
+        }
+        assertEquals(4, log.getQueuedCount());
+        assertEquals(6, log.getDroppedCount());
+
+        release.countDown();
+        log.close();
+        assertEquals(5, delegate.messages.size());
+        assertEquals("m3", delegate.messages.get(4));
+    }
+
+    @Test
+    public void testCount() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectingLog delegate = new CollectingLog(release);
+        final AsyncRequestLog log = new AsyncRequestLog(delegate, "test", 4, OverflowPolicy.COUNT);
+
+        log.write("first");
+        assertTrue(delegate.writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            log.write("m" + i);
+        }
+
+        release.countDown();
+        log.close();
+        assertEquals(6, log.getDroppedCount());
+        assertEquals(6, delegate.messages.size());
+        assertTrue(delegate.messages.contains("6 request log messages dropped"));
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectingLog delegate = new CollectingLog(release);
+        final AsyncRequestLog log = new AsyncRequestLog(delegate, "test", 2, OverflowPolicy.BLOCK);
+
+        log.write("first");
+        assertTrue(delegate.writing.await(5, TimeUnit.SECONDS));
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                log.write("m" + i);
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join();
+        log.close();
+        assertEquals(6, delegate.messages.size());
+        assertEquals(0, log.getDroppedCount());
+        assertTrue(log.getBlockedCount() > 0);
+    }
+
+    @Test
+    public void testBinaryRecords() {
+        final CollectingLog delegate = new CollectingLog(null);
+        final AsyncRequestLog log = new AsyncRequestLog(delegate, "test", 16, OverflowPolicy.BLOCK);
+        final byte[] record = {9, 1, 2, 3, 9};
+        log.write("before");
+        log.write(record, 1, 3);
+        record[2] = 0;
+        log.write("after");
+        log.close();
+
+        assertEquals(Arrays.asList("before", "[1, 2, 3]", "after"), delegate.messages);
+        assertEquals(3, log.getWrittenCount());
+    }
+
+    @Test
+    public void testOverflowPolicyFromString() {
+        assertEquals(OverflowPolicy.BLOCK, OverflowPolicy.fromString(null));
+        assertEquals(OverflowPolicy.BLOCK, OverflowPolicy.fromString("unknown"));
+        assertEquals(OverflowPolicy.DROP, OverflowPolicy.fromString("drop"));
+        assertEquals(OverflowPolicy.COUNT, OverflowPolicy.fromString(" Count "));
+    }
+
+    /**
+     * Collects the messages, optionally waiting for a latch before writing
+     * the first batch.
+     */
+    private static class CollectingLog implements RequestLog, BatchRequestLog, BinaryRequestLog {
+
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        final CountDownLatch writing = new CountDownLatch(1);
+
+        final CountDownLatch release;
+
+        volatile int batches;
+
+        volatile boolean closed;
+
+        CollectingLog(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void write(final String message) {
+            write(new String[] {message}, 1);
+        }
+
+        @Override
+        public void write(final String[] batch, final int count) {
+            writing.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                messages.add(batch[i]);
+            }
+            batches++;
+        }
+
+        @Override
+        public void setHeader(final byte[] header) {
+            messages.add("header " + Arrays.toString(header));
+        }
+
+        @Override
+        public void write(final byte[] record, final int offset, final int length) {
+            messages.add(Arrays.toString(Arrays.copyOfRange(record, offset, offset + length)));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CachedDateFormatTest {
+
+    private static final String ZONE = "Europe/Zurich";
+
+    @Test
+    public void testSameAsSimpleDateFormat() {
+        final CachedDateFormat format = new CachedDateFormat("dd/MMM/yyyy:HH:mm:ss Z", ZoneId.of(ZONE));
+        final SimpleDateFormat expected = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+        expected.setTimeZone(TimeZone.getTimeZone(ZONE));
+
+        // winter and summer time, before the epoch and some random times
+        final long[] times = {0L, -1L, 1700000000123L, 1720000000999L, 1234567890000L, 4102444799000L};
+        for (final long time : times) {
+            assertEquals(expected.format(new Date(time)), format.format(time));
+        }
+    }
+
+    @Test
+    public void testRfc1123() {
+        final CachedDateFormat format = new CachedDateFormat("EEE, dd MMM yyyy HH:mm:ss z", ZoneId.of("GMT"));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", format.format(784111777000L));
+    }
+
+    @Test
+    public void testCachedPerSecond() {
+        final CachedDateFormat format = new CachedDateFormat("HH:mm:ss", ZoneId.of(ZONE));
+        final String first = format.format(1700000000000L);
+        assertSame(first, format.format(1700000000999L));
+        assertEquals("23:13:21", format.format(1700000001000L));
+    }
+
+    @Test
+    public void testConcurrentFormatting() throws InterruptedException {
+        final CachedDateFormat format = new CachedDateFormat("dd/MMM/yyyy:HH:mm:ss Z", ZoneId.of(ZONE));
+        final SimpleDateFormat expected = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+        expected.setTimeZone(TimeZone.getTimeZone(ZONE));
+        final int seconds = 50;
+        final String[] expectedValues = new String[seconds];
+        for (int i = 0; i < seconds; i++) {
+            expectedValues[i] = expected.format(new Date(1700000000000L + i * 1000L));
+        }
+
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    final int second = (i + offset) % seconds;
+                    final String value = format.format(1700000000000L + second * 1000L + i % 1000);
+                    if (!expectedValues[second].equals(value)) {
+                        failure.set(value + " != " + expectedValues[second]);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+}
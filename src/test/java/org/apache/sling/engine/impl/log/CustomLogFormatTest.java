@@ -18,7 +18,13 @@
  */
 package org.apache.sling.engine.impl.log;
 
+import java.util.Arrays;
+import java.util.Collections;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import junit.framework.TestCase;
+import org.mockito.Mockito;
 
 /**
  * The <code>CustomLogFormatTest</code> class tests the
@@ -69,4 +75,36 @@ public class CustomLogFormatTest extends TestCase {
                 "This is a special character \\u1234",
                 CustomLogFormat.HeaderParameter.escape("This is a special character \u1234"));
     }
+
+    public void testEscapeToBuilder() {
+        final StringBuilder buf = new StringBuilder("x");
+        assertFalse(CustomLogFormat.HeaderParameter.escape(buf, null));
+        assertTrue(CustomLogFormat.HeaderParameter.escape(buf, "a\"b\u00e4\u1234\n"));
+        assertEquals("xa\\\"b\\u00e4\\u1234\\n", buf.toString());
+    }
+
+    public void testFormatToBuffer() {
+        final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getRequestURI()).thenReturn("/content/page.html");
+        Mockito.when(request.getQueryString()).thenReturn("a=b");
+        Mockito.when(request.getProtocol()).thenReturn("HTTP/1.1");
+        Mockito.when(request.getServerPort()).thenReturn(8080);
+        Mockito.when(request.getHeaders("User-Agent"))
+                .thenAnswer(invocation -> Collections.enumeration(Arrays.asList("agent \"1\"", "agent 2")));
+        Mockito.when(request.getHeaders("Referer")).thenAnswer(invocation -> Collections.emptyEnumeration());
+
+        final RequestLoggerRequest rlreq = new RequestLoggerRequest(request);
+        final RequestLoggerResponse rlres = new RequestLoggerResponse(request, Mockito.mock(HttpServletResponse.class));
+
+        final CustomLogFormat clf = new CustomLogFormat("%r %p %>s %b %B %{User-Agent}i %{Referer}i %!200q");
+        final String expected = "GET /content/page.html?a=b HTTP/1.1 8080 200 - 0 agent \\\"1\\\",agent 2 - ";
+        assertEquals(expected, clf.format(rlreq, rlres));
+
+        // the buffer is reused for the next message
+        final CharSequence first = clf.formatToBuffer(rlreq, rlres);
+        assertEquals(expected, first.toString());
+        assertSame(first, new CustomLogFormat("%U").formatToBuffer(rlreq, rlres));
+        assertEquals("/content/page.html", first.toString());
+    }
 }
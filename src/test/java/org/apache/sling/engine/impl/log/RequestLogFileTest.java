@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.sling.engine.impl.log.RequestLogFile.RotationInterval;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestLogFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteIsBufferedUntilFlush() throws IOException {
+        final File file = new File(folder.getRoot(), "logs/request.log");
+        final RequestLogFile log = new RequestLogFile(file, 1024, 0, RotationInterval.NONE, false, Runnable::run);
+
+        log.write("first");
+        log.write(new StringBuilder("second"));
+        log.write(new String[] {"third ä€\ud83d\ude00", "fourth \ud83d", "ignored"}, 2);
+        assertEquals(0, file.length());
+
+        log.flush();
+        assertEquals(Arrays.asList("first", "second", "third ä€\ud83d\ude00", "fourth ?"), readLines(file));
+
+        log.close();
+        log.write("after close");
+        assertEquals(4, readLines(file).size());
+    }
+
+    @Test
+    public void testMessagesLargerThanBuffer() throws IOException {
+        final File file = new File(folder.getRoot(), "request.log");
+        final RequestLogFile log = new RequestLogFile(file, 1024, 0, RotationInterval.NONE, false, Runnable::run);
+
+        final char[] chars = new char[5000];
+        Arrays.fill(chars, 'ü');
+        final String message = new String(chars);
+        log.write(message);
+        log.write(message);
+        log.close();
+
+        assertEquals(Arrays.asList(message, message), readLines(file));
+    }
+
+    @Test
+    public void testHeaderOncePerFile() throws IOException {
+        final File file = new File(folder.getRoot(), "request.log");
+        RequestLogFile log = new RequestLogFile(file, 1024, 10, RotationInterval.NONE, false, Runnable::run);
+        log.setHeader(new byte[] {'h'});
+
+        // the header is written before the first record of each new file
+        log.write(new byte[] {'1', '2', '3', '4', '5', '6'}, 0, 6);
+        log.write(new byte[] {'7', '8', '9', '0'}, 0, 4);
+        log.write(new byte[] {'a', 'b'}, 0, 2);
+        log.close();
+        assertEquals(2, folder.getRoot().listFiles().length);
+        assertEquals("hab", new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+
+        // but not when appending to an existing file
+        log = new RequestLogFile(file, 1024, 0, RotationInterval.NONE, false, Runnable::run);
+        log.setHeader(new byte[] {'h'});
+        log.write(new byte[] {'c'}, 0, 1);
+        log.close();
+        assertEquals("habc", new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testRotateBySize() throws IOException {
+        final File file = new File(folder.getRoot(), "request.log");
+        final RequestLogFile log = new RequestLogFile(file, 1024, 100, RotationInterval.NONE, false, Runnable::run);
+
+        for (int i = 0; i < 30; i++) {
+            log.write("message " + i);
+        }
+        log.close();
+
+        final File[] files = folder.getRoot().listFiles();
+        assertTrue(files.length > 1);
+        int lines = 0;
+        for (final File f : files) {
+            assertTrue(f.length() < 100 + 20);
+            lines += readLines(f).size();
+        }
+        assertEquals(30, lines);
+    }
+
+    @Test
+    public void testCompressRotated() throws IOException {
+        final File file = new File(folder.getRoot(), "request.log");
+        final RequestLogFile log = new RequestLogFile(file, 1024, 10, RotationInterval.NONE, true, Runnable::run);
+
+        log.write("rotated message");
+        log.write("current message");
+        log.close();
+
+        final File[] rotated = folder.getRoot().listFiles((dir, name) -> name.endsWith(".gz"));
+        assertEquals(1, rotated.length);
+        assertEquals(2, folder.getRoot().list().length);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(rotated[0].toPath()))) {
+            assertEquals(
+                    "rotated message" + System.lineSeparator(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertEquals(Arrays.asList("current message"), readLines(file));
+    }
+
+    @Test
+    public void testLoggingContinuesIfRotationFails() throws IOException {
+        final File dir = folder.newFolder("logs");
+        final File file = new File(dir, "request.log");
+
+        // dangling links in place of the rotated files, which are not
+        // considered to exist but let the rename fail, even for root
+        final DateTimeFormatter suffix = DateTimeFormatter.ofPattern("yyyy-MM-dd-HHmmss");
+        final LocalDateTime now = LocalDateTime.now();
+        final Path missing = new File(folder.getRoot(), "missing").toPath();
+        try {
+            for (int i = -5; i < 120; i++) {
+                Files.createSymbolicLink(
+                        new File(dir, "request.log." + suffix.format(now.plusSeconds(i))).toPath(), missing);
+            }
+        } catch (final IOException | UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+        final int links = dir.list().length;
+
+        final RequestLogFile log = new RequestLogFile(file, 1024, 10, RotationInterval.NONE, false, Runnable::run);
+        log.write("first message");
+        log.write("second message");
+        log.write(new String[] {"third message", "fourth message"}, 2);
+        log.close();
+
+        // nothing has been rotated and no message is lost
+        assertEquals(links + 1, dir.list().length);
+        assertEquals(
+                Arrays.asList("first message", "second message", "third message", "fourth message"), readLines(file));
+    }
+
+    @Test
+    public void testRotatedWhenCompressionRejected() throws IOException {
+        final File file = new File(folder.getRoot(), "request.log");
+        final RequestLogFile log = new RequestLogFile(file, 1024, 10, RotationInterval.NONE, true, r -> {
+            throw new RejectedExecutionException();
+        });
+
+        log.write("rotated message");
+        log.write("current message");
+        log.close();
+
+        // the rotated file is kept uncompressed
+        assertEquals(2, folder.getRoot().list().length);
+        assertEquals(0, folder.getRoot().list((dir, name) -> name.endsWith(".gz")).length);
+        assertEquals(Arrays.asList("current message"), readLines(file));
+    }
+
+    @Test
+    public void testRotationIntervalFromString() {
+        assertEquals(RotationInterval.NONE, RotationInterval.fromString(null));
+        assertEquals(RotationInterval.NONE, RotationInterval.fromString("weekly"));
+        assertEquals(RotationInterval.DAILY, RotationInterval.fromString("daily"));
+        assertEquals(RotationInterval.HOURLY, RotationInterval.fromString("Hourly"));
+    }
+
+    private static List<String> readLines(final File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
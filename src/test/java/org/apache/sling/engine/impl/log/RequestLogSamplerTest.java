@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestLogSamplerTest {
+
+    private static HttpServletRequest request(final String uri) {
+        final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getRequestURI()).thenReturn(uri);
+        return request;
+    }
+
+    @Test
+    public void testEvery() {
+        final RequestLogSampler sampler = new RequestLogSampler(1, 3, 0, 0, null, false);
+        final HttpServletRequest request = request("/content");
+        int logged = 0;
+        for (int i = 0; i < 30; i++) {
+            if (sampler.sample(request) == RequestLogSampler.LOG) {
+                logged++;
+            }
+        }
+        assertEquals(10, logged);
+    }
+
+    @Test
+    public void testRate() {
+        final HttpServletRequest request = request("/content");
+        assertEquals(RequestLogSampler.SKIP, new RequestLogSampler(0, 1, 0, 0, null, false).sample(request));
+
+        final RequestLogSampler sampler = new RequestLogSampler(0.5, 1, 0, 0, null, false);
+        int logged = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (sampler.sample(request) == RequestLogSampler.LOG) {
+                logged++;
+            }
+        }
+        assertTrue(logged > 4000 && logged < 6000);
+    }
+
+    @Test
+    public void testExcludedPaths() {
+        final RequestLogSampler sampler =
+                new RequestLogSampler(1, 1, 500, 0, new String[] {"/system/health.*", " ", "/etc/.*\\.css"}, false);
+        assertEquals(RequestLogSampler.SKIP, sampler.sample(request("/system/health")));
+        assertEquals(RequestLogSampler.SKIP, sampler.sample(request("/etc/clientlibs/site.css")));
+        assertEquals(RequestLogSampler.LOG, sampler.sample(request("/etc/clientlibs/site.js")));
+        assertEquals(RequestLogSampler.LOG, sampler.sample(request("/content/system/health")));
+    }
+
+    @Test
+    public void testErrorsAndSlowRequests() {
+        final HttpServletRequest request = request("/content");
+        final RequestLogSampler sampler = new RequestLogSampler(0, 1, 500, 1000, null, false);
+        assertEquals(RequestLogSampler.CHECK, sampler.sample(request));
+
+        final RequestLoggerResponse response =
+                new RequestLoggerResponse(request, Mockito.mock(HttpServletResponse.class));
+        response.requestEnd();
+        assertFalse(sampler.isLoggedAnyway(response));
+        response.setStatus(503);
+        assertTrue(sampler.isLoggedAnyway(response));
+
+        // status and duration are not known when logging on entry
+        assertEquals(RequestLogSampler.SKIP, new RequestLogSampler(0, 1, 500, 1000, null, true).sample(request));
+
+        // nothing to check
+        assertEquals(RequestLogSampler.SKIP, new RequestLogSampler(0, 1, 0, 0, null, false).sample(request));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.apache.sling.engine.RequestLog;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("deprecation")
+public class RequestLogServiceFacadeTest {
+
+    private BundleContext bundleContext;
+
+    private RequestLogServiceFacade facade;
+
+    @Before
+    public void setUp() {
+        bundleContext = MockOsgi.newBundleContext();
+        facade = new RequestLogServiceFacade(bundleContext, "test(log)");
+    }
+
+    @After
+    public void tearDown() {
+        facade.close();
+        MockOsgi.shutdown(bundleContext);
+    }
+
+    @Test
+    public void testServicesAddedAndRemoved() {
+        final CollectingLog first = new CollectingLog();
+        final CollectingLog second = new CollectingLog();
+        final CollectingLog other = new CollectingLog();
+        final ServiceRegistration<RequestLog> firstRegistration = register(first, "test(log)");
+        register(second, new String[] {"other", "test(log)"});
+        register(other, "other");
+
+        facade.write("one");
+        assertEquals(List.of("one"), first.messages);
+        assertEquals(List.of("one"), second.messages);
+        assertTrue(other.messages.isEmpty());
+
+        firstRegistration.unregister();
+        facade.write("two");
+        assertEquals(List.of("one"), first.messages);
+        assertEquals(List.of("one", "two"), second.messages);
+    }
+
+    @Test
+    public void testNoWriteAfterClose() {
+        final CollectingLog log = new CollectingLog();
+        register(log, "test(log)");
+
+        facade.close();
+        facade.write("one");
+        assertTrue(log.messages.isEmpty());
+    }
+
+    @Test
+    public void testEscapeFilterValue() {
+        assertEquals("plain", RequestLogServiceFacade.escapeFilterValue("plain"));
+        assertEquals("a\\(b\\)\\*\\\\", RequestLogServiceFacade.escapeFilterValue("a(b)*\\"));
+    }
+
+    private ServiceRegistration<RequestLog> register(final RequestLog log, final Object name) {
+        final Hashtable<String, Object> props = new Hashtable<>();
+        props.put(RequestLog.REQUEST_LOG_NAME, name);
+        return bundleContext.registerService(RequestLog.class, log, props);
+    }
+
+    private static final class CollectingLog implements RequestLog {
+
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void write(final String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
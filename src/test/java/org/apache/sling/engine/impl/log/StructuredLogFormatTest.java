@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.sling.engine.impl.log.StructuredLogFormat.RecordFormat;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.service.servlet.whiteboard.Preprocessor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StructuredLogFormatTest {
+
+    private static final String FORMAT = "%a - %u [%t] \"%m %U%q\" %>s %b \"%{User-Agent}i\" %{c}C %{X}e %!200q";
+
+    private RequestLoggerRequest request;
+
+    private RequestLoggerResponse response;
+
+    @Before
+    public void setup() {
+        final HttpServletRequest httpRequest = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(httpRequest.getRemoteAddr()).thenReturn("127.0.0.1");
+        Mockito.when(httpRequest.getMethod()).thenReturn("GET");
+        Mockito.when(httpRequest.getRequestURI()).thenReturn("/content/ä.html");
+        Mockito.when(httpRequest.getQueryString()).thenReturn("q=\"x\"");
+        Mockito.when(httpRequest.getAttribute(Preprocessor.class.getName() + ".startTime"))
+                .thenReturn(1700000000123L);
+        Mockito.when(httpRequest.getHeaders("User-Agent"))
+                .thenAnswer(invocation -> Collections.enumeration(Arrays.asList("agent\n1", "agent 2")));
+
+        request = new RequestLoggerRequest(httpRequest);
+        response = new RequestLoggerResponse(httpRequest, Mockito.mock(HttpServletResponse.class));
+    }
+
+    @Test
+    public void testFieldNames() {
+        final StructuredLogFormat format = new StructuredLogFormat(new CustomLogFormat(FORMAT));
+        assertArrayEquals(
+                new String[] {
+                    "remoteAddr",
+                    "user",
+                    "time",
+                    "method",
+                    "uri",
+                    "query",
+                    "status",
+                    "bytesCLF",
+                    "requestHeader:User-Agent",
+                    "cookie:c",
+                    "query#2"
+                },
+                format.getFieldNames());
+    }
+
+    @Test
+    public void testFieldNamesAreUnique() {
+        final StructuredLogFormat format =
+                new StructuredLogFormat(new CustomLogFormat("%>s %<s %{X}i %{X}i %{Y}i %v %V %b %B %s %{X}i"));
+        assertArrayEquals(
+                new String[] {
+                    "status",
+                    "status#2",
+                    "requestHeader:X",
+                    "requestHeader:X#2",
+                    "requestHeader:Y",
+                    "canonicalServerName",
+                    "serverName",
+                    "bytesCLF",
+                    "bytes",
+                    "status#3",
+                    "requestHeader:X#3"
+                },
+                format.getFieldNames());
+    }
+
+    @Test
+    public void testJson() {
+        final StructuredLogFormat format = new StructuredLogFormat(new CustomLogFormat(FORMAT));
+        final String json = format.formatJson(request, response).toString();
+        assertEquals(
+                "{\"remoteAddr\":\"127.0.0.1\",\"user\":null,\"time\":1700000000123,\"method\":\"GET\","
+                        + "\"uri\":\"/content/ä.html\",\"query\":\"?q=\\\"x\\\"\",\"status\":200,\"bytesCLF\":0,"
+                        + "\"requestHeader:User-Agent\":\"agent\\n1,agent 2\",\"cookie:c\":null,"
+                        + "\"query#2\":null}",
+                json);
+    }
+
+    @Test
+    public void testBinary() {
+        final StructuredLogFormat format = new StructuredLogFormat(new CustomLogFormat("%m %U %s %b %u %t"));
+        final ByteBuffer record = writeBinary(format);
+        assertEquals(record.remaining() - 1, readVarint(record));
+        assertEquals("GET", readString(record));
+        assertEquals("/content/ä.html", readString(record));
+        assertEquals(200, readNumber(record));
+        assertEquals(0, readNumber(record));
+        assertEquals(StructuredLogFormat.FIELD_ABSENT, record.get());
+        assertEquals(1700000000123L, readNumber(record));
+        assertFalse(record.hasRemaining());
+    }
+
+    @Test
+    public void testVarintSize() {
+        assertEquals(1, StructuredLogFormat.varintSize(0));
+        assertEquals(1, StructuredLogFormat.varintSize(127));
+        assertEquals(2, StructuredLogFormat.varintSize(128));
+        assertEquals(5, StructuredLogFormat.varintSize(Integer.MAX_VALUE));
+        assertEquals(10, StructuredLogFormat.varintSize(-1));
+    }
+
+    @Test
+    public void testRecordFormatFromString() {
+        assertEquals(RecordFormat.TEXT, RecordFormat.fromString(null));
+        assertEquals(RecordFormat.TEXT, RecordFormat.fromString("xml"));
+        assertEquals(RecordFormat.JSON, RecordFormat.fromString("json"));
+        assertEquals(RecordFormat.BINARY, RecordFormat.fromString("Binary"));
+    }
+
+    @Test
+    public void testBinaryHeader() {
+        final StructuredLogFormat format = new StructuredLogFormat(new CustomLogFormat("%m %U %{User-Agent}i"));
+        final ByteBuffer header = ByteBuffer.wrap(format.createBinaryHeader());
+        assertEquals(header.remaining() - 1, readVarint(header));
+        assertEquals(3, readVarint(header));
+        assertEquals("method", readName(header));
+        assertEquals("uri", readName(header));
+        assertEquals("requestHeader:User-Agent", readName(header));
+        assertFalse(header.hasRemaining());
+
+        // the header does not interfere with the buffers of the records
+        final ByteBuffer record = writeBinary(format);
+        assertEquals(record.remaining() - 1, readVarint(record));
+        assertEquals("GET", readString(record));
+    }
+
+    private ByteBuffer writeBinary(final StructuredLogFormat format) {
+        final ByteBuffer[] written = new ByteBuffer[1];
+        format.writeBinary(request, response, new BinaryRequestLog() {
+            @Override
+            public void setHeader(final byte[] header) {}
+
+            @Override
+            public void write(final byte[] record, final int offset, final int length) {
+                written[0] = ByteBuffer.wrap(record, offset, length);
+            }
+        });
+        return written[0];
+    }
+
+    private static String readName(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[(int) readVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarint(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        assertEquals(StructuredLogFormat.FIELD_STRING, buffer.get());
+        final byte[] bytes = new byte[(int) readVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readNumber(final ByteBuffer buffer) {
+        assertEquals(StructuredLogFormat.FIELD_NUMBER, buffer.get());
+        final long zigzag = readVarint(buffer);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -44,6 +44,24 @@ public class ContainerRequestParameterTest extends TestCase {
         testInternal("\u00e1\u009b\u0082\u00e3\u0083\u0091\u00ef\u00be\u0089", LATIN1, UTF8);
     }
 
+    public void testRawValue() throws UnsupportedEncodingException {
+        // utf-8 encoded latin small letter o/a/u with diaresis between two other values
+        final byte[] data = "xxname\u00f6\u00e4\u00fcyy".getBytes(UTF8);
+        final ContainerRequestParameter par = new ContainerRequestParameter("name", data, 2, 4, 6, LATIN1);
+
+        assertEquals(6, par.getSize());
+        assertEquals("name", par.getName(UTF8));
+        assertEquals("\u00c3\u00b6\u00c3\u00a4\u00c3\u00bc", par.getString());
+        assertEquals("\u00f6\u00e4\u00fc", par.getString(UTF8));
+        assertEquals("byte[] value mismatch", "\u00f6\u00e4\u00fc".getBytes(UTF8), par.get());
+
+        par.setEncoding(UTF8);
+
+        assertEquals(UTF8, par.getEncoding());
+        assertEquals("\u00f6\u00e4\u00fc", par.getString());
+        assertEquals("byte[] value mismatch", "\u00f6\u00e4\u00fc".getBytes(UTF8), par.get());
+    }
+
     private void testInternal(String value, String baseEncoding, String targetEncoding)
             throws UnsupportedEncodingException {
         ContainerRequestParameter par = new ContainerRequestParameter("name", value, baseEncoding);
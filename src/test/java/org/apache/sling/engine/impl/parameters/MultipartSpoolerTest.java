@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileUpload;
+import org.apache.commons.fileupload.RequestContext;
+import org.apache.sling.engine.SpooledUpload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartSpoolerTest {
+
+    private static final String BOUNDARY = "----boundary";
+
+    private static final int THRESHOLD = 40000;
+
+    private File location;
+
+    private UploadBufferPool pool;
+
+    private MultipartSpooler spooler;
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("spooler").toFile();
+        pool = new UploadBufferPool(4);
+        spooler = new MultipartSpooler(pool, location, THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        spooler.delete();
+        for (final File file : location.listFiles()) {
+            file.delete();
+        }
+        location.delete();
+    }
+
+    @Test
+    public void testSmallPartsInMemory() throws Exception {
+        final byte[] content = content(THRESHOLD);
+        spoolAll(body(part("field", null, "value".getBytes(StandardCharsets.UTF_8)), part("file", "a.bin", content)));
+
+        assertEquals(2, spooler.getParts().size());
+        final SpooledPart field = spooler.getParts().get(0);
+        assertTrue(field.isFormField());
+        assertTrue(field.isInMemory());
+        assertEquals("value", field.getString());
+
+        final SpooledPart file = spooler.getParts().get(1);
+        assertFalse(file.isFormField());
+        assertEquals("a.bin", file.getName());
+        assertTrue(file.isInMemory());
+        assertNull(file.getFile());
+        assertArrayEquals(content, file.get());
+
+        assertEquals(5 + THRESHOLD, spooler.getRetainedMemory());
+        assertTrue(spooler.getPeakMemory() >= spooler.getRetainedMemory());
+        assertEquals(0, spooler.getSpooledSize());
+        assertEquals(0, location.list().length);
+        assertTrue(pool.size() > 0);
+    }
+
+    @Test
+    public void testLargePartSpooled() throws Exception {
+        final byte[] content = content(THRESHOLD * 10 + 17);
+        spoolAll(body(part("file", "large.bin", content)));
+
+        final SpooledPart part = spooler.getParts().get(0);
+        assertFalse(part.isInMemory());
+        assertEquals(content.length, part.getSize());
+        assertEquals(content.length, spooler.getSpooledSize());
+        assertEquals(0, spooler.getRetainedMemory());
+
+        final Path file = part.getFile();
+        assertNotNull(file);
+        assertEquals(location.toPath(), file.getParent());
+        assertArrayEquals(content, Files.readAllBytes(file));
+        assertArrayEquals(content, part.get());
+        try (InputStream in = part.getInputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        spooler.delete();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testSpooledUpload() throws Exception {
+        final byte[] content = content(THRESHOLD + 1);
+        spoolAll(body(part("field", null, "value".getBytes(StandardCharsets.UTF_8)), part("file", "a.bin", content)));
+
+        // parameters and parts give access to the spooled file
+        final SpooledUpload param =
+                new MultipartRequestParameter(spooler.getParts().get(1), location);
+        final SpooledUpload part = new SlingPart((MultipartRequestParameter) param);
+        assertEquals(spooler.getParts().get(1).getFile(), param.getFile());
+        assertEquals(param.getFile(), part.getFile());
+        try (FileChannel channel = part.openChannel()) {
+            final ByteBuffer buffer = ByteBuffer.allocate(content.length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {}
+            assertArrayEquals(content, buffer.array());
+        }
+
+        // but there is no file for content kept in memory
+        final SpooledUpload field =
+                new MultipartRequestParameter(spooler.getParts().get(0), location);
+        assertNull(field.getFile());
+        assertNull(field.openChannel());
+    }
+
+    @Test
+    public void testWriteMovesSpooledFile() throws Exception {
+        final byte[] content = content(THRESHOLD + 1);
+        spoolAll(body(part("file", "large.bin", content)));
+
+        final SpooledPart part = spooler.getParts().get(0);
+        final Path spooled = part.getFile();
+        final Path target = location.toPath().resolve("target.bin");
+        part.write(target);
+
+        assertFalse(Files.exists(spooled));
+        assertEquals(target, part.getFile());
+        assertArrayEquals(content, Files.readAllBytes(target));
+
+        // the written file is no longer temporary
+        spooler.delete();
+        assertTrue(Files.exists(target));
+    }
+
+    @Test
+    public void testFileSizeLimit() throws Exception {
+        final FileUpload upload = new FileUpload();
+        upload.setFileSizeMax(THRESHOLD * 2);
+        final FileItemIterator items =
+                upload.getItemIterator(context(body(part("file", "large.bin", content(THRESHOLD * 3)))));
+        try {
+            spooler.spool(items.next());
+            fail("expected size limit exceeded");
+        } catch (IOException expected) {
+            // FileUploadIOException wrapping the FileSizeLimitExceededException
+        }
+        assertTrue(spooler.getParts().isEmpty());
+        assertEquals(0, location.list().length);
+    }
+
+    private void spoolAll(final byte[] body) throws Exception {
+        final FileItemIterator items = new FileUpload().getItemIterator(context(body));
+        while (items.hasNext()) {
+            spooler.spool(items.next());
+        }
+    }
+
+    private static byte[] content(final int size) {
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    private static byte[] part(final String name, final String fileName, final byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StringBuilder header = new StringBuilder();
+        header.append("--").append(BOUNDARY).append("\r\n");
+        header.append("Content-Disposition: form-data; name=\"").append(name).append('"');
+        if (fileName != null) {
+            header.append("; filename=\"").append(fileName).append('"');
+            header.append("\r\nContent-Type: application/octet-stream");
+        }
+        header.append("\r\n\r\n");
+        out.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(content);
+        out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    private static byte[] body(final byte[]... parts) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] part : parts) {
+            out.write(part);
+        }
+        out.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    private static RequestContext context(final byte[] body) {
+        return new RequestContext() {
+            @Override
+            public String getCharacterEncoding() {
+                return Util.ENCODING_DIRECT;
+            }
+
+            @Override
+            public String getContentType() {
+                return "multipart/form-data; boundary=" + BOUNDARY;
+            }
+
+            @Override
+            @Deprecated
+            public int getContentLength() {
+                return body.length;
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(body);
+            }
+        };
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.fileupload.FileCountLimitExceededException;
+import org.apache.commons.fileupload.FileUploadBase.FileSizeLimitExceededException;
+import org.apache.commons.fileupload.FileUploadException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartStreamParserTest {
+
+    private static final String BOUNDARY = "----boundary";
+
+    private static final int THRESHOLD = 40000;
+
+    private File location;
+
+    private MultipartSpooler spooler;
+
+    private final List<SpooledPart> parts = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        location = Files.createTempDirectory("parser").toFile();
+        spooler = new MultipartSpooler(new UploadBufferPool(4), location, THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        spooler.delete();
+        for (final File file : location.listFiles()) {
+            file.delete();
+        }
+        location.delete();
+    }
+
+    @Test
+    public void testGetBoundary() {
+        assertArrayEquals(
+                BOUNDARY.getBytes(StandardCharsets.ISO_8859_1),
+                MultipartStreamParser.getBoundary("multipart/form-data; boundary=" + BOUNDARY));
+        assertArrayEquals(
+                "a b".getBytes(StandardCharsets.ISO_8859_1),
+                MultipartStreamParser.getBoundary("multipart/form-data; charset=UTF-8; Boundary=\"a b\""));
+        assertNull(MultipartStreamParser.getBoundary("multipart/form-data"));
+        assertNull(MultipartStreamParser.getBoundary(null));
+    }
+
+    @Test
+    public void testChunkSizes() throws Exception {
+        final byte[] small = content(1000);
+        // contains line breaks and dashes resembling the delimiter
+        small[10] = '\r';
+        small[11] = '\n';
+        small[12] = '-';
+        small[13] = '-';
+        final byte[] large = content(THRESHOLD * 3 + 5);
+        final byte[] body = body(
+                "preamble\r\n",
+                part("field", null, "value".getBytes(StandardCharsets.UTF_8)),
+                part("small", "small.bin", small),
+                part("empty", "empty.bin", new byte[0]),
+                part("large", "large.bin", large));
+
+        for (final int chunkSize : new int[] {1, 7, 100, 16384, body.length}) {
+            parts.clear();
+            final MultipartStreamParser parser = newParser(UploadPolicy.DEFAULT);
+            for (int off = 0; off < body.length; off += chunkSize) {
+                parser.write(body, off, Math.min(chunkSize, body.length - off));
+            }
+            parser.finish();
+
+            assertEquals("chunk size " + chunkSize, 4, parts.size());
+            assertTrue(parts.get(0).isFormField());
+            assertEquals("field", parts.get(0).getFieldName());
+            assertEquals("value", parts.get(0).getString());
+            assertEquals("small.bin", parts.get(1).getName());
+            assertEquals("application/octet-stream", parts.get(1).getContentType());
+            assertArrayEquals(small, parts.get(1).get());
+            assertEquals(0, parts.get(2).getSize());
+            assertFalse(parts.get(3).isInMemory());
+            assertArrayEquals(large, parts.get(3).get());
+        }
+    }
+
+    @Test
+    public void testUnterminatedBody() throws Exception {
+        final byte[] body = part("file", "a.bin", content(THRESHOLD * 2));
+        final MultipartStreamParser parser = newParser(UploadPolicy.DEFAULT);
+        parser.write(body, 0, body.length);
+        try {
+            parser.finish();
+            fail("expected unexpected end of stream");
+        } catch (FileUploadException expected) {
+            // the partial part has been discarded
+        }
+        assertTrue(parts.isEmpty());
+        assertEquals(0, location.list().length);
+    }
+
+    @Test
+    public void testFileSizeLimit() throws Exception {
+        final byte[] body = body("", part("file", "a.bin", content(THRESHOLD * 3)));
+        final MultipartStreamParser parser = newParser(new UploadPolicy(-1, null, THRESHOLD * 2, THRESHOLD, 0));
+        try {
+            parser.write(body, 0, body.length);
+            fail("expected size limit exceeded");
+        } catch (FileSizeLimitExceededException expected) {
+            assertEquals(THRESHOLD * 2, expected.getPermittedSize());
+        }
+        assertTrue(parts.isEmpty());
+        assertEquals(0, location.list().length);
+    }
+
+    @Test
+    public void testFileCountLimit() throws Exception {
+        final byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+        final byte[] body = body("", part("a", null, a), part("b", null, a), part("c", null, a));
+        final MultipartStreamParser parser = newParser(new UploadPolicy(-1, null, -1, 0, 2));
+        try {
+            parser.write(body, 0, body.length);
+            fail("expected file count limit exceeded");
+        } catch (FileCountLimitExceededException expected) {
+            assertEquals(2, expected.getLimit());
+        }
+        assertEquals(2, parts.size());
+    }
+
+    private MultipartStreamParser newParser(final UploadPolicy policy) {
+        return new MultipartStreamParser(BOUNDARY.getBytes(StandardCharsets.ISO_8859_1), spooler, policy, parts::add);
+    }
+
+    private static byte[] content(final int size) {
+        final byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    static byte[] part(final String name, final String fileName, final byte[] content) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StringBuilder header = new StringBuilder();
+        header.append("--").append(BOUNDARY).append("\r\n");
+        header.append("Content-Disposition: form-data; name=\"").append(name).append('"');
+        if (fileName != null) {
+            header.append("; filename=\"").append(fileName).append('"');
+            header.append("\r\nContent-Type: application/octet-stream");
+        }
+        header.append("\r\n\r\n");
+        out.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(content);
+        out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+
+    static byte[] body(final String preamble, final byte[]... parts) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(preamble.getBytes(StandardCharsets.ISO_8859_1));
+        for (final byte[] part : parts) {
+            out.write(part);
+        }
+        out.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return out.toByteArray();
+    }
+}
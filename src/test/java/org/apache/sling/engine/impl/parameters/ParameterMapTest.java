@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.request.RequestParameter;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParameterMapTest {
+
+    @After
+    public void tearDown() {
+        ParameterMap.setMaxParameters(ParameterMap.DEFAULT_MAX_PARAMS);
+    }
+
+    @Test
+    public void testStringValuesAreNotShared() {
+        final ParameterMap map = new ParameterMap();
+        add(map, "a", "1", false);
+        add(map, "a", "2", false);
+
+        final String[] values = map.getStringValues("a");
+        values[0] = "modified";
+        assertArrayEquals(new String[] {"1", "2"}, map.getStringValues("a"));
+        assertArrayEquals(new String[] {"1", "2"}, map.getStringParameterMap().get("a"));
+    }
+
+    @Test
+    public void testOrderAndRepeatedNames() {
+        final ParameterMap map = new ParameterMap();
+        add(map, "b", "1", false);
+        add(map, "a", "2", false);
+        add(map, "b", "3", false);
+        add(map, "b", "0", true);
+
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<>(map.keySet()));
+        assertEquals(2, map.size());
+        assertArrayEquals(new String[] {"0", "1", "3"}, map.getStringValues("b"));
+        assertEquals("0", map.getStringValue("b"));
+        assertEquals("0", map.getValue("b").getString());
+        assertSame(map.getValues("b"), map.get("b"));
+        assertNull(map.getValues("c"));
+        assertFalse(map.containsKey("c"));
+
+        // the list is in the order of adding, regardless of prepending
+        final List<String> list = new ArrayList<>();
+        for (final RequestParameter param : map.getRequestParameterList()) {
+            list.add(param.getString());
+        }
+        assertEquals(Arrays.asList("1", "2", "3", "0"), list);
+    }
+
+    @Test
+    public void testViewsFollowAdditions() {
+        final ParameterMap map = new ParameterMap();
+        add(map, "a", "1", false);
+        final Map<String, String[]> strings = map.getStringParameterMap();
+        assertArrayEquals(new String[] {"1"}, strings.get("a"));
+
+        add(map, "a", "2", false);
+        add(map, "b", "3", false);
+        assertArrayEquals(new String[] {"1", "2"}, strings.get("a"));
+        assertEquals(2, strings.size());
+        assertEquals(3, map.getRequestParameterList().size());
+        try {
+            strings.put("c", new String[0]);
+            fail("string map must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRenameAndSet() {
+        final ParameterMap map = new ParameterMap();
+        add(map, "x", "1", false);
+        add(map, "y", "2", false);
+        add(map, "x", "3", false);
+        map.renameParameter("x", "z");
+
+        assertNull(map.getValues("x"));
+        assertEquals(Arrays.asList("y", "z"), new ArrayList<>(map.keySet()));
+        assertArrayEquals(new String[] {"1", "3"}, map.getStringValues("z"));
+        assertEquals("z", map.getValue("z").getName());
+
+        // parameters added after setting the values are appended to them
+        add(map, "z", "4", false);
+        assertArrayEquals(new String[] {"1", "3", "4"}, map.getStringValues("z"));
+        add(map, "x", "5", false);
+        assertEquals(Arrays.asList("y", "z", "x"), new ArrayList<>(map.keySet()));
+        assertEquals(3, map.entrySet().size());
+    }
+
+    @Test
+    public void testManyParameters() {
+        final ParameterMap map = new ParameterMap();
+        for (int i = 0; i < 5000; i++) {
+            add(map, "p" + (i % 1000), String.valueOf(i), false);
+        }
+        assertEquals(1000, map.size());
+        assertEquals(5000, map.getRequestParameterList().size());
+        assertEquals(5, map.getValues("p999").length);
+        assertEquals("4999", map.getValues("p999")[4].getString());
+
+        int count = 0;
+        for (final Map.Entry<String, RequestParameter[]> entry : map.entrySet()) {
+            assertEquals("p" + count, entry.getKey());
+            assertEquals(5, entry.getValue().length);
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testCollidingNames() {
+        // "Aa" and "BB" have the same String hash code, and so have all
+        // names combined from them
+        final ParameterMap map = new ParameterMap();
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            final StringBuilder name = new StringBuilder();
+            for (int bit = 0; bit < 12; bit++) {
+                name.append((i & (1 << bit)) != 0 ? "BB" : "Aa");
+            }
+            names.add(name.toString());
+            add(map, name.toString(), String.valueOf(i), false);
+        }
+        assertEquals(names.get(0).hashCode(), names.get(4095).hashCode());
+        assertEquals(4096, map.size());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(String.valueOf(i), map.getStringValue(names.get(i)));
+        }
+    }
+
+    @Test
+    public void testMaxParameters() {
+        ParameterMap.setMaxParameters(2);
+        final ParameterMap map = new ParameterMap();
+        add(map, "a", "1", false);
+        add(map, "a", "2", false);
+        add(map, "b", "3", false);
+        assertEquals(1, map.size());
+        assertEquals(2, map.getRequestParameterList().size());
+    }
+
+    @Test
+    public void testUnmodifiable() {
+        final ParameterMap map = new ParameterMap();
+        add(map, "a", "1", false);
+        try {
+            map.put("b", new RequestParameter[0]);
+            fail("put must not be supported");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        try {
+            map.remove("a");
+            fail("remove must not be supported");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        assertTrue(map.containsKey("a"));
+    }
+
+    private static void add(final ParameterMap map, final String name, final String value, final boolean prepend) {
+        map.addParameter(new ContainerRequestParameter(name, value, Util.ENCODING_DIRECT), prepend);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+import org.apache.commons.fileupload.FileCountLimitExceededException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestPartsPublisherTest {
+
+    private ChunkedInputStream input;
+
+    private HttpServletRequest request;
+
+    private AsyncContext asyncContext;
+
+    private final List<Part> received = new ArrayList<>();
+
+    private Flow.Subscription subscription;
+
+    private boolean completed;
+
+    private Throwable error;
+
+    @Before
+    public void setUp() throws IOException {
+        input = new ChunkedInputStream();
+        asyncContext = Mockito.mock(AsyncContext.class);
+        request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getContentType()).thenReturn("multipart/form-data; boundary=----boundary");
+        Mockito.when(request.startAsync()).thenReturn(asyncContext);
+        Mockito.when(request.getInputStream()).thenReturn(input);
+    }
+
+    @Test
+    public void testPartsPublishedOnDemand() throws Exception {
+        final byte[] body = MultipartStreamParserTest.body(
+                "",
+                MultipartStreamParserTest.part("a", null, "1".getBytes(StandardCharsets.UTF_8)),
+                MultipartStreamParserTest.part("b", "b.txt", "22".getBytes(StandardCharsets.UTF_8)));
+        new RequestPartsPublisher(request, UploadPolicy.DEFAULT).subscribe(new CollectingSubscriber());
+        Mockito.verify(request).startAsync();
+
+        // the first part arrives in two callbacks, nothing has been requested yet
+        input.receive(body, 0, 50);
+        input.receive(body, 50, body.length - 50);
+        assertTrue(received.isEmpty());
+
+        subscription.request(1);
+        assertEquals(1, received.size());
+        assertEquals("a", received.get(0).getName());
+
+        input.finish();
+        assertFalse(completed);
+        subscription.request(Long.MAX_VALUE);
+        assertEquals(2, received.size());
+        assertEquals("b.txt", received.get(1).getSubmittedFileName());
+        assertEquals(2, received.get(1).getSize());
+        assertTrue(completed);
+        assertNull(error);
+
+        // the parts are deleted when the request completes
+        final ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        Mockito.verify(asyncContext).addListener(listener.capture());
+        listener.getValue().onComplete(new AsyncEvent(asyncContext));
+    }
+
+    @Test
+    public void testLimitSignalsError() throws Exception {
+        final byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+        final byte[] body = MultipartStreamParserTest.body(
+                "", MultipartStreamParserTest.part("a", null, a), MultipartStreamParserTest.part("b", null, a));
+        new RequestPartsPublisher(request, new UploadPolicy(-1, null, -1, 0, 1)).subscribe(new CollectingSubscriber());
+        subscription.request(10);
+
+        // the error is signalled right away, dropping the parts not yet published
+        input.receive(body, 0, body.length);
+        assertTrue(received.isEmpty());
+        assertTrue(error instanceof FileCountLimitExceededException);
+        assertFalse(completed);
+    }
+
+    @Test
+    public void testBodyDiscardedAfterCancel() throws Exception {
+        final byte[] body = MultipartStreamParserTest.body(
+                "",
+                MultipartStreamParserTest.part("a", null, "1".getBytes(StandardCharsets.UTF_8)),
+                MultipartStreamParserTest.part("b", "b.txt", "22".getBytes(StandardCharsets.UTF_8)));
+        new RequestPartsPublisher(request, UploadPolicy.DEFAULT).subscribe(new CollectingSubscriber());
+        subscription.request(1);
+        input.receive(body, 0, 50);
+        subscription.cancel();
+
+        // the rest of the body is still read, but no longer published
+        input.receive(body, 50, body.length - 50);
+        assertFalse(input.isReady());
+        input.finish();
+        subscription.request(10);
+        assertTrue(received.isEmpty());
+        assertFalse(completed);
+        assertNull(error);
+    }
+
+    @Test
+    public void testSingleSubscriber() {
+        final RequestPartsPublisher publisher = new RequestPartsPublisher(request, UploadPolicy.DEFAULT);
+        publisher.subscribe(new CollectingSubscriber());
+        assertNull(error);
+        publisher.subscribe(new CollectingSubscriber());
+        assertTrue(error instanceof IllegalStateException);
+    }
+
+    private final class CollectingSubscriber implements Flow.Subscriber<Part> {
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            RequestPartsPublisherTest.this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final Part item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    /** input stream calling the read listener like a container receiving the body in chunks */
+    private static final class ChunkedInputStream extends ServletInputStream {
+
+        private ReadListener listener;
+
+        private byte[] chunk = new byte[0];
+
+        private int pos;
+
+        private boolean finished;
+
+        void receive(final byte[] data, final int off, final int len) throws IOException {
+            chunk = new byte[len];
+            System.arraycopy(data, off, chunk, 0, len);
+            pos = 0;
+            listener.onDataAvailable();
+        }
+
+        void finish() throws IOException {
+            finished = true;
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return pos < chunk.length;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            this.listener = readListener;
+        }
+
+        @Override
+        public int read() {
+            return pos < chunk.length ? chunk[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            final int count = Math.min(len, chunk.length - pos);
+            System.arraycopy(chunk, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.parameters;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UploadPolicyTest {
+
+    private final UploadPolicy damPolicy = new UploadPolicy(1000, null, -1, 0, 0);
+
+    private final UploadPolicy formsPolicy = new UploadPolicy(10, "/tmp/forms", 5, 100, 2);
+
+    @After
+    public void tearDown() {
+        ParameterSupport.configure(UploadPolicy.DEFAULT, false);
+        ParameterSupport.setUploadPolicies(Collections.emptyList());
+    }
+
+    @Test
+    public void testNormalization() {
+        final UploadPolicy policy = new UploadPolicy(0, null, -5, 0, -1);
+        assertEquals(-1, policy.getMaxRequestSize());
+        assertNull(policy.getLocation());
+        assertEquals(-1, policy.getMaxFileSize());
+        assertEquals(UploadPolicy.DEFAULT_FILE_SIZE_THRESHOLD, policy.getFileSizeThreshold());
+        assertEquals(UploadPolicy.DEFAULT_MAX_FILE_COUNT, policy.getMaxFileCount());
+
+        assertEquals("/tmp/forms", formsPolicy.getLocation().getPath());
+        assertEquals(2, formsPolicy.getMaxFileCount());
+    }
+
+    @Test
+    public void testExceedsMaxRequestSize() {
+        assertFalse(UploadPolicy.DEFAULT.exceedsMaxRequestSize(Long.MAX_VALUE));
+        assertFalse(damPolicy.exceedsMaxRequestSize(-1));
+        assertFalse(damPolicy.exceedsMaxRequestSize(1000));
+        assertTrue(damPolicy.exceedsMaxRequestSize(1001));
+    }
+
+    @Test
+    public void testLongestPathWins() {
+        ParameterSupport.setUploadPolicies(
+                Arrays.asList(service(damPolicy, "/content/dam"), service(formsPolicy, "/content/dam/forms")));
+
+        assertSame(damPolicy, ParameterSupport.getUploadPolicy(request("/content/dam", null)));
+        assertSame(damPolicy, ParameterSupport.getUploadPolicy(request("/content/dam/images/a.jpg", null)));
+        assertSame(damPolicy, ParameterSupport.getUploadPolicy(request("/content/dam.createasset.html", null)));
+        assertSame(formsPolicy, ParameterSupport.getUploadPolicy(request("/content/dam/forms", null)));
+        assertSame(formsPolicy, ParameterSupport.getUploadPolicy(request("/content", "/dam/forms/x.html")));
+    }
+
+    @Test
+    public void testDefaultPolicy() {
+        ParameterSupport.configure(formsPolicy, false);
+        ParameterSupport.setUploadPolicies(Collections.singletonList(service(damPolicy, "/content/dam")));
+
+        // sibling names sharing the prefix do not match
+        assertSame(formsPolicy, ParameterSupport.getUploadPolicy(request("/content/damaged", null)));
+        assertSame(formsPolicy, ParameterSupport.getUploadPolicy(request("/content", null)));
+        assertSame(formsPolicy, ParameterSupport.getUploadPolicy(request(null, null)));
+    }
+
+    @Test
+    public void testIsUploadTooLarge() {
+        ParameterSupport.setUploadPolicies(Collections.singletonList(service(damPolicy, "/content/dam")));
+
+        final HttpServletRequest request = request("/content/dam/a", null);
+        Mockito.when(request.getMethod()).thenReturn("POST");
+        Mockito.when(request.getContentType()).thenReturn("Multipart/Form-Data; boundary=x");
+        Mockito.when(request.getContentLengthLong()).thenReturn(1001L);
+        assertTrue(ParameterSupport.isUploadTooLarge(request));
+
+        Mockito.when(request.getContentLengthLong()).thenReturn(-1L);
+        assertFalse(ParameterSupport.isUploadTooLarge(request));
+
+        Mockito.when(request.getContentLengthLong()).thenReturn(1001L);
+        Mockito.when(request.getContentType()).thenReturn("application/x-www-form-urlencoded");
+        assertFalse(ParameterSupport.isUploadTooLarge(request));
+
+        // no policy limiting the request size
+        assertFalse(ParameterSupport.isUploadTooLarge(request("/content/site", null)));
+    }
+
+    private static UploadPolicyService service(final UploadPolicy policy, final String... paths) {
+        final UploadPolicyService service = Mockito.mock(UploadPolicyService.class);
+        Mockito.when(service.getPaths()).thenReturn(paths);
+        Mockito.when(service.getPolicy()).thenReturn(policy);
+        return service;
+    }
+
+    private static HttpServletRequest request(final String servletPath, final String pathInfo) {
+        final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getServletPath()).thenReturn(servletPath);
+        Mockito.when(request.getPathInfo()).thenReturn(pathInfo);
+        return request;
+    }
+}
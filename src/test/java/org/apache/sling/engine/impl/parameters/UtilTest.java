@@ -20,6 +20,7 @@ package org.apache.sling.engine.impl.parameters;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
 
@@ -127,4 +128,159 @@ public class UtilTest extends TestCase {
         assertEquals("Some Page", map.getStringValue("title"));
         assertEquals("/content/geometrixx", map.getStringValue("parentPath"));
     }
+
+    public void test_decode_query_string() throws Exception {
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString("a=1&b=x+y%20z& c=%41%62&a=2&d=&e", Util.ENCODING_DIRECT, map, false);
+
+        assertEquals(5, map.size());
+        assertEquals(6, map.getRequestParameterList().size());
+        assertEquals("1", map.getStringValue("a"));
+        assertEquals("2", map.getStringValues("a")[1]);
+        assertEquals("x y z", map.getStringValue("b"));
+        assertEquals("Ab", map.getStringValue("c"));
+        assertEquals("", map.getStringValue("d"));
+        assertEquals("", map.getStringValue("e"));
+    }
+
+    public void test_decode_query_encoding() throws Exception {
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString("n%C3%A4me=%e1%9b%82", utf8, map, false);
+        assertEquals("\u16c2", map.getStringValue("n\u00e4me"));
+        assertEquals(utf8, ((AbstractRequestParameter) map.getValue("n\u00e4me")).getEncoding());
+    }
+
+    public void test_decode_query_bad_escape() throws Exception {
+        try {
+            Util.parseQueryString("a=%4g", Util.ENCODING_DIRECT, new ParameterMap(), false);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            assertEquals("Bad escape sequence: %4g", iae.getMessage());
+        }
+    }
+
+    public void test_decode_query_incomplete_escape() throws Exception {
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString("a=1&b=x%4", Util.ENCODING_DIRECT, map, false);
+        assertEquals("1", map.getStringValue("a"));
+        assertEquals("x", map.getStringValue("b"));
+    }
+
+    public void test_decode_query_stream_chunks() throws Exception {
+        final String query = "first=%41%42+c&second=" + "v".repeat(10000) + "&third=%7e";
+        // a stream returning a single byte per read
+        final InputStream input = new ByteArrayInputStream(query.getBytes(Util.ENCODING_DIRECT)) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString(input, Util.ENCODING_DIRECT, map, false);
+        assertEquals("AB c", map.getStringValue("first"));
+        assertEquals(10000, map.getStringValue("second").length());
+        assertEquals("~", map.getStringValue("third"));
+    }
+
+    public void test_form_encoding() {
+        assertEquals(Util.ENCODING_DIRECT, Util.getFormEncoding(null));
+        assertEquals(Util.ENCODING_DIRECT, Util.getFormEncoding("a=1&b=2"));
+        assertEquals(utf8, Util.getFormEncoding("_charset_=UTF-8"));
+        assertEquals(utf8, Util.getFormEncoding("a=1&_charset_=UTF-8&b=2"));
+        assertEquals(Util.ENCODING_DIRECT, Util.getFormEncoding("x_charset_=UTF-8"));
+        assertEquals(Util.ENCODING_DIRECT, Util.getFormEncoding("_charset_=XX_invalid_encoding_scheme_XX"));
+
+        Util.setDefaultFixEncoding(utf8);
+        try {
+            assertEquals(utf8, Util.getFormEncoding("a=1"));
+        } finally {
+            Util.setDefaultFixEncoding(Util.ENCODING_DIRECT);
+        }
+    }
+
+    public void test_fix_encoding_parsed_in_form_encoding() throws Exception {
+        final String query = "n%C3%A4me=%e1%9b%82&_charset_=utf-8";
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString(query, Util.getFormEncoding(query), map, false);
+        final RequestParameter param = map.getValue("n\u00e4me");
+        Util.fixEncoding(map);
+
+        // neither decoded again nor renamed
+        assertSame(param, map.getValue("n\u00e4me"));
+        assertEquals("\u16c2", param.getString());
+    }
+
+    public void test_fix_encoding_raw_name() throws Exception {
+        final ParameterMap map = new ParameterMap();
+        Util.parseQueryString("n%C3%A4me=%e1%9b%82", Util.ENCODING_DIRECT, map, false);
+        map.addParameter(new ContainerRequestParameter("_charset_", utf8, Util.ENCODING_DIRECT), false);
+        Util.fixEncoding(map);
+
+        assertNull(map.getValue("n\u00c3\u00a4me"));
+        assertEquals("n\u00e4me", map.getValue("n\u00e4me").getName());
+        assertEquals("\u16c2", map.getStringValue("n\u00e4me"));
+    }
+
+    public void test_parse_stops_at_parameter_count() throws Exception {
+        ParameterMap.setMaxParameters(2);
+        try {
+            final CountingInputStream data = new CountingInputStream(repeatedPairs(100000));
+            final ParameterMap map = new ParameterMap();
+            Util.parseQueryString(data, Util.ENCODING_DIRECT, map, false);
+
+            assertEquals(2, map.getRequestParameterList().size());
+            // only the first chunk has been read
+            assertTrue(data.count < 100000);
+        } finally {
+            ParameterMap.setMaxParameters(ParameterMap.DEFAULT_MAX_PARAMS);
+        }
+    }
+
+    public void test_parse_stops_at_parameter_sizes() throws Exception {
+        try {
+            ParameterMap.setMaxParameterSizes(5, -1);
+            ParameterMap map = new ParameterMap();
+            Util.parseQueryString("ab=1&cd=2&ef=3", Util.ENCODING_DIRECT, map, false);
+            assertEquals(2, map.size());
+            assertNull(map.getValue("ef"));
+
+            ParameterMap.setMaxParameterSizes(-1, 4);
+            map = new ParameterMap();
+            Util.parseQueryString("a=12&b=34&c=5", Util.ENCODING_DIRECT, map, false);
+            assertEquals(2, map.size());
+            assertEquals("34", map.getStringValue("b"));
+
+            // the sizes are summed up over the query and the body
+            final CountingInputStream data = new CountingInputStream(repeatedPairs(100000));
+            Util.parseQueryString(data, Util.ENCODING_DIRECT, map, false);
+            assertEquals(2, map.size());
+            assertTrue(data.count < 100000);
+        } finally {
+            ParameterMap.setMaxParameterSizes(-1, -1);
+        }
+    }
+
+    private static byte[] repeatedPairs(final int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) "x=1&".charAt(i % 4);
+        }
+        return data;
+    }
+
+    private static final class CountingInputStream extends ByteArrayInputStream {
+
+        int count;
+
+        CountingInputStream(final byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            final int read = super.read(b, off, len);
+            count += Math.max(read, 0);
+            return read;
+        }
+    }
 }
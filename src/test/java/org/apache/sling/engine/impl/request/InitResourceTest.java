@@ -18,6 +18,7 @@
  */
 package org.apache.sling.engine.impl.request;
 
+import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -106,6 +107,7 @@ public class InitResourceTest {
                 will(returnValue(new StringBuffer(requestURL)));
 
                 allowing(req).getRequestURI();
+                will(returnValue(new URL(requestURL).getPath()));
 
                 allowing(req).getPathInfo();
                 will(returnValue(pathInfo));
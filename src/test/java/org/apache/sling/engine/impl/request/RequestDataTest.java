@@ -89,6 +89,9 @@ public class RequestDataTest {
 
                 allowing(contentData).getRequestPathInfo();
 
+                allowing(contentData).getResource();
+                will(returnValue(null));
+
                 allowing(servlet).service(with(any(ServletRequest.class)), with(any(ServletResponse.class)));
 
                 allowing(servletConfig).getServletName();
@@ -101,6 +104,8 @@ public class RequestDataTest {
                 will(returnValue(2));
                 allowing(processor).getAdditionalResponseHeaders();
                 will(returnValue(Collections.emptyList()));
+                allowing(processor)
+                        .addServletCallData(with(any(String.class)), with(aNull(String.class)), with(any(long.class)));
             }
         });
 
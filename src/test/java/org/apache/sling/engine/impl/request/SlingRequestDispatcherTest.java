@@ -37,8 +37,8 @@ import org.apache.sling.api.servlets.ServletResolver;
 import org.apache.sling.engine.impl.SlingJakartaHttpServletRequestImpl;
 import org.apache.sling.engine.impl.SlingJakartaHttpServletResponseImpl;
 import org.apache.sling.engine.impl.SlingRequestProcessorImpl;
-import org.apache.sling.engine.impl.filter.FilterHandle;
 import org.apache.sling.engine.impl.filter.ServletFilterManager;
+import org.apache.sling.engine.impl.filter.SlingFilterChainHelper;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
@@ -130,7 +130,7 @@ public class SlingRequestDispatcherTest {
         servletResolverField.set(slingRequestProcessor, servletResolver);
 
         ServletFilterManager filterManager = mock(ServletFilterManager.class);
-        when(filterManager.getFilters(any())).thenReturn(new FilterHandle[] {});
+        when(filterManager.getFilterIndex(any())).thenReturn(new SlingFilterChainHelper().getIndex());
         Field filterManagerField = slingRequestProcessor.getClass().getDeclaredField("filterManager");
         filterManagerField.setAccessible(true);
         filterManagerField.set(slingRequestProcessor, filterManager);